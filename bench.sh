@@ -0,0 +1,16 @@
+#!/bin/bash -x
+
+# Benchmarks for the comparison hot paths - any options are passed on to bench.Bench
+# (see bench/Bench.java), e.g. ./bench.sh --bench quote --stores 1024 --cart 100
+
+# make temp directory
+mkdir benchexec
+
+# Compile the app and the benchmarks
+javac -g @argfile @bench/argfile -d ./benchexec
+
+# Run from here so the map screen benchmarks find imgs/, and keep a copy of the results
+java -Djava.awt.headless=true -cp benchexec bench.Bench "$@" | tee bench_output.txt
+
+# clean
+rm -rf benchexec
@@ -0,0 +1,236 @@
+package bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.regex.Pattern;
+
+/*Runs the benchmarks in Benchmarks for every combination of store count, catalog size
+ *and cart size, and prints one row per benchmark and combination:
+ *
+ *  java -cp <classes> bench.Bench [--bench regex] [--stores 4,256,1024]
+ *      [--products 25,2048,16384] [--cart 10,100] [--warmup 3] [--iterations 5]
+ *      [--time 200] [--fork 1]
+ *
+ *(defaults shown; bench.sh builds and runs it). Each combination runs in its own JVM
+ *(--fork 0 runs everything in this one), so what one combination leaves behind in the
+ *JIT and the heap doesn't leak into the next. Inside, every benchmark gets warm-up
+ *iterations and then timed ones of about --time milliseconds each; an iteration calls
+ *op() in chunks between clock reads, with the chunk size worked out during warm-up so
+ *reading the clock doesn't count.
+ *
+ *Columns: time per op (mean and standard deviation over the timed iterations), bytes
+ *allocated per op by the benchmark thread (from ThreadMXBean, like JMH's gc profiler),
+ *the allocation rate, and collections during the timed iterations.*/
+public class Bench {
+	private static final long minChunkNanos = 100000; // clock is read at most about this often
+	private static final String resultTag = "RESULT";
+	
+	public static volatile long sink; // every op's result ends up here
+	
+	private Pattern filter = Pattern.compile(".*");
+	private int[] storeCounts = {4, 256, 1024};
+	private int[] productCounts = {25, 2048, 16384};
+	private int[] cartSizes = {10, 100};
+	private int warmup = 3;
+	private int iterations = 5;
+	private long iterationMillis = 200;
+	private boolean fork = true;
+	
+	public static void main(String[] args) throws Exception {
+		Bench b = new Bench();
+		if (args.length > 0 && args[0].equals("--child")) {
+			b.parse(args, 4);
+			b.runCombination(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]), true);
+			return;
+		}
+		b.parse(args, 0);
+		b.runAll();
+	}
+	
+	private void parse(String[] args, int from) {
+		for (int i = from; i < args.length; i++) {
+			String a = args[i];
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("No value after " + a);
+			}
+			String v = args[++i];
+			if (a.equals("--bench")) {
+				this.filter = Pattern.compile(v);
+			} else if (a.equals("--stores")) {
+				this.storeCounts = parseList(v);
+			} else if (a.equals("--products")) {
+				this.productCounts = parseList(v);
+			} else if (a.equals("--cart")) {
+				this.cartSizes = parseList(v);
+			} else if (a.equals("--warmup")) {
+				this.warmup = Integer.parseInt(v);
+			} else if (a.equals("--iterations")) {
+				this.iterations = Integer.parseInt(v);
+			} else if (a.equals("--time")) {
+				this.iterationMillis = Long.parseLong(v);
+			} else if (a.equals("--fork")) {
+				this.fork = Integer.parseInt(v) != 0;
+			} else {
+				throw new IllegalArgumentException("Unknown option " + a);
+			}
+		}
+	}
+	
+	private static int[] parseList(String v) {
+		String[] parts = v.split(",");
+		int[] result = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			result[i] = Integer.parseInt(parts[i].trim());
+		}
+		return result;
+	}
+	
+	/*The options a child needs to run one combination the same way*/
+	private ArrayList<String> childOptions() {
+		ArrayList<String> o = new ArrayList<String>();
+		o.add("--bench");
+		o.add(this.filter.pattern());
+		o.add("--warmup");
+		o.add(String.valueOf(this.warmup));
+		o.add("--iterations");
+		o.add(String.valueOf(this.iterations));
+		o.add("--time");
+		o.add(String.valueOf(this.iterationMillis));
+		return o;
+	}
+	
+	private void runAll() throws Exception {
+		System.out.println(String.format("%-15s %7s %9s %5s %14s %11s %11s %9s %6s",
+				"benchmark", "stores", "products", "cart", "ns/op", "+-", "B/op", "MB/s", "gc"));
+		for (int s : this.storeCounts) {
+			for (int p : this.productCounts) {
+				for (int c : this.cartSizes) {
+					if (this.fork) {
+						this.forkCombination(s, p, c);
+					} else {
+						this.runCombination(s, p, c, false);
+					}
+				}
+			}
+		}
+	}
+	
+	private void forkCombination(int stores, int products, int cart) throws IOException, InterruptedException {
+		ArrayList<String> cmd = new ArrayList<String>();
+		cmd.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		cmd.add("-Djava.awt.headless=true");
+		cmd.add("-cp");
+		cmd.add(System.getProperty("java.class.path"));
+		cmd.add(Bench.class.getName());
+		cmd.add("--child");
+		cmd.add(String.valueOf(stores));
+		cmd.add(String.valueOf(products));
+		cmd.add(String.valueOf(cart));
+		cmd.addAll(this.childOptions());
+		Process proc = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(proc.getInputStream()))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith(resultTag + " ")) {
+					System.out.println(line.substring(resultTag.length() + 1));
+				} else {
+					System.out.println("  | " + line); // anything else the child printed
+				}
+			}
+		}
+		int status = proc.waitFor();
+		if (status != 0) {
+			System.out.println(String.format("%-15s %7d %9d %5d   child JVM exited with %d", "-", stores, products, cart, status));
+		}
+	}
+	
+	private void runCombination(int stores, int products, int cart, boolean child) throws Exception {
+		Fixture f = new Fixture(stores, products, cart);
+		for (Benchmark b : Benchmarks.all()) {
+			if (!this.filter.matcher(b.getName()).matches()) {
+				continue;
+			}
+			b.setUp(f);
+			String row = this.measure(b, f);
+			System.out.println(child ? resultTag + " " + row : row);
+		}
+	}
+	
+	/*Warm up, then time; returns the formatted row*/
+	private String measure(Benchmark b, Fixture f) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long iterationNanos = this.iterationMillis * 1000000L;
+		long counter = 0;
+		long acc = 0;
+		
+		/*Warm-up - also grows the chunk until one takes at least minChunkNanos*/
+		int chunk = 1;
+		for (int w = 0; w < this.warmup; w++) {
+			long end = System.nanoTime() + iterationNanos;
+			long now;
+			do {
+				long start = System.nanoTime();
+				for (int k = 0; k < chunk; k++) {
+					acc += b.op(counter++);
+				}
+				now = System.nanoTime();
+				if (now - start < minChunkNanos && chunk < (1 << 30)) {
+					chunk *= 2;
+				}
+			} while (now < end);
+		}
+		
+		double[] nsPerOp = new double[this.iterations];
+		long totalOps = 0;
+		long totalNanos = 0;
+		long gcBefore = gcCount();
+		long allocBefore = threads.getCurrentThreadAllocatedBytes();
+		for (int it = 0; it < this.iterations; it++) {
+			long ops = 0;
+			long start = System.nanoTime();
+			long end = start + iterationNanos;
+			long now;
+			do {
+				for (int k = 0; k < chunk; k++) {
+					acc += b.op(counter++);
+				}
+				ops += chunk;
+				now = System.nanoTime();
+			} while (now < end);
+			nsPerOp[it] = (double)(now - start) / ops;
+			totalOps += ops;
+			totalNanos += now - start;
+		}
+		long allocated = threads.getCurrentThreadAllocatedBytes() - allocBefore;
+		long gcs = gcCount() - gcBefore;
+		sink = acc;
+		
+		double mean = 0;
+		for (double v : nsPerOp) {
+			mean += v;
+		}
+		mean /= nsPerOp.length;
+		double var = 0;
+		for (double v : nsPerOp) {
+			var += (v - mean) * (v - mean);
+		}
+		double sd = nsPerOp.length > 1 ? Math.sqrt(var / (nsPerOp.length - 1)) : 0;
+		double bytesPerOp = (double)allocated / totalOps;
+		double mbPerSec = allocated / (totalNanos / 1e9) / (1 << 20);
+		return String.format("%-15s %7d %9d %5d %14.1f %11.1f %11.1f %9.1f %6d",
+				b.getName(), f.storeCount, f.productCount, f.cartSize, mean, sd, bytesPerOp, mbPerSec, gcs);
+	}
+	
+	private static long gcCount() {
+		long n = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			n += Math.max(0, gc.getCollectionCount());
+		}
+		return n;
+	}
+}
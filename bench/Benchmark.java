@@ -0,0 +1,21 @@
+package bench;
+
+/*One thing to time. setUp gets the fixture for the sizes being measured and does
+ *everything that shouldn't be timed; op is the operation itself, called over and over
+ *with a counter. op has to return something computed from its result - Bench folds it
+ *into a sink so the JIT can't throw the work away.*/
+public abstract class Benchmark {
+	private final String name;
+	
+	protected Benchmark(String n) {
+		this.name = n;
+	}
+	
+	public String getName() {
+		return this.name;
+	}
+	
+	public abstract void setUp(Fixture f) throws Exception;
+	
+	public abstract long op(long i);
+}
@@ -0,0 +1,300 @@
+package bench;
+
+import classes.CartCounts;
+import classes.CartTotals;
+import classes.PricingRules;
+import classes.Product;
+import classes.ProductRegistry;
+import classes.ProductSearchIndex;
+import classes.Quote;
+import classes.RoutePlanner;
+import classes.SplitPlan;
+import classes.Store;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import screens.CartListModel;
+import screens.MapScreen;
+
+/*The comparison hot paths, as the screen uses them:
+ *
+ *  quote          - the whole comparison for a cart (PriceComparisonEngine.quote)
+ *  splitCart      - the cheapest plan over up to 3 stores (PriceComparisonEngine.split)
+ *  cheapestStore  - every store's total for the cart, then the lowest
+ *  cartTotal      - one store's total, formatted for the label
+ *  missingItems   - one store's missing items, joined for the label
+ *  storeDistances - distances to every store and the closest one, as during a drag
+ *  priceModifier  - PricingRules.getModifier over the catalog
+ *  search         - a product search as it's typed, every other one with a typo
+ *  route          - the trip through the 10 closest stores, replanned as the user moves
+ *  routeLarge     - the same through 40 stores (past the exact limit, so heuristic)
+ *  mapPaint       - MapScreen.paint into an offscreen image, map layer cached
+ *  mapRender      - the same after the cached layer is thrown away (markers redrawn)
+ *
+ *Anything that varies per call (the store looked at, the user location) is stepped
+ *through with the op counter rather than drawn at random, so runs are repeatable.*/
+public class Benchmarks {
+	public static ArrayList<Benchmark> all() {
+		ArrayList<Benchmark> list = new ArrayList<Benchmark>();
+		list.add(new QuoteBenchmark());
+		list.add(new SplitCartBenchmark());
+		list.add(new CheapestStoreBenchmark());
+		list.add(new CartTotalBenchmark());
+		list.add(new MissingItemsBenchmark());
+		list.add(new StoreDistancesBenchmark());
+		list.add(new PriceModifierBenchmark());
+		list.add(new SearchBenchmark());
+		list.add(new RouteBenchmark("route", 10));
+		list.add(new RouteBenchmark("routeLarge", 40));
+		list.add(new MapPaintBenchmark("mapPaint", false));
+		list.add(new MapPaintBenchmark("mapRender", true));
+		return list;
+	}
+	
+	/*User location for the i-th call - walks back and forth across the map area*/
+	private static int stepX(long i) {
+		return Fixture.screenWidth / 4 + (int)(i % (Fixture.screenWidth / 2));
+	}
+	
+	private static int stepY(long i) {
+		return Fixture.screenHeight / 12 + (int)((i / 7) % (Fixture.screenHeight / 2));
+	}
+	
+	private static class QuoteBenchmark extends Benchmark {
+		private Fixture f;
+		
+		QuoteBenchmark() {
+			super("quote");
+		}
+		
+		@Override
+		public void setUp(Fixture fixture) {
+			this.f = fixture;
+		}
+		
+		@Override
+		public long op(long i) {
+			Quote q = this.f.engine.quote(this.f.pricing, this.f.cartIds, this.f.cartQuantities, stepX(i), stepY(i));
+			return q.getClosest().getId() + (q.getCheapest() == null ? 0 : q.getCheapest().getId());
+		}
+	}
+	
+	private static class SplitCartBenchmark extends Benchmark {
+		private Fixture f;
+		
+		SplitCartBenchmark() {
+			super("splitCart");
+		}
+		
+		@Override
+		public void setUp(Fixture fixture) {
+			this.f = fixture;
+		}
+		
+		@Override
+		public long op(long i) {
+			SplitPlan p = this.f.engine.split(this.f.quote, this.f.cartIds, this.f.cartQuantities, 3, 0.05);
+			return p.getTotalCents() + p.getStoreCount();
+		}
+	}
+	
+	private static class SearchBenchmark extends Benchmark {
+		private ProductSearchIndex index;
+		private String[] queries;
+		
+		SearchBenchmark() {
+			super("search");
+		}
+		
+		@Override
+		public void setUp(Fixture f) {
+			this.index = new ProductSearchIndex(f.products);
+			/*Every keystroke of "Product <n>" and of "Prodcut <n>" for a few products*/
+			ArrayList<String> q = new ArrayList<String>();
+			for (int k = 0; k < 8; k++) {
+				String name = f.products.get((k * 7919) % f.products.size()).getName();
+				for (String typed : new String[] {name, name.replace("Product", "Prodcut")}) {
+					for (int len = 1; len <= typed.length(); len++) {
+						q.add(typed.substring(0, len));
+					}
+				}
+			}
+			this.queries = q.toArray(new String[0]);
+		}
+		
+		@Override
+		public long op(long i) {
+			return this.index.search(this.queries[(int)(i % this.queries.length)], 200).length;
+		}
+	}
+	
+	private static class RouteBenchmark extends Benchmark {
+		private final int stops;
+		private RoutePlanner planner;
+		private ArrayList<Store> chosen;
+		
+		RouteBenchmark(String name, int n) {
+			super(name);
+			this.stops = n;
+		}
+		
+		@Override
+		public void setUp(Fixture f) {
+			this.planner = new RoutePlanner(Fixture.feetPerPixel);
+			this.chosen = f.engine.getClosestStores(f.userX, f.userY, this.stops);
+		}
+		
+		@Override
+		public long op(long i) {
+			return this.planner.plan(stepX(i), stepY(i), this.chosen).getLengthFeet();
+		}
+	}
+	
+	private static class CheapestStoreBenchmark extends Benchmark {
+		private Fixture f;
+		
+		CheapestStoreBenchmark() {
+			super("cheapestStore");
+		}
+		
+		@Override
+		public void setUp(Fixture fixture) {
+			this.f = fixture;
+		}
+		
+		@Override
+		public long op(long i) {
+			CartTotals t = new CartTotals(this.f.pricing.getPrices());
+			for (int j = 0; j < this.f.cartIds.length; j++) {
+				t.add(this.f.cartIds[j], this.f.cartQuantities[j]);
+			}
+			return t.getCheapestStoreId();
+		}
+	}
+	
+	private static class CartTotalBenchmark extends Benchmark {
+		private Fixture f;
+		private DecimalFormat df = new DecimalFormat("#.00"); // as Main formats totals
+		
+		CartTotalBenchmark() {
+			super("cartTotal");
+		}
+		
+		@Override
+		public void setUp(Fixture fixture) {
+			this.f = fixture;
+		}
+		
+		@Override
+		public long op(long i) {
+			Store s = this.f.stores.get((int)(i % this.f.stores.size()));
+			return ("$" + this.df.format(this.f.quote.getTotal(s) / 100.0)).length();
+		}
+	}
+	
+	private static class MissingItemsBenchmark extends Benchmark {
+		private Fixture f;
+		
+		MissingItemsBenchmark() {
+			super("missingItems");
+		}
+		
+		@Override
+		public void setUp(Fixture fixture) {
+			this.f = fixture;
+		}
+		
+		@Override
+		public long op(long i) {
+			Store s = this.f.stores.get((int)(i % this.f.stores.size()));
+			int[] missing = this.f.quote.getMissingItems(s);
+			if (missing.length == 0) {
+				return 0;
+			}
+			StringBuilder sb = new StringBuilder();
+			for (int j = 0; j < missing.length; j++) {
+				if (j > 0) {
+					sb.append(", ");
+				}
+				sb.append(this.f.products.get(missing[j]).getName());
+			}
+			return sb.length();
+		}
+	}
+	
+	private static class StoreDistancesBenchmark extends Benchmark {
+		private Fixture f;
+		
+		StoreDistancesBenchmark() {
+			super("storeDistances");
+		}
+		
+		@Override
+		public void setUp(Fixture fixture) {
+			this.f = fixture;
+		}
+		
+		@Override
+		public long op(long i) {
+			Quote q = this.f.engine.relocate(this.f.quote, stepX(i), stepY(i));
+			return q.getClosest().getId() + q.getDistance(q.getClosest());
+		}
+	}
+	
+	private static class PriceModifierBenchmark extends Benchmark {
+		private PricingRules rules;
+		private int storeCount;
+		private Product[] products;
+		
+		PriceModifierBenchmark() {
+			super("priceModifier");
+		}
+		
+		@Override
+		public void setUp(Fixture fixture) {
+			this.rules = fixture.rules;
+			this.storeCount = fixture.stores.size();
+			this.products = fixture.products.toArray(new Product[0]);
+		}
+		
+		@Override
+		public long op(long i) {
+			int s = (int)(i % this.storeCount);
+			Product p = this.products[(int)((i * 31) % this.products.length)];
+			return Double.doubleToRawLongBits(this.rules.getModifier(s, p));
+		}
+	}
+	
+	/*Needs imgs/map.png under the working directory, like the app*/
+	private static class MapPaintBenchmark extends Benchmark {
+		private final boolean invalidate;
+		private MapScreen screen;
+		private BufferedImage image;
+		private Graphics2D g;
+		
+		MapPaintBenchmark(String name, boolean invalidate) {
+			super(name);
+			this.invalidate = invalidate;
+		}
+		
+		@Override
+		public void setUp(Fixture f) {
+			this.screen = new MapScreen(Fixture.screenWidth, Fixture.screenHeight, f.userX, f.userY, f.stores, 6, new CartListModel(new CartCounts(), new ProductRegistry()));
+			this.screen.setSize(Fixture.screenWidth, Fixture.screenHeight);
+			this.screen.setSelectedStore(f.stores.get(0));
+			this.screen.setSelectedStoreBool(true);
+			this.image = new BufferedImage(Fixture.screenWidth, Fixture.screenHeight, BufferedImage.TYPE_INT_RGB);
+			this.g = this.image.createGraphics();
+		}
+		
+		@Override
+		public long op(long i) {
+			if (this.invalidate) {
+				this.screen.invalidateStaticLayer();
+			}
+			this.screen.paint(this.g);
+			return this.image.getRGB((int)(i % Fixture.screenWidth), Fixture.screenHeight / 3);
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package bench;
+
+import classes.Catalog;
+import classes.InventoryBitmap;
+import classes.PriceComparisonEngine;
+import classes.PricingRules;
+import classes.PricingSnapshot;
+import classes.Product;
+import classes.ProductRegistry;
+import classes.Quote;
+import classes.Store;
+import enums.ProductType;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Random;
+
+/*A made-up catalog of a given size, the same every time for the same sizes (fixed seed),
+ *plus a cart and a quote for it. Stores are spread over the map area of a 1920x1080
+ *screen, carry about 80% of the products each, and all but the first four have
+ *pricing rules from the catalog - the first four are Store A to D, which still go
+ *through the built-in modifiers.*/
+public class Fixture {
+	public static final int screenWidth = 1920;
+	public static final int screenHeight = 1080;
+	public static final int feetPerPixel = 11;
+	
+	public final int storeCount;
+	public final int productCount;
+	public final int cartSize;
+	
+	public final ArrayList<Product> products;
+	public final ArrayList<Store> stores;
+	public final PricingRules rules;
+	public final PricingSnapshot pricing;
+	public final PriceComparisonEngine engine;
+	public final int[] cartIds; // may repeat products, like a real cart
+	public final int[] cartQuantities;
+	public final int userX;
+	public final int userY;
+	public final Quote quote; // for cartIds from userX, userY
+	
+	public Fixture(int stores, int products, int cart) {
+		this.storeCount = stores;
+		this.productCount = products;
+		this.cartSize = cart;
+		Random r = new Random(42);
+		ProductType[] types = ProductType.values();
+		
+		ProductRegistry registry = new ProductRegistry(products);
+		for (int i = 0; i < products; i++) {
+			registry.add(new Product("Product " + i, types[i % types.length], r.nextInt(10) == 0, BigDecimal.valueOf(50 + r.nextInt(2000), 2)));
+		}
+		this.products = registry.getProducts();
+		
+		this.stores = new ArrayList<Store>(stores);
+		this.rules = new PricingRules(stores);
+		for (int i = 0; i < stores; i++) {
+			InventoryBitmap inventory = new InventoryBitmap();
+			for (int j = 0; j < products; j++) {
+				if (r.nextInt(5) != 0) {
+					inventory.add(j);
+				}
+			}
+			int x = screenWidth / 4 + r.nextInt(screenWidth / 2);
+			int y = screenHeight / 3 - screenHeight / 4 + r.nextInt(screenHeight / 2);
+			Store s = new Store(i < 4 ? "Store " + (char)('A' + i) : "Store " + i, inventory, x, y);
+			s.setId(i);
+			if (i < 4) {
+				for (String[] rule : sampleRules[i]) {
+					this.rules.setTypeModifier(i, rule[0].equals("*") ? PricingRules.ANY_TYPE : ProductType.valueOf(rule[0]).ordinal(), Double.parseDouble(rule[1]));
+				}
+			} else {
+				for (int t = 0; t < types.length; t++) {
+					this.rules.setTypeModifier(i, t, 0.85 + r.nextInt(30) / 100.0);
+				}
+			}
+			this.stores.add(s);
+		}
+		
+		this.pricing = new PricingSnapshot(new Catalog(registry, this.stores, this.rules).getPriceMatrix(), this.stores);
+		this.engine = new PriceComparisonEngine(this.stores, feetPerPixel);
+		this.cartIds = new int[cart];
+		this.cartQuantities = new int[cart];
+		for (int i = 0; i < cart; i++) {
+			this.cartIds[i] = r.nextInt(products);
+			this.cartQuantities[i] = 1 + r.nextInt(3);
+		}
+		this.userX = 52 * screenWidth / 100;
+		this.userY = 29 * screenHeight / 100;
+		this.quote = this.engine.quote(this.pricing, this.cartIds, this.cartQuantities, this.userX, this.userY);
+	}
+	
+	/*The first four stores price like the sample data (data/pricing.csv)*/
+	private static final String[][][] sampleRules = {
+		{{"BEVERAGE", "0.92"}, {"FRUIT", "0.94"}, {"MEAT", "0.93"}, {"*", "1.05"}},
+		{{"SNACK", "0.91"}, {"UTIL", "0.92"}, {"VEGGIE", "0.91"}, {"*", "1.06"}},
+		{{"WHEAT", "0.95"}, {"DAIRY", "0.93"}, {"MEAT", "0.91"}, {"*", "1.03"}},
+		{{"*", "0.98"}}
+	};
+}
@@ -0,0 +1,198 @@
+package classes;
+
+import java.util.Arrays;
+
+/*The cart as product id -> quantity, one line per product. Lines are kept packed in
+ *two int arrays (ids and quantities, in the order they were added, except that removing
+ *a line moves the last one into its place), and an open-addressing table (linear
+ *probing, keys and values side by side in one int array) finds a product's line. So
+ *finding, adding, changing or removing a product is O(1) whatever the size of the cart,
+ *and nothing is boxed.
+ *
+ *Not thread-safe - the engine gets copies (getIds, getQuantities).*/
+public class CartCounts {
+	private static final int EMPTY = -1; // no product has a negative id
+	
+	private int[] ids = new int[8]; // by line
+	private int[] quantities = new int[8];
+	private int size = 0;
+	private long totalQuantity = 0;
+	
+	private int[] table; // [2 * slot] = product id or EMPTY, [2 * slot + 1] = its line
+	private int mask; // slots - 1, slots a power of two
+	
+	public CartCounts() {
+		this.table = new int[2 * 16];
+		Arrays.fill(this.table, EMPTY);
+		this.mask = 15;
+	}
+	
+	/*Lines - different products*/
+	public int size() {
+		return this.size;
+	}
+	
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+	
+	/*Every quantity added up*/
+	public long getTotalQuantity() {
+		return this.totalQuantity;
+	}
+	
+	public int getId(int line) {
+		return this.ids[line];
+	}
+	
+	public int getQuantity(int line) {
+		return this.quantities[line];
+	}
+	
+	/*How many of the product are in the cart, 0 if none*/
+	public int get(int productId) {
+		int line = this.lineOf(productId);
+		return line == -1 ? 0 : this.quantities[line];
+	}
+	
+	/*The product's line, or -1 if it isn't in the cart*/
+	public int lineOf(int productId) {
+		for (int slot = hash(productId) & this.mask; ; slot = (slot + 1) & this.mask) {
+			int key = this.table[2 * slot];
+			if (key == productId) {
+				return this.table[2 * slot + 1];
+			}
+			if (key == EMPTY) {
+				return -1;
+			}
+		}
+	}
+	
+	/*Add quantity more of the product (a new line if it wasn't in the cart) - returns
+	 *its line*/
+	public int add(int productId, int quantity) {
+		int line = this.lineOf(productId);
+		if (line == -1) {
+			return this.insert(productId, quantity);
+		}
+		this.set(line, this.quantities[line] + quantity);
+		return line;
+	}
+	
+	/*Change a line's quantity - it has to stay above 0, remove the line instead*/
+	public void set(int line, int quantity) {
+		if (quantity <= 0) {
+			throw new IllegalArgumentException("Quantity has to be at least 1, got " + quantity);
+		}
+		this.totalQuantity += quantity - this.quantities[line];
+		this.quantities[line] = quantity;
+	}
+	
+	/*Take a line out - the last line moves into its place, so returns the line that
+	 *moved there (-1 if it was the last)*/
+	public int remove(int line) {
+		int productId = this.ids[line];
+		this.totalQuantity -= this.quantities[line];
+		this.deleteKey(productId);
+		int last = --this.size;
+		if (line == last) {
+			return -1;
+		}
+		this.ids[line] = this.ids[last];
+		this.quantities[line] = this.quantities[last];
+		this.table[2 * this.slotOf(this.ids[line]) + 1] = line;
+		return last;
+	}
+	
+	public void clear() {
+		this.size = 0;
+		this.totalQuantity = 0;
+		Arrays.fill(this.table, EMPTY);
+	}
+	
+	/*Copies, line by line, as PriceComparisonEngine takes them*/
+	public int[] getIds() {
+		return Arrays.copyOf(this.ids, this.size);
+	}
+	
+	public int[] getQuantities() {
+		return Arrays.copyOf(this.quantities, this.size);
+	}
+	
+	private int insert(int productId, int quantity) {
+		if (productId < 0) {
+			throw new IllegalArgumentException("Bad product id " + productId);
+		}
+		if (quantity <= 0) {
+			throw new IllegalArgumentException("Quantity has to be at least 1, got " + quantity);
+		}
+		if (this.size == this.ids.length) {
+			this.ids = Arrays.copyOf(this.ids, 2 * this.size);
+			this.quantities = Arrays.copyOf(this.quantities, 2 * this.size);
+		}
+		if (2 * (this.size + 1) > this.mask + 1) {
+			this.rehash(2 * (this.mask + 1)); // keep it at most half full
+		}
+		int line = this.size++;
+		this.ids[line] = productId;
+		this.quantities[line] = quantity;
+		this.totalQuantity += quantity;
+		this.put(productId, line);
+		return line;
+	}
+	
+	private int slotOf(int productId) {
+		int slot = hash(productId) & this.mask;
+		while (this.table[2 * slot] != productId) {
+			slot = (slot + 1) & this.mask;
+		}
+		return slot;
+	}
+	
+	private void put(int productId, int line) {
+		int slot = hash(productId) & this.mask;
+		while (this.table[2 * slot] != EMPTY) {
+			slot = (slot + 1) & this.mask;
+		}
+		this.table[2 * slot] = productId;
+		this.table[2 * slot + 1] = line;
+	}
+	
+	/*Linear probing can't just leave a hole (it would cut off keys further along), so
+	 *later keys in the same run are shifted back into it where that's still on their
+	 *probe path*/
+	private void deleteKey(int productId) {
+		int hole = this.slotOf(productId);
+		int slot = hole;
+		while (true) {
+			slot = (slot + 1) & this.mask;
+			int key = this.table[2 * slot];
+			if (key == EMPTY) {
+				break;
+			}
+			int home = hash(key) & this.mask;
+			/*Can move back if home isn't cyclically within (hole, slot]*/
+			if (((slot - home) & this.mask) >= ((slot - hole) & this.mask)) {
+				this.table[2 * hole] = key;
+				this.table[2 * hole + 1] = this.table[2 * slot + 1];
+				hole = slot;
+			}
+		}
+		this.table[2 * hole] = EMPTY;
+	}
+	
+	private void rehash(int slots) {
+		this.table = new int[2 * slots];
+		Arrays.fill(this.table, EMPTY);
+		this.mask = slots - 1;
+		for (int line = 0; line < this.size; line++) {
+			this.put(this.ids[line], line);
+		}
+	}
+	
+	/*Ids are dense and often added in runs, so spread them out before masking*/
+	private static int hash(int productId) {
+		int h = productId * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
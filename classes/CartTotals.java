@@ -0,0 +1,87 @@
+package classes;
+
+/*Running cart total and missing item count for every store. Adding or removing one
+ *product only touches that product's column of the price matrix, so keeping every
+ *store's total current costs O(stores) per cart edit, and picking the cheapest store
+ *is a single pass over the totals.*/
+public class CartTotals {
+	private PriceMatrix prices;
+	private long[] totals; // in cents, indexed by store id
+	private long[] missingCounts; // cart items the store doesn't carry, duplicates counted
+	private long itemCount; // long, like CartCounts' total - quantities add up past an int
+	
+	public CartTotals(PriceMatrix m) {
+		this.prices = m;
+		this.totals = new long[m.getStoreCount()];
+		this.missingCounts = new long[m.getStoreCount()];
+		this.itemCount = 0;
+	}
+	
+	private CartTotals(CartTotals other) {
+		this.prices = other.prices;
+		this.totals = other.totals.clone();
+		this.missingCounts = other.missingCounts.clone();
+		this.itemCount = other.itemCount;
+	}
+	
+	/*Independent copy - e.g. to hand to another thread while this one keeps changing*/
+	public CartTotals copy() {
+		return new CartTotals(this);
+	}
+	
+	public void add(Product p) {
+		this.apply(p.getId(), 1);
+	}
+	
+	public void remove(Product p) {
+		this.apply(p.getId(), -1);
+	}
+	
+	/*Add (or, with a negative quantity, remove) several of one product at once*/
+	public void add(int productId, int quantity) {
+		this.apply(productId, quantity);
+	}
+	
+	/*The prices the totals are worked out from*/
+	public PriceMatrix getPrices() {
+		return this.prices;
+	}
+	
+	public long getTotal(Store s) {
+		return this.totals[s.getId()];
+	}
+	
+	public long getMissingCount(Store s) {
+		return this.missingCounts[s.getId()];
+	}
+	
+	public long getItemCount() {
+		return this.itemCount;
+	}
+	
+	/*Id of the store with the lowest non-zero total (first one wins ties), or -1 if no
+	 *store carries anything in the cart*/
+	public int getCheapestStoreId() {
+		int cheapest = -1;
+		long cheapestTotal = Long.MAX_VALUE;
+		for (int i = 0; i < this.totals.length; i++) {
+			if (this.totals[i] < cheapestTotal && this.totals[i] != 0) {
+				cheapestTotal = this.totals[i];
+				cheapest = i;
+			}
+		}
+		return cheapest;
+	}
+	
+	private void apply(int productId, int quantity) {
+		for (int i = 0; i < this.totals.length; i++) {
+			long price = this.prices.getPrice(i, productId);
+			if (price == PriceMatrix.UNAVAILABLE) {
+				this.missingCounts[i] += quantity;
+			} else {
+				this.totals[i] += quantity * price;
+			}
+		}
+		this.itemCount += quantity;
+	}
+}
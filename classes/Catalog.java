@@ -0,0 +1,51 @@
+package classes;
+
+import java.util.ArrayList;
+
+/*Everything CatalogLoader reads in: the products (see ProductRegistry) and stores, with
+ *their ids assigned and inventories filled in, and the compiled pricing rules. Ids are
+ *positions in these lists.
+ *The price matrix is worked out the first time it's asked for, unless the catalog came
+ *from a snapshot that already has one.*/
+public class Catalog {
+	private ProductRegistry products;
+	private ArrayList<Store> stores;
+	private PricingRules rules;
+	private PriceMatrix prices;
+	
+	/*The rules get compiled if they aren't yet*/
+	public Catalog(ProductRegistry p, ArrayList<Store> s, PricingRules r) {
+		this(p, s, r, null);
+	}
+	
+	Catalog(ProductRegistry p, ArrayList<Store> s, PricingRules r, PriceMatrix m) {
+		this.products = p;
+		this.stores = s;
+		this.rules = r;
+		this.rules.compile();
+		this.prices = m;
+	}
+	
+	public ArrayList<Product> getProducts() {
+		return this.products.getProducts();
+	}
+	
+	public ProductRegistry getProductRegistry() {
+		return this.products;
+	}
+	
+	public ArrayList<Store> getStores() {
+		return this.stores;
+	}
+	
+	public PricingRules getPricingRules() {
+		return this.rules;
+	}
+	
+	public PriceMatrix getPriceMatrix() {
+		if (this.prices == null) {
+			this.prices = new PriceMatrix(this.stores, this.products.getProducts(), this.rules);
+		}
+		return this.prices;
+	}
+}
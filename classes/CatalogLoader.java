@@ -0,0 +1,610 @@
+package classes;
+
+import enums.ProductType;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/*Loads the catalog from a directory of data files:
+ *
+ *  products  - name, type, uniform, price
+ *  stores    - name, x, y (x and y as fractions of the screen size, 0 to 1)
+ *  inventory - store, product (one record per product a store carries, by name)
+ *  pricing   - store, type, modifier (optional; type * sets the store's default)
+ *  overrides - store, product, modifier (optional; for single products, whatever
+ *              their type or uniform flag)
+ *
+ *Each one is either <name>.csv, with a header row naming the columns, or <name>.jsonl,
+ *with one flat JSON object per line. Files are cut into chunks of a few megabytes on
+ *line boundaries and the chunks are parsed in parallel, each through a small fixed
+ *read buffer. Parsed chunks are folded into the model in file order (so ids follow the
+ *order of the files) and only a few chunks are in flight at a time, so however big the
+ *files get, the memory used on top of the model itself stays bounded.*/
+public class CatalogLoader {
+	private static final long chunkSize = 4 << 20; // bytes of input per parse task
+	private static final int bufferSize = 64 << 10;
+	
+	private static final String[] productColumns = {"name", "type", "uniform", "price"};
+	private static final String[] storeColumns = {"name", "x", "y"};
+	private static final String[] inventoryColumns = {"store", "product"};
+	private static final String[] pricingColumns = {"store", "type", "modifier"};
+	private static final String[] overrideColumns = {"store", "product", "modifier"};
+	
+	private int threads;
+	
+	public CatalogLoader() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+	
+	public CatalogLoader(int t) {
+		this.threads = Math.max(1, t);
+	}
+	
+	/*Read the whole catalog - store locations are scaled to the given screen size*/
+	public Catalog load(File dir, final int screenWidth, final int screenHeight) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "catalog-loader");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try {
+			/*Products and stores first - inventory and pricing records refer to them by name*/
+			final ProductRegistry products = new ProductRegistry();
+			this.parse(pool, openTable(dir, "products", productColumns), new ChunkParser<ArrayList<Product>>() {
+				@Override
+				ArrayList<Product> newChunk() {
+					return new ArrayList<Product>();
+				}
+				
+				@Override
+				void record(ArrayList<Product> chunk, String[] f) {
+					chunk.add(new Product(f[0], ProductType.valueOf(f[1].toUpperCase()), parseBoolean(f[2]), new BigDecimal(f[3])));
+				}
+				
+				@Override
+				void merge(ArrayList<Product> chunk) {
+					for (Product p : chunk) {
+						products.add(p);
+					}
+				}
+			});
+			
+			final ArrayList<Store> stores = new ArrayList<Store>();
+			final HashMap<String, Store> storesByName = new HashMap<String, Store>();
+			this.parse(pool, openTable(dir, "stores", storeColumns), new ChunkParser<ArrayList<Store>>() {
+				@Override
+				ArrayList<Store> newChunk() {
+					return new ArrayList<Store>();
+				}
+				
+				@Override
+				void record(ArrayList<Store> chunk, String[] f) {
+					chunk.add(new Store(f[0], new InventoryBitmap(), scale(f[1], screenWidth), scale(f[2], screenHeight)));
+				}
+				
+				@Override
+				void merge(ArrayList<Store> chunk) {
+					for (Store s : chunk) {
+						if (storesByName.put(s.getName(), s) != null) {
+							throw new IllegalArgumentException("duplicate store " + s.getName());
+						}
+						s.setId(stores.size());
+						stores.add(s);
+					}
+				}
+			});
+			
+			/*The name maps are only read from here on, so the parse threads can share them*/
+			this.parse(pool, openTable(dir, "inventory", inventoryColumns), new ChunkParser<IdPairs>() {
+				@Override
+				IdPairs newChunk() {
+					return new IdPairs();
+				}
+				
+				@Override
+				void record(IdPairs chunk, String[] f) {
+					chunk.add(lookup(storesByName, f[0], "store").getId(), lookup(products, f[1]).getId());
+				}
+				
+				@Override
+				void merge(IdPairs chunk) {
+					for (int i = 0; i < chunk.size; i++) {
+						stores.get(chunk.first[i]).getInventoryIds().add(chunk.second[i]);
+					}
+				}
+			});
+			
+			/*Types without a rule get the store's default, and stores without a default
+			 *get 1.00 (see PricingRules)*/
+			final PricingRules rules = new PricingRules(stores.size());
+			if (hasTable(dir, "pricing")) {
+				this.parse(pool, openTable(dir, "pricing", pricingColumns), new ChunkParser<ArrayList<double[]>>() {
+					@Override
+					ArrayList<double[]> newChunk() {
+						return new ArrayList<double[]>();
+					}
+					
+					@Override
+					void record(ArrayList<double[]> chunk, String[] f) {
+						int type = f[1].equals("*") ? PricingRules.ANY_TYPE : ProductType.valueOf(f[1].toUpperCase()).ordinal();
+						chunk.add(new double[] {lookup(storesByName, f[0], "store").getId(), type, Double.parseDouble(f[2])});
+					}
+					
+					@Override
+					void merge(ArrayList<double[]> chunk) {
+						for (double[] rule : chunk) {
+							rules.setTypeModifier((int)rule[0], (int)rule[1], rule[2]);
+						}
+					}
+				});
+			}
+			if (hasTable(dir, "overrides")) {
+				this.parse(pool, openTable(dir, "overrides", overrideColumns), new ChunkParser<ArrayList<double[]>>() {
+					@Override
+					ArrayList<double[]> newChunk() {
+						return new ArrayList<double[]>();
+					}
+					
+					@Override
+					void record(ArrayList<double[]> chunk, String[] f) {
+						chunk.add(new double[] {lookup(storesByName, f[0], "store").getId(), lookup(products, f[1]).getId(), Double.parseDouble(f[2])});
+					}
+					
+					@Override
+					void merge(ArrayList<double[]> chunk) {
+						for (double[] rule : chunk) {
+							rules.setProductModifier((int)rule[0], (int)rule[1], rule[2]);
+						}
+					}
+				});
+			}
+			rules.compile();
+			
+			return new Catalog(products, stores, rules);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	/*Parse the table a chunk at a time on the pool, folding each chunk into the model on
+	 *this thread, in file order, as soon as it and every chunk before it are done*/
+	private <T> void parse(ExecutorService pool, final Table t, final ChunkParser<T> parser) throws IOException {
+		ArrayDeque<Future<T>> inFlight = new ArrayDeque<Future<T>>();
+		try (final FileChannel ch = FileChannel.open(t.file.toPath(), StandardOpenOption.READ)) {
+			long[] bounds = chunkBounds(ch, t.dataStart, ch.size());
+			int next = 0;
+			while (next < bounds.length - 1 || !inFlight.isEmpty()) {
+				while (next < bounds.length - 1 && inFlight.size() < 2 * this.threads) {
+					final long start = bounds[next];
+					final long end = bounds[next + 1];
+					inFlight.add(pool.submit(new Callable<T>() {
+						@Override
+						public T call() throws IOException {
+							return parseChunk(ch, t, start, end, parser);
+						}
+					}));
+					next++;
+				}
+				T chunk = await(inFlight.poll());
+				try {
+					parser.merge(chunk);
+				} catch (RuntimeException e) {
+					throw new IOException(t.file + ": " + e.getMessage(), e);
+				}
+			}
+		} finally {
+			for (Future<T> f : inFlight) {
+				f.cancel(true);
+			}
+		}
+	}
+	
+	private static <T> T parseChunk(FileChannel ch, Table t, long start, long end, ChunkParser<T> parser) throws IOException {
+		T chunk = parser.newChunk();
+		LineReader r = new LineReader(ch, start, end);
+		String line;
+		while ((line = r.next()) != null) {
+			if (line.isBlank()) {
+				continue;
+			}
+			try {
+				parser.record(chunk, t.fields(line));
+			} catch (RuntimeException e) {
+				throw new IOException(t.file + ", byte " + r.lineStart + ": bad record \"" + line + "\" (" + e.getMessage() + ")", e);
+			}
+		}
+		return chunk;
+	}
+	
+	private static <T> T await(Future<T> f) throws IOException {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("catalog load interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException)e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+	
+	/*Offsets that cut [start, size) into pieces of about chunkSize, each one starting at
+	 *the beginning of a line*/
+	private static long[] chunkBounds(FileChannel ch, long start, long size) throws IOException {
+		long[] bounds = new long[(int)((size - start) / chunkSize) + 2];
+		int n = 0;
+		bounds[n++] = start;
+		long cut = start + chunkSize;
+		while (cut < size) {
+			LineReader r = new LineReader(ch, cut - 1, size);
+			r.next(); // skip to the end of the line the cut falls in
+			if (r.consumed >= size) {
+				break;
+			}
+			bounds[n++] = r.consumed;
+			cut = r.consumed + chunkSize;
+		}
+		bounds[n++] = size;
+		return Arrays.copyOf(bounds, n);
+	}
+	
+	private static boolean hasTable(File dir, String name) {
+		return new File(dir, name + ".csv").isFile() || new File(dir, name + ".jsonl").isFile();
+	}
+	
+	private static Table openTable(File dir, String name, String[] columns) throws IOException {
+		Table t = new Table();
+		t.columns = columns;
+		File csv = new File(dir, name + ".csv");
+		File jsonl = new File(dir, name + ".jsonl");
+		if (csv.isFile()) {
+			t.file = csv;
+			try (FileChannel ch = FileChannel.open(csv.toPath(), StandardOpenOption.READ)) {
+				LineReader r = new LineReader(ch, 0, ch.size());
+				String header = r.next();
+				if (header == null) {
+					throw new IOException(csv + " has no header row");
+				}
+				t.dataStart = r.consumed;
+				String[] names = splitCsv(header);
+				t.csvIndex = new int[columns.length];
+				for (int c = 0; c < columns.length; c++) {
+					t.csvIndex[c] = -1;
+					for (int i = 0; i < names.length; i++) {
+						if (names[i].equalsIgnoreCase(columns[c])) {
+							t.csvIndex[c] = i;
+						}
+					}
+					if (t.csvIndex[c] == -1) {
+						throw new IOException(csv + " has no " + columns[c] + " column");
+					}
+				}
+			}
+		} else if (jsonl.isFile()) {
+			t.file = jsonl;
+			t.json = true;
+		} else {
+			throw new FileNotFoundException("No " + name + ".csv or " + name + ".jsonl in " + dir);
+		}
+		return t;
+	}
+	
+	private static Product lookup(ProductRegistry products, String name) {
+		Product p = products.get(name);
+		if (p == null) {
+			throw new IllegalArgumentException("unknown product " + name);
+		}
+		return p;
+	}
+	
+	private static <V> V lookup(HashMap<String, V> byName, String name, String what) {
+		V v = byName.get(name);
+		if (v == null) {
+			throw new IllegalArgumentException("unknown " + what + " " + name);
+		}
+		return v;
+	}
+	
+	private static boolean parseBoolean(String s) {
+		if (s.equalsIgnoreCase("true")) {
+			return true;
+		} else if (s.equalsIgnoreCase("false")) {
+			return false;
+		}
+		throw new IllegalArgumentException("not true or false: " + s);
+	}
+	
+	/*Fraction of the screen to pixels - BigDecimal so that e.g. .29 of 100 comes out as
+	 *29 and not 28.999...*/
+	private static int scale(String fraction, int size) {
+		return new BigDecimal(fraction).multiply(BigDecimal.valueOf(size)).intValue();
+	}
+	
+	/*Split a CSV row. Fields can be double-quoted to hold commas, with "" for a quote.*/
+	static String[] splitCsv(String line) {
+		if (line.indexOf('"') == -1) {
+			String[] fields = line.split(",", -1); // fast path - split doesn't use a regex for one character
+			for (int i = 0; i < fields.length; i++) {
+				fields[i] = fields[i].trim();
+			}
+			return fields;
+		}
+		ArrayList<String> fields = new ArrayList<String>();
+		StringBuilder sb = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quoted) {
+				if (c != '"') {
+					sb.append(c);
+				} else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					sb.append('"');
+					i++;
+				} else {
+					quoted = false;
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				fields.add(sb.toString().trim());
+				sb.setLength(0);
+			} else {
+				sb.append(c);
+			}
+		}
+		fields.add(sb.toString().trim());
+		return fields.toArray(new String[0]);
+	}
+	
+	/*Values of a flat JSON object - strings, numbers, true/false and null (which counts
+	 *as missing) - by key. Nested objects and arrays aren't needed for the catalog.*/
+	static HashMap<String, String> parseJsonObject(String line) {
+		HashMap<String, String> values = new HashMap<String, String>();
+		int[] pos = {0};
+		expect(line, pos, '{');
+		if (peek(line, pos) == '}') {
+			return values;
+		}
+		while (true) {
+			expect(line, pos, '"');
+			String key = readJsonString(line, pos);
+			expect(line, pos, ':');
+			String value;
+			if (peek(line, pos) == '"') {
+				pos[0]++;
+				value = readJsonString(line, pos);
+			} else {
+				int start = pos[0];
+				while (pos[0] < line.length() && ",} \t".indexOf(line.charAt(pos[0])) == -1) {
+					pos[0]++;
+				}
+				value = line.substring(start, pos[0]);
+				if (value.isEmpty()) {
+					throw new IllegalArgumentException("missing value for " + key);
+				}
+				if (value.equals("null")) {
+					value = null;
+				}
+			}
+			if (value != null) {
+				values.put(key, value);
+			}
+			char c = peek(line, pos);
+			pos[0]++;
+			if (c == '}') {
+				return values;
+			} else if (c != ',') {
+				throw new IllegalArgumentException("expected , or } at " + (pos[0] - 1));
+			}
+		}
+	}
+	
+	/*Next non-space character, without consuming it (pos is left on it)*/
+	private static char peek(String s, int[] pos) {
+		while (pos[0] < s.length() && Character.isWhitespace(s.charAt(pos[0]))) {
+			pos[0]++;
+		}
+		if (pos[0] >= s.length()) {
+			throw new IllegalArgumentException("unexpected end of line");
+		}
+		return s.charAt(pos[0]);
+	}
+	
+	private static void expect(String s, int[] pos, char c) {
+		if (peek(s, pos) != c) {
+			throw new IllegalArgumentException("expected " + c + " at " + pos[0]);
+		}
+		pos[0]++;
+	}
+	
+	/*pos is just past the opening quote; afterwards it's just past the closing one*/
+	private static String readJsonString(String s, int[] pos) {
+		StringBuilder sb = new StringBuilder();
+		while (pos[0] < s.length()) {
+			char c = s.charAt(pos[0]++);
+			if (c == '"') {
+				return sb.toString();
+			}
+			if (c != '\\') {
+				sb.append(c);
+				continue;
+			}
+			if (pos[0] >= s.length()) {
+				break;
+			}
+			char e = s.charAt(pos[0]++);
+			switch (e) {
+				case 'b':
+					sb.append('\b');
+					break;
+				case 'f':
+					sb.append('\f');
+					break;
+				case 'n':
+					sb.append('\n');
+					break;
+				case 'r':
+					sb.append('\r');
+					break;
+				case 't':
+					sb.append('\t');
+					break;
+				case 'u':
+					if (pos[0] + 4 > s.length()) {
+						throw new IllegalArgumentException("bad \\u escape");
+					}
+					sb.append((char)Integer.parseInt(s.substring(pos[0], pos[0] + 4), 16));
+					pos[0] += 4;
+					break;
+				default:
+					sb.append(e); // \" \\ \/
+					break;
+			}
+		}
+		throw new IllegalArgumentException("unterminated string");
+	}
+	
+	/*One data file, and where the wanted columns are in its records*/
+	private static class Table {
+		private File file;
+		private boolean json = false;
+		private String[] columns;
+		private int[] csvIndex; // position of each wanted column in a CSV row
+		private long dataStart = 0; // first byte after the header row
+		
+		/*The wanted columns of one record, in the order they were asked for*/
+		private String[] fields(String line) {
+			String[] f = new String[this.columns.length];
+			if (this.json) {
+				HashMap<String, String> values = parseJsonObject(line);
+				for (int c = 0; c < f.length; c++) {
+					f[c] = values.get(this.columns[c]);
+				}
+			} else {
+				String[] row = splitCsv(line);
+				for (int c = 0; c < f.length; c++) {
+					f[c] = this.csvIndex[c] < row.length ? row[this.csvIndex[c]] : null;
+				}
+			}
+			for (int c = 0; c < f.length; c++) {
+				if (f[c] == null || f[c].isEmpty()) {
+					throw new IllegalArgumentException("no " + this.columns[c]);
+				}
+			}
+			return f;
+		}
+	}
+	
+	/*Lines of one byte range of a file, read through a fixed-size buffer with positional
+	 *reads (so several readers can share the channel)*/
+	private static class LineReader {
+		private FileChannel channel;
+		private long readPos; // next file offset to read into the buffer
+		private long end;
+		private ByteBuffer buffer;
+		private byte[] line;
+		private long lineStart; // offset of the line last returned
+		private long consumed; // offset just past it
+		
+		private LineReader(FileChannel c, long start, long e) {
+			this.channel = c;
+			this.readPos = start;
+			this.end = e;
+			this.consumed = start;
+			this.buffer = ByteBuffer.allocate(bufferSize);
+			this.buffer.flip(); // starts out empty
+			this.line = new byte[256];
+		}
+		
+		/*Next line without its line break, or null at the end of the range*/
+		private String next() throws IOException {
+			this.lineStart = this.consumed;
+			int n = 0;
+			while (true) {
+				if (!this.buffer.hasRemaining()) {
+					if (this.readPos >= this.end) {
+						break;
+					}
+					this.buffer.clear();
+					this.buffer.limit((int)Math.min(this.buffer.capacity(), this.end - this.readPos));
+					int read = this.channel.read(this.buffer, this.readPos);
+					if (read <= 0) {
+						break;
+					}
+					this.readPos += read;
+					this.buffer.flip();
+				}
+				byte b = this.buffer.get();
+				this.consumed++;
+				if (b == '\n') {
+					return this.decode(n);
+				}
+				if (n == this.line.length) {
+					this.line = Arrays.copyOf(this.line, n * 2);
+				}
+				this.line[n++] = b;
+			}
+			return n == 0 ? null : this.decode(n);
+		}
+		
+		private String decode(int n) {
+			int from = 0;
+			if (this.lineStart == 0 && n >= 3 && this.line[0] == (byte)0xEF && this.line[1] == (byte)0xBB && this.line[2] == (byte)0xBF) {
+				from = 3; // byte order mark
+			}
+			if (n > from && this.line[n - 1] == '\r') {
+				n--;
+			}
+			return new String(this.line, from, n - from, StandardCharsets.UTF_8);
+		}
+	}
+	
+	/*Growable pair of int columns*/
+	private static class IdPairs {
+		private int[] first = new int[64];
+		private int[] second = new int[64];
+		private int size = 0;
+		
+		private void add(int a, int b) {
+			if (this.size == this.first.length) {
+				this.first = Arrays.copyOf(this.first, this.size * 2);
+				this.second = Arrays.copyOf(this.second, this.size * 2);
+			}
+			this.first[this.size] = a;
+			this.second[this.size] = b;
+			this.size++;
+		}
+	}
+	
+	/*How one table turns into part of the model. newChunk and record run on the pool
+	 *threads (each on its own chunk); merge runs on the loading thread, one chunk at a
+	 *time in file order.*/
+	private abstract static class ChunkParser<T> {
+		abstract T newChunk();
+		
+		abstract void record(T chunk, String[] fields);
+		
+		abstract void merge(T chunk);
+	}
+}
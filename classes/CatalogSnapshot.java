@@ -0,0 +1,406 @@
+package classes;
+
+import enums.ProductType;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*Binary snapshot of a loaded catalog, so later starts can skip parsing the data files.
+ *Everything is fixed width and little-endian:
+ *
+ *  header    - magic, version, counts, the screen size the store locations were scaled
+ *              to, a fingerprint of the source files, and where each section is
+ *  strings   - count, offsets, then the UTF-8 bytes of every product name and then
+ *              every store name
+ *  products  - unscaled base price, scale, type and uniform flag
+ *  stores    - location and one price modifier per product type (compiled, defaults
+ *              filled in)
+ *  overrides - every store's product pricing rules: count, then product id and
+ *              modifier pairs
+ *  bitmaps   - offsets, then every store's serialized inventory bitmap
+ *  prices    - the whole price matrix, one row of cents per store, back to back - the
+ *              section starts on a page boundary, the rows after the first don't
+ *
+ *The file is memory-mapped when it's opened. The price matrix (by far the biggest part)
+ *is used straight out of the mapping, so rows are only read from disk when something
+ *asks for a price; names, products, stores and bitmaps are small and get decoded up
+ *front.*/
+public class CatalogSnapshot {
+	private static final int MAGIC = 0x50435343; // "PCSC"
+	private static final int VERSION = 3;
+	private static final int HEADER_SIZE = 128;
+	private static final int PAGE = 4096;
+	private static final long MAX_MAPPING = 1L << 30; // price rows are mapped in pieces about this big
+	
+	/*Hash of the name, size and modification time of every catalog data file in the
+	 *directory - a snapshot made with a different one is out of date. Any change shows
+	 *up, not just a newer file: one that's added or deleted, or replaced by an older
+	 *copy (cp -p, a restore from a backup).*/
+	public static long sourceFingerprint(File dataDir) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // every JVM has SHA-256
+		}
+		File[] files = dataDir.listFiles();
+		if (files != null) {
+			Arrays.sort(files); // by name, so the order doesn't depend on the file system
+			ByteBuffer b = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+			for (File f : files) {
+				if (f.getName().endsWith(".csv") || f.getName().endsWith(".jsonl")) {
+					digest.update(f.getName().getBytes(StandardCharsets.UTF_8));
+					b.clear();
+					b.putLong(f.length()).putLong(f.lastModified());
+					digest.update(b.array());
+				}
+			}
+		}
+		return ByteBuffer.wrap(digest.digest()).order(ByteOrder.LITTLE_ENDIAN).getLong();
+	}
+	
+	/*The catalog in dataDir - mapped from the snapshot if it's up to date, otherwise
+	 *parsed from the data files, after which the snapshot is rewritten (and mapped, so
+	 *prices don't have to stay on the heap). Problems with the snapshot itself are only
+	 *printed, since the data files can always be parsed instead; problems with the data
+	 *files are thrown.*/
+	public static Catalog openOrLoad(File dataDir, File file, int screenWidth, int screenHeight) throws IOException {
+		long fingerprint = sourceFingerprint(dataDir);
+		Catalog catalog = null;
+		try {
+			catalog = open(file, fingerprint, screenWidth, screenHeight);
+		} catch (IOException e) {
+			e.printStackTrace(); // fall back to the data files
+		}
+		if (catalog != null) {
+			return catalog;
+		}
+		catalog = new CatalogLoader().load(dataDir, screenWidth, screenHeight);
+		try {
+			write(catalog, file, fingerprint, screenWidth, screenHeight);
+			Catalog mapped = open(file, fingerprint, screenWidth, screenHeight);
+			if (mapped != null) {
+				catalog = mapped; // prices straight from the mapping
+			}
+		} catch (IOException e) {
+			e.printStackTrace(); // just means parsing again next time
+		}
+		return catalog;
+	}
+	
+	/*Write the snapshot to a temporary file first and move it into place once it's
+	 *complete, so there's never a half-written snapshot at the real path*/
+	public static void write(Catalog c, File file, long sourceFingerprint, int screenWidth, int screenHeight) throws IOException {
+		ArrayList<Product> products = c.getProducts();
+		ArrayList<Store> stores = c.getStores();
+		PricingRules rules = c.getPricingRules();
+		int types = ProductType.values().length;
+		
+		File tmp = new File(file.getPath() + ".tmp");
+		try (FileChannel ch = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			Output out = new Output(ch);
+			out.skip(HEADER_SIZE); // filled in at the end
+			
+			long stringsOffset = out.position();
+			byte[][] names = new byte[products.size() + stores.size()][];
+			for (int i = 0; i < products.size(); i++) {
+				names[i] = products.get(i).getName().getBytes(StandardCharsets.UTF_8);
+			}
+			for (int i = 0; i < stores.size(); i++) {
+				names[products.size() + i] = stores.get(i).getName().getBytes(StandardCharsets.UTF_8);
+			}
+			out.putInt(names.length);
+			long offset = 0;
+			for (int i = 0; i < names.length; i++) {
+				out.putLong(offset);
+				offset += names[i].length;
+			}
+			out.putLong(offset);
+			for (int i = 0; i < names.length; i++) {
+				out.putBytes(names[i]);
+			}
+			
+			out.align(8);
+			long productsOffset = out.position();
+			for (Product p : products) {
+				BigDecimal price = p.getBasePrice();
+				if (price.unscaledValue().bitLength() > 63) {
+					throw new IOException("Price of " + p.getName() + " doesn't fit in a snapshot");
+				}
+				out.putLong(price.unscaledValue().longValue());
+				out.putInt(price.scale());
+				out.putInt((p.getType().ordinal() << 1) | (p.getUniform() ? 1 : 0));
+			}
+			
+			long storesOffset = out.position();
+			for (Store s : stores) {
+				out.putInt(s.getXLoc());
+				out.putInt(s.getYLoc());
+				for (int t = 0; t < types; t++) {
+					out.putDouble(rules.getTypeModifier(s.getId(), t));
+				}
+			}
+			
+			long overridesOffset = out.position();
+			for (Store s : stores) {
+				int[] ids = rules.getProductRuleIds(s.getId());
+				double[] m = rules.getProductRuleModifiers(s.getId());
+				out.putLong(ids.length);
+				for (int i = 0; i < ids.length; i++) {
+					out.putLong(ids[i]);
+					out.putDouble(m[i]);
+				}
+			}
+			
+			long bitmapsOffset = out.position();
+			long bitmapStart = bitmapsOffset + 8L * (stores.size() + 1);
+			offset = 0;
+			for (Store s : stores) {
+				out.putLong(bitmapStart + offset);
+				offset += s.getInventoryIds().getSerializedSize();
+			}
+			out.putLong(bitmapStart + offset);
+			for (Store s : stores) {
+				ByteBuffer b = ByteBuffer.allocate(s.getInventoryIds().getSerializedSize()).order(ByteOrder.LITTLE_ENDIAN);
+				s.getInventoryIds().serialize(b);
+				out.putBytes(b.array());
+			}
+			
+			out.align(PAGE); // the prices section starts on a page, rows are packed after it
+			long pricesOffset = out.position();
+			for (Store s : stores) {
+				out.putLongs(LongBuffer.wrap(PriceMatrix.computeRow(s, products, rules))); // a row at a time, so the matrix never has to fit in memory
+			}
+			out.flush();
+			
+			/*Header last - the magic number marks the file as complete*/
+			ByteBuffer h = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			h.putInt(MAGIC);
+			h.putInt(VERSION);
+			h.putInt(products.size());
+			h.putInt(stores.size());
+			h.putInt(types);
+			h.putInt(screenWidth);
+			h.putInt(screenHeight);
+			h.putInt(0);
+			h.putLong(sourceFingerprint);
+			h.putLong(stringsOffset);
+			h.putLong(productsOffset);
+			h.putLong(storesOffset);
+			h.putLong(bitmapsOffset);
+			h.putLong(pricesOffset);
+			h.putLong(overridesOffset);
+			h.clear();
+			while (h.hasRemaining()) {
+				ch.write(h, h.position());
+			}
+			ch.force(false);
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/*Map a snapshot, or return null if there isn't a usable one - missing, from another
+	 *version, made from different data files, or scaled for a different screen*/
+	public static Catalog open(File file, long sourceFingerprint, int screenWidth, int screenHeight) throws IOException {
+		if (!file.isFile()) {
+			return null;
+		}
+		try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (ch.size() < HEADER_SIZE) {
+				return null;
+			}
+			ByteBuffer h = ch.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			if (h.getInt() != MAGIC || h.getInt() != VERSION) {
+				return null;
+			}
+			int productCount = h.getInt();
+			int storeCount = h.getInt();
+			int types = h.getInt();
+			if (types != ProductType.values().length || h.getInt() != screenWidth || h.getInt() != screenHeight) {
+				return null;
+			}
+			h.getInt();
+			if (h.getLong() != sourceFingerprint) {
+				return null;
+			}
+			long stringsOffset = h.getLong();
+			long productsOffset = h.getLong();
+			long storesOffset = h.getLong();
+			long bitmapsOffset = h.getLong();
+			long pricesOffset = h.getLong();
+			long overridesOffset = h.getLong();
+			if (pricesOffset + 8L * storeCount * productCount != ch.size()) {
+				throw new IOException("Snapshot " + file + " is truncated");
+			}
+			
+			/*Everything before the prices is decoded now*/
+			if (pricesOffset > Integer.MAX_VALUE) {
+				throw new IOException("Snapshot " + file + " has more than 2GB of names and inventories");
+			}
+			ByteBuffer meta = ch.map(FileChannel.MapMode.READ_ONLY, 0, pricesOffset).order(ByteOrder.LITTLE_ENDIAN);
+			String[] names = readStrings(meta, (int)stringsOffset);
+			ProductType[] allTypes = ProductType.values();
+			
+			ProductRegistry products = new ProductRegistry(productCount);
+			meta.position((int)productsOffset);
+			for (int i = 0; i < productCount; i++) {
+				long unscaled = meta.getLong();
+				int scale = meta.getInt();
+				int flags = meta.getInt();
+				Product p = new Product(names[i], allTypes[flags >>> 1], (flags & 1) != 0, new BigDecimal(BigInteger.valueOf(unscaled), scale));
+				products.add(p); // gets id i
+			}
+			
+			ArrayList<Store> stores = new ArrayList<Store>(storeCount);
+			PricingRules rules = new PricingRules(storeCount);
+			for (int i = 0; i < storeCount; i++) {
+				meta.position((int)(bitmapsOffset + 8L * i));
+				meta.position((int)meta.getLong());
+				InventoryBitmap inventory = InventoryBitmap.deserialize(meta);
+				
+				meta.position((int)(storesOffset + (long)i * (8 + 8 * types)));
+				Store s = new Store(names[productCount + i], inventory, meta.getInt(), meta.getInt());
+				for (int t = 0; t < types; t++) {
+					rules.setTypeModifier(i, t, meta.getDouble());
+				}
+				s.setId(i);
+				stores.add(s);
+			}
+			meta.position((int)overridesOffset);
+			for (int i = 0; i < storeCount; i++) {
+				long n = meta.getLong();
+				for (long j = 0; j < n; j++) {
+					rules.setProductModifier(i, (int)meta.getLong(), meta.getDouble());
+				}
+			}
+			
+			/*Prices stay in the mapping - a piece at a time, whole rows to a piece*/
+			LongBuffer[] rows = new LongBuffer[storeCount];
+			long rowBytes = 8L * productCount;
+			int rowsPerMapping = (int)Math.max(1, Math.min(storeCount, MAX_MAPPING / Math.max(1, rowBytes)));
+			for (int first = 0; first < storeCount; first += rowsPerMapping) {
+				int n = Math.min(rowsPerMapping, storeCount - first);
+				ByteBuffer mapped = ch.map(FileChannel.MapMode.READ_ONLY, pricesOffset + first * rowBytes, n * rowBytes).order(ByteOrder.LITTLE_ENDIAN);
+				LongBuffer all = mapped.asLongBuffer();
+				for (int r = 0; r < n; r++) {
+					all.limit((r + 1) * productCount).position(r * productCount);
+					rows[first + r] = all.slice();
+				}
+			}
+			
+			return new Catalog(products, stores, rules, PriceMatrix.fromRows(rows, productCount));
+		}
+	}
+	
+	private static String[] readStrings(ByteBuffer b, int offset) {
+		b.position(offset);
+		String[] strings = new String[b.getInt()];
+		long[] offsets = new long[strings.length + 1];
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = b.getLong();
+		}
+		int base = b.position();
+		byte[] bytes = new byte[0];
+		for (int i = 0; i < strings.length; i++) {
+			int length = (int)(offsets[i + 1] - offsets[i]);
+			if (bytes.length < length) {
+				bytes = new byte[Math.max(length, 2 * bytes.length)];
+			}
+			b.position(base + (int)offsets[i]);
+			b.get(bytes, 0, length);
+			strings[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+		}
+		return strings;
+	}
+	
+	/*Sequential little-endian writes through one reusable buffer*/
+	private static class Output {
+		private FileChannel channel;
+		private ByteBuffer buffer;
+		private long flushed; // bytes already handed to the channel
+		
+		private Output(FileChannel c) {
+			this.channel = c;
+			this.buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+			this.flushed = 0;
+		}
+		
+		private long position() {
+			return this.flushed + this.buffer.position();
+		}
+		
+		private void room(int n) throws IOException {
+			if (this.buffer.remaining() < n) {
+				this.flush();
+			}
+		}
+		
+		private void putInt(int v) throws IOException {
+			this.room(4);
+			this.buffer.putInt(v);
+		}
+		
+		private void putLong(long v) throws IOException {
+			this.room(8);
+			this.buffer.putLong(v);
+		}
+		
+		private void putDouble(double v) throws IOException {
+			this.room(8);
+			this.buffer.putDouble(v);
+		}
+		
+		private void putBytes(byte[] b) throws IOException {
+			int done = 0;
+			while (done < b.length) {
+				this.room(1);
+				int n = Math.min(b.length - done, this.buffer.remaining());
+				this.buffer.put(b, done, n);
+				done += n;
+			}
+		}
+		
+		private void putLongs(LongBuffer src) throws IOException {
+			while (src.hasRemaining()) {
+				this.room(8);
+				int n = Math.min(src.remaining(), this.buffer.remaining() / 8);
+				LongBuffer piece = src.duplicate();
+				piece.limit(piece.position() + n);
+				this.buffer.asLongBuffer().put(piece);
+				this.buffer.position(this.buffer.position() + 8 * n);
+				src.position(src.position() + n);
+			}
+		}
+		
+		private void skip(int n) throws IOException {
+			this.putBytes(new byte[n]);
+		}
+		
+		private void align(int boundary) throws IOException {
+			int pad = (int)((boundary - this.position() % boundary) % boundary);
+			this.skip(pad);
+		}
+		
+		private void flush() throws IOException {
+			this.buffer.flip();
+			while (this.buffer.hasRemaining()) {
+				this.channel.write(this.buffer);
+			}
+			this.flushed += this.buffer.limit();
+			this.buffer.clear();
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package classes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*Distances in feet between the user and a handful of stops (stores), as a full matrix
+ *- row and column 0 are the user, stop i is row and column i + 1. Distances are
+ *worked out like the engine's (whole pixels, then feet), so they add up to what the
+ *store labels show.
+ *
+ *Stores don't move, so the matrix is only ever brought up to date: when the stops
+ *change, pairs of stores that were already stops are copied over and only pairs with
+ *a new store are worked out, and when the user moves only row and column 0 are. Not
+ *thread-safe - each thread that plans routes needs its own.*/
+public class DistanceMatrix {
+	private final int feetPerPixel;
+	
+	private Store[] stops = new Store[0];
+	private int[] dist = new int[1]; // (stops + 1) squared, row by row
+	private int userX = 0;
+	private int userY = 0;
+	
+	public DistanceMatrix(int feet) {
+		this.feetPerPixel = feet;
+	}
+	
+	/*Stops plus the user*/
+	public int size() {
+		return this.stops.length + 1;
+	}
+	
+	/*Stop at matrix index i (1 and up - 0 is the user)*/
+	public Store getStop(int i) {
+		return this.stops[i - 1];
+	}
+	
+	public int get(int a, int b) {
+		return this.dist[a * this.size() + b];
+	}
+	
+	/*Move the user - returns false if they were already there*/
+	public boolean setOrigin(int x, int y) {
+		if (x == this.userX && y == this.userY) {
+			return false;
+		}
+		this.userX = x;
+		this.userY = y;
+		int n = this.size();
+		for (int i = 1; i < n; i++) {
+			Store s = this.stops[i - 1];
+			int d = this.distance(x, y, s.getXLoc(), s.getYLoc());
+			this.dist[i] = d;
+			this.dist[i * n] = d;
+		}
+		return true;
+	}
+	
+	/*Switch to the given stops, in that order - returns false if they're the same ones
+	 *in the same order as before*/
+	public boolean setStops(ArrayList<Store> s) {
+		Store[] next = s.toArray(new Store[0]);
+		if (Arrays.equals(next, this.stops)) {
+			return false;
+		}
+		
+		/*Where each new stop was in the old matrix, if it was there at all*/
+		int oldSize = this.size();
+		int[] was = new int[next.length + 1];
+		for (int i = 0; i < next.length; i++) {
+			for (int j = 0; j < this.stops.length; j++) {
+				if (this.stops[j] == next[i]) {
+					was[i + 1] = j + 1;
+					break;
+				}
+			}
+		}
+		
+		int n = next.length + 1;
+		int[] d = new int[n * n];
+		for (int i = 1; i < n; i++) {
+			Store a = next[i - 1];
+			d[i] = this.distance(this.userX, this.userY, a.getXLoc(), a.getYLoc());
+			d[i * n] = d[i];
+			for (int j = i + 1; j < n; j++) {
+				int v;
+				if (was[i] != 0 && was[j] != 0) {
+					v = this.dist[was[i] * oldSize + was[j]];
+				} else {
+					Store b = next[j - 1];
+					v = this.distance(a.getXLoc(), a.getYLoc(), b.getXLoc(), b.getYLoc());
+				}
+				d[i * n + j] = v;
+				d[j * n + i] = v;
+			}
+		}
+		this.stops = next;
+		this.dist = d;
+		return true;
+	}
+	
+	private int distance(int x1, int y1, int x2, int y2) {
+		return (int)Math.sqrt(StoreKdTree.squaredDistance(x1, y1, x2, y2)) * this.feetPerPixel;
+	}
+}
@@ -0,0 +1,463 @@
+package classes;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/*Compressed set of product ids, laid out the same way as a Roaring bitmap: ids are
+ *split on their high 16 bits into buckets, and each bucket is either a sorted array of
+ *the low 16 bits (sparse buckets) or a flat 65536-bit bitmap (dense buckets). Lookups
+ *are a binary search over the bucket keys plus an O(1)/O(log n) check in the bucket,
+ *and the set operations work a bucket at a time instead of item by item.*/
+public class InventoryBitmap {
+	private static final int ARRAY_LIMIT = 4096; // past this a bitmap bucket is smaller than an array one
+	
+	private char[] keys;
+	private Container[] containers;
+	private int size; // number of buckets in use
+	
+	public InventoryBitmap() {
+		this.keys = new char[4];
+		this.containers = new Container[4];
+		this.size = 0;
+	}
+	
+	public void add(int id) {
+		char high = (char)(id >>> 16);
+		int i = this.findKey(high);
+		if (i >= 0) {
+			this.containers[i] = this.containers[i].add((char)id);
+		} else {
+			this.insertAt(-i - 1, high, new ArrayContainer().add((char)id));
+		}
+	}
+	
+	public void remove(int id) {
+		int i = this.findKey((char)(id >>> 16));
+		if (i < 0) {
+			return;
+		}
+		Container c = this.containers[i].remove((char)id);
+		if (c.getCardinality() == 0) {
+			this.removeAt(i);
+		} else {
+			this.containers[i] = c;
+		}
+	}
+	
+	public boolean contains(int id) {
+		int i = this.findKey((char)(id >>> 16));
+		return i >= 0 && this.containers[i].contains((char)id);
+	}
+	
+	public int getCardinality() {
+		int total = 0;
+		for (int i = 0; i < this.size; i++) {
+			total += this.containers[i].getCardinality();
+		}
+		return total;
+	}
+	
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+	
+	/*Ids in both sets (e.g. cart items the store carries)*/
+	public InventoryBitmap and(InventoryBitmap other) {
+		InventoryBitmap result = new InventoryBitmap();
+		int i = 0;
+		int j = 0;
+		while (i < this.size && j < other.size) {
+			if (this.keys[i] < other.keys[j]) {
+				i++;
+			} else if (this.keys[i] > other.keys[j]) {
+				j++;
+			} else {
+				Container c = this.containers[i].and(other.containers[j]);
+				if (c.getCardinality() > 0) {
+					result.append(this.keys[i], c);
+				}
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+	
+	/*Ids in this set but not the other (e.g. cart items the store is missing)*/
+	public InventoryBitmap andNot(InventoryBitmap other) {
+		InventoryBitmap result = new InventoryBitmap();
+		int j = 0;
+		for (int i = 0; i < this.size; i++) {
+			while (j < other.size && other.keys[j] < this.keys[i]) {
+				j++;
+			}
+			Container c;
+			if (j < other.size && other.keys[j] == this.keys[i]) {
+				c = this.containers[i].andNot(other.containers[j]);
+			} else {
+				c = this.containers[i].copy();
+			}
+			if (c.getCardinality() > 0) {
+				result.append(this.keys[i], c);
+			}
+		}
+		return result;
+	}
+	
+	public InventoryBitmap copy() {
+		InventoryBitmap result = new InventoryBitmap();
+		for (int i = 0; i < this.size; i++) {
+			result.append(this.keys[i], this.containers[i].copy());
+		}
+		return result;
+	}
+	
+	/*All ids in the set, in increasing order*/
+	public int[] toArray() {
+		int[] out = new int[this.getCardinality()];
+		int pos = 0;
+		for (int i = 0; i < this.size; i++) {
+			pos = this.containers[i].fill(out, pos, this.keys[i] << 16);
+		}
+		return out;
+	}
+	
+	/*Bytes written by serialize - a bucket count, then a key and cardinality for every
+	 *bucket, then the buckets' contents in order*/
+	public int getSerializedSize() {
+		int bytes = 4 + 8 * this.size;
+		for (int i = 0; i < this.size; i++) {
+			bytes += this.containers[i].getSerializedSize();
+		}
+		return bytes;
+	}
+	
+	/*Written in the buffer's byte order. The representation of each bucket follows from
+	 *its cardinality, so it isn't stored.*/
+	public void serialize(ByteBuffer out) {
+		out.putInt(this.size);
+		for (int i = 0; i < this.size; i++) {
+			out.putInt(this.keys[i]);
+			out.putInt(this.containers[i].getCardinality());
+		}
+		for (int i = 0; i < this.size; i++) {
+			this.containers[i].serialize(out);
+		}
+	}
+	
+	public static InventoryBitmap deserialize(ByteBuffer in) {
+		InventoryBitmap result = new InventoryBitmap();
+		int n = in.getInt();
+		char[] keys = new char[n];
+		int[] cardinalities = new int[n];
+		for (int i = 0; i < n; i++) {
+			keys[i] = (char)in.getInt();
+			cardinalities[i] = in.getInt();
+		}
+		for (int i = 0; i < n; i++) {
+			if (cardinalities[i] > ARRAY_LIMIT) {
+				long[] words = new long[1024];
+				in.asLongBuffer().get(words);
+				in.position(in.position() + 8 * words.length);
+				result.append(keys[i], new BitmapContainer(words, cardinalities[i]));
+			} else {
+				char[] values = new char[Math.max(cardinalities[i], 4)];
+				in.asCharBuffer().get(values, 0, cardinalities[i]);
+				in.position(in.position() + 2 * cardinalities[i]);
+				result.append(keys[i], new ArrayContainer(values, cardinalities[i]));
+			}
+		}
+		return result;
+	}
+	
+	/*Binary search for a bucket key - same contract as Arrays.binarySearch*/
+	private int findKey(char high) {
+		return Arrays.binarySearch(this.keys, 0, this.size, high);
+	}
+	
+	private void insertAt(int i, char high, Container c) {
+		this.ensureCapacity(this.size + 1);
+		System.arraycopy(this.keys, i, this.keys, i + 1, this.size - i);
+		System.arraycopy(this.containers, i, this.containers, i + 1, this.size - i);
+		this.keys[i] = high;
+		this.containers[i] = c;
+		this.size++;
+	}
+	
+	private void removeAt(int i) {
+		System.arraycopy(this.keys, i + 1, this.keys, i, this.size - i - 1);
+		System.arraycopy(this.containers, i + 1, this.containers, i, this.size - i - 1);
+		this.size--;
+		this.containers[this.size] = null;
+	}
+	
+	/*Only used when building results, where keys always arrive in increasing order*/
+	private void append(char high, Container c) {
+		this.ensureCapacity(this.size + 1);
+		this.keys[this.size] = high;
+		this.containers[this.size] = c;
+		this.size++;
+	}
+	
+	private void ensureCapacity(int n) {
+		if (n > this.keys.length) {
+			int newLength = Math.max(n, this.keys.length * 2);
+			this.keys = Arrays.copyOf(this.keys, newLength);
+			this.containers = Arrays.copyOf(this.containers, newLength);
+		}
+	}
+	
+	/*A bucket holding the low 16 bits of the ids that share one high key. Mutators
+	 *return the container to use from then on, since a bucket switches representation
+	 *when it crosses ARRAY_LIMIT.*/
+	private static abstract class Container {
+		abstract Container add(char x);
+		abstract Container remove(char x);
+		abstract boolean contains(char x);
+		abstract int getCardinality();
+		abstract Container and(Container other);
+		abstract Container andNot(Container other);
+		abstract Container copy();
+		abstract int fill(int[] out, int pos, int high);
+		abstract int getSerializedSize();
+		abstract void serialize(ByteBuffer out);
+	}
+	
+	private static class ArrayContainer extends Container {
+		private char[] values;
+		private int cardinality;
+		
+		ArrayContainer() {
+			this(new char[4], 0);
+		}
+		
+		ArrayContainer(char[] v, int c) {
+			this.values = v;
+			this.cardinality = c;
+		}
+		
+		@Override
+		Container add(char x) {
+			int i = Arrays.binarySearch(this.values, 0, this.cardinality, x);
+			if (i >= 0) {
+				return this;
+			}
+			if (this.cardinality == ARRAY_LIMIT) {
+				return this.toBitmap().add(x);
+			}
+			i = -i - 1;
+			if (this.cardinality == this.values.length) {
+				this.values = Arrays.copyOf(this.values, Math.min(Math.max(this.values.length * 2, 4), ARRAY_LIMIT));
+			}
+			System.arraycopy(this.values, i, this.values, i + 1, this.cardinality - i);
+			this.values[i] = x;
+			this.cardinality++;
+			return this;
+		}
+		
+		@Override
+		Container remove(char x) {
+			int i = Arrays.binarySearch(this.values, 0, this.cardinality, x);
+			if (i >= 0) {
+				System.arraycopy(this.values, i + 1, this.values, i, this.cardinality - i - 1);
+				this.cardinality--;
+			}
+			return this;
+		}
+		
+		@Override
+		boolean contains(char x) {
+			return Arrays.binarySearch(this.values, 0, this.cardinality, x) >= 0;
+		}
+		
+		@Override
+		int getCardinality() {
+			return this.cardinality;
+		}
+		
+		@Override
+		Container and(Container other) {
+			char[] out = new char[this.cardinality];
+			int n = 0;
+			for (int i = 0; i < this.cardinality; i++) {
+				if (other.contains(this.values[i])) {
+					out[n++] = this.values[i];
+				}
+			}
+			return new ArrayContainer(out, n);
+		}
+		
+		@Override
+		Container andNot(Container other) {
+			char[] out = new char[this.cardinality];
+			int n = 0;
+			for (int i = 0; i < this.cardinality; i++) {
+				if (!other.contains(this.values[i])) {
+					out[n++] = this.values[i];
+				}
+			}
+			return new ArrayContainer(out, n);
+		}
+		
+		@Override
+		Container copy() {
+			return new ArrayContainer(Arrays.copyOf(this.values, Math.max(this.cardinality, 4)), this.cardinality);
+		}
+		
+		@Override
+		int fill(int[] out, int pos, int high) {
+			for (int i = 0; i < this.cardinality; i++) {
+				out[pos++] = high | this.values[i];
+			}
+			return pos;
+		}
+		
+		@Override
+		int getSerializedSize() {
+			return 2 * this.cardinality;
+		}
+		
+		@Override
+		void serialize(ByteBuffer out) {
+			out.asCharBuffer().put(this.values, 0, this.cardinality);
+			out.position(out.position() + 2 * this.cardinality);
+		}
+		
+		private BitmapContainer toBitmap() {
+			BitmapContainer b = new BitmapContainer();
+			for (int i = 0; i < this.cardinality; i++) {
+				b.add(this.values[i]);
+			}
+			return b;
+		}
+	}
+	
+	private static class BitmapContainer extends Container {
+		private long[] words;
+		private int cardinality;
+		
+		BitmapContainer() {
+			this(new long[1024], 0);
+		}
+		
+		BitmapContainer(long[] w, int c) {
+			this.words = w;
+			this.cardinality = c;
+		}
+		
+		@Override
+		Container add(char x) {
+			long bit = 1L << x;
+			if ((this.words[x >>> 6] & bit) == 0) {
+				this.words[x >>> 6] |= bit;
+				this.cardinality++;
+			}
+			return this;
+		}
+		
+		@Override
+		Container remove(char x) {
+			long bit = 1L << x;
+			if ((this.words[x >>> 6] & bit) != 0) {
+				this.words[x >>> 6] &= ~bit;
+				this.cardinality--;
+				if (this.cardinality <= ARRAY_LIMIT) {
+					return this.toArrayContainer();
+				}
+			}
+			return this;
+		}
+		
+		@Override
+		boolean contains(char x) {
+			return (this.words[x >>> 6] & (1L << x)) != 0;
+		}
+		
+		@Override
+		int getCardinality() {
+			return this.cardinality;
+		}
+		
+		@Override
+		Container and(Container other) {
+			if (other instanceof ArrayContainer) {
+				return other.and(this);
+			}
+			long[] o = ((BitmapContainer)other).words;
+			long[] out = new long[1024];
+			for (int i = 0; i < out.length; i++) {
+				out[i] = this.words[i] & o[i];
+			}
+			return fromWords(out);
+		}
+		
+		@Override
+		Container andNot(Container other) {
+			long[] out = Arrays.copyOf(this.words, this.words.length);
+			if (other instanceof BitmapContainer) {
+				long[] o = ((BitmapContainer)other).words;
+				for (int i = 0; i < out.length; i++) {
+					out[i] &= ~o[i];
+				}
+			} else {
+				ArrayContainer a = (ArrayContainer)other;
+				for (int i = 0; i < a.cardinality; i++) {
+					char x = a.values[i];
+					out[x >>> 6] &= ~(1L << x);
+				}
+			}
+			return fromWords(out);
+		}
+		
+		@Override
+		Container copy() {
+			return new BitmapContainer(Arrays.copyOf(this.words, this.words.length), this.cardinality);
+		}
+		
+		@Override
+		int fill(int[] out, int pos, int high) {
+			for (int i = 0; i < this.words.length; i++) {
+				long w = this.words[i];
+				while (w != 0) {
+					out[pos++] = high | (i << 6) | Long.numberOfTrailingZeros(w);
+					w &= w - 1;
+				}
+			}
+			return pos;
+		}
+		
+		@Override
+		int getSerializedSize() {
+			return 8 * this.words.length;
+		}
+		
+		@Override
+		void serialize(ByteBuffer out) {
+			out.asLongBuffer().put(this.words);
+			out.position(out.position() + 8 * this.words.length);
+		}
+		
+		private ArrayContainer toArrayContainer() {
+			char[] values = new char[this.cardinality];
+			int n = 0;
+			for (int i = 0; i < this.words.length; i++) {
+				long w = this.words[i];
+				while (w != 0) {
+					values[n++] = (char)((i << 6) | Long.numberOfTrailingZeros(w));
+					w &= w - 1;
+				}
+			}
+			return new ArrayContainer(values, n);
+		}
+		
+		/*Results of set operations drop back to an array bucket when they're sparse*/
+		private static Container fromWords(long[] words) {
+			int cardinality = 0;
+			for (long w : words) {
+				cardinality += Long.bitCount(w);
+			}
+			BitmapContainer b = new BitmapContainer(words, cardinality);
+			return cardinality <= ARRAY_LIMIT ? b.toArrayContainer() : b;
+		}
+	}
+}
@@ -0,0 +1,295 @@
+package classes;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/*Prices fetched from the providers, by store and product, so PriceFetchCoordinator only
+ *asks for what it doesn't already have. Each store has its own time to live (how long
+ *a price counts as current) and after that a stale window, in which the old price is
+ *still used but one refresh goes out for it. Past that it's gone.
+ *
+ *Fetches are single-flight: claim() hands a missing or stale price to the first caller
+ *to ask (LOAD or REFRESH), and everyone else asking before it's put() or released()
+ *gets JOIN, with whoever's loading it, or STALE, instead of fetching it again - so
+ *however many carts want a popular price at once, it's fetched once.
+ *
+ *Size is bounded. Entries are kept in LRU order, and when the cache is full a new
+ *price only gets in if it's been asked for more often than the entry it would push
+ *out (TinyLFU admission - a count-min sketch of recent requests, halved every so often
+ *so old popularity fades), so a burst of one-off products can't flush out the popular
+ *ones. The key space is split into segments, each with its own lock, map and sketch,
+ *so concurrent carts mostly don't wait on each other. Counts are LongAdders.*/
+public class PriceCache {
+	/*What claim() says to do*/
+	public static final int FRESH = 0; // it's current, use it
+	public static final int STALE = 1; // past its time but usable, and someone's already refreshing it
+	public static final int REFRESH = 2; // past its time but usable - the caller refreshes it
+	public static final int LOAD = 3; // not there - the caller fetches it
+	public static final int JOIN = 4; // not there, but someone's already fetching it (see claim)
+	
+	public static final long NOT_CACHED = Long.MIN_VALUE; // from peek()
+	
+	private static final int segmentBits = 4;
+	
+	private final Segment[] segments;
+	private final long[] ttlNanos; // by store id
+	private final long[] staleNanos;
+	
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder staleHits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder joins = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder rejections = new LongAdder(); // not admitted
+	
+	/*Every store starts with the same time to live and stale window*/
+	public PriceCache(int stores, int capacity, long ttlMillis, long staleMillis) {
+		this.ttlNanos = new long[stores];
+		this.staleNanos = new long[stores];
+		for (int s = 0; s < stores; s++) {
+			this.setTtl(s, ttlMillis, staleMillis);
+		}
+		this.segments = new Segment[1 << segmentBits];
+		int perSegment = Math.max(1, (capacity + this.segments.length - 1) >> segmentBits);
+		for (int i = 0; i < this.segments.length; i++) {
+			this.segments[i] = new Segment(perSegment);
+		}
+	}
+	
+	public void setTtl(int storeId, long ttlMillis, long staleMillis) {
+		this.ttlNanos[storeId] = ttlMillis * 1000000;
+		this.staleNanos[storeId] = staleMillis * 1000000;
+	}
+	
+	/*Look a price up, and if it has to be fetched, see who does it: the loader passed in
+	 *if it's missing (LOAD), the refresher if it's stale (REFRESH) - either then has to
+	 *put() or release() it - or whoever already is (JOIN, with them in inFlight[0]).
+	 *Counts as a request for admission either way.*/
+	public int claim(int storeId, int productId, Object loader, Object refresher, Object[] inFlight) {
+		long key = key(storeId, productId);
+		Segment seg = this.segmentFor(key);
+		long now = System.nanoTime();
+		synchronized (seg) {
+			seg.sketch.increment(key);
+			Entry e = seg.entries.get(key); // moves it to the LRU end
+			if (e != null) {
+				long age = now - e.fetchedAt;
+				if (age < this.ttlNanos[storeId]) {
+					this.hits.increment();
+					return FRESH;
+				}
+				if (age < this.ttlNanos[storeId] + this.staleNanos[storeId]) {
+					this.staleHits.increment();
+					if (seg.loading.containsKey(key)) {
+						return STALE;
+					}
+					seg.loading.put(key, refresher);
+					return REFRESH;
+				}
+				seg.entries.remove(key); // too old to use
+			}
+			Object other = seg.loading.get(key);
+			if (other != null) {
+				this.joins.increment();
+				inFlight[0] = other;
+				return JOIN;
+			}
+			this.misses.increment();
+			seg.loading.put(key, loader);
+			return LOAD;
+		}
+	}
+	
+	/*The price, in cents (PriceMatrix.UNAVAILABLE if the store doesn't have it), or
+	 *NOT_CACHED - doesn't count as a request*/
+	public long peek(int storeId, int productId) {
+		long key = key(storeId, productId);
+		Segment seg = this.segmentFor(key);
+		synchronized (seg) {
+			Entry e = seg.entries.get(key);
+			return e == null ? NOT_CACHED : e.cents;
+		}
+	}
+	
+	/*A fetched price - whoever was loading it is done*/
+	public void put(int storeId, int productId, long cents) {
+		long key = key(storeId, productId);
+		Segment seg = this.segmentFor(key);
+		long now = System.nanoTime();
+		synchronized (seg) {
+			seg.loading.remove(key);
+			Entry e = seg.entries.get(key);
+			if (e != null) {
+				e.cents = cents;
+				e.fetchedAt = now;
+				return;
+			}
+			if (seg.entries.size() >= seg.capacity) {
+				Iterator<Map.Entry<Long, Entry>> eldest = seg.entries.entrySet().iterator();
+				Map.Entry<Long, Entry> victim = eldest.next();
+				if (seg.sketch.frequency(key) <= seg.sketch.frequency(victim.getKey())) {
+					this.rejections.increment();
+					return;
+				}
+				eldest.remove();
+				this.evictions.increment();
+			}
+			seg.entries.put(key, new Entry(cents, now));
+		}
+	}
+	
+	/*The loader couldn't get the price - the next claim() loads it again*/
+	public void release(int storeId, int productId, Object loader) {
+		long key = key(storeId, productId);
+		Segment seg = this.segmentFor(key);
+		synchronized (seg) {
+			if (seg.loading.get(key) == loader) {
+				seg.loading.remove(key);
+			}
+		}
+	}
+	
+	public int size() {
+		int n = 0;
+		for (Segment seg : this.segments) {
+			synchronized (seg) {
+				n += seg.entries.size();
+			}
+		}
+		return n;
+	}
+	
+	public long getHitCount() {
+		return this.hits.sum();
+	}
+	
+	public long getStaleHitCount() {
+		return this.staleHits.sum();
+	}
+	
+	public long getMissCount() {
+		return this.misses.sum();
+	}
+	
+	/*Requests that waited on someone else's fetch instead of fetching*/
+	public long getJoinCount() {
+		return this.joins.sum();
+	}
+	
+	public long getEvictionCount() {
+		return this.evictions.sum();
+	}
+	
+	public long getRejectionCount() {
+		return this.rejections.sum();
+	}
+	
+	public String getStats() {
+		long requests = this.hits.sum() + this.staleHits.sum() + this.misses.sum() + this.joins.sum();
+		return String.format("%d prices cached, %d requests: %d hits, %d stale, %d misses, %d joined a fetch; %d evicted, %d not admitted",
+				this.size(), requests, this.hits.sum(), this.staleHits.sum(), this.misses.sum(), this.joins.sum(), this.evictions.sum(), this.rejections.sum());
+	}
+	
+	private Segment segmentFor(long key) {
+		return this.segments[(int)(mix(key) >>> (64 - segmentBits))];
+	}
+	
+	private static long key(int storeId, int productId) {
+		return ((long)storeId << 32) | (productId & 0xffffffffL);
+	}
+	
+	static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+	
+	private static class Entry {
+		private long cents;
+		private long fetchedAt; // System.nanoTime()
+		
+		private Entry(long c, long t) {
+			this.cents = c;
+			this.fetchedAt = t;
+		}
+	}
+	
+	private static class Segment {
+		private final int capacity;
+		private final LinkedHashMap<Long, Entry> entries; // least recently used first
+		private final HashMap<Long, Object> loading = new HashMap<Long, Object>(); // key -> whoever's fetching it
+		private final FrequencySketch sketch;
+		
+		private Segment(int c) {
+			this.capacity = c;
+			this.entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true);
+			this.sketch = new FrequencySketch(c);
+		}
+	}
+	
+	/*Count-min sketch of how often keys were asked for: four rows of 4-bit counters
+	 *packed 16 to a long, a key's count being the smallest of its four. After ten
+	 *times the capacity in increments every counter is halved, so the counts follow
+	 *what's popular now.*/
+	private static class FrequencySketch {
+		private final long[] table;
+		private final int mask; // counters per row - 1
+		private final int sampleSize;
+		private int additions = 0;
+		
+		private FrequencySketch(int capacity) {
+			int counters = Integer.highestOneBit(Math.max(64, capacity) - 1) << 1; // per row, at least the capacity
+			this.table = new long[4 * counters / 16];
+			this.mask = counters - 1;
+			this.sampleSize = 10 * Math.max(16, capacity);
+		}
+		
+		private void increment(long key) {
+			long h = mix(key);
+			boolean added = false;
+			for (int row = 0; row < 4; row++) {
+				int i = this.index(h, row);
+				int shift = (i & 15) << 2;
+				long word = this.table[i >>> 4];
+				if (((word >>> shift) & 15) != 15) {
+					this.table[i >>> 4] = word + (1L << shift);
+					added = true;
+				}
+			}
+			if (added && ++this.additions == this.sampleSize) {
+				this.halve();
+			}
+		}
+		
+		private int frequency(long key) {
+			long h = mix(key);
+			int min = 15;
+			for (int row = 0; row < 4; row++) {
+				int i = this.index(h, row);
+				min = Math.min(min, (int)((this.table[i >>> 4] >>> ((i & 15) << 2)) & 15));
+			}
+			return min;
+		}
+		
+		/*Counter number for the key in a row - each row takes its own 16 bits of the
+		 *hash, spread over the row*/
+		private int index(long h, int row) {
+			int bits = (int)(h >>> (16 * row)) & 0xffff;
+			int spread = (bits * 0x9E3779B9) ^ (int)(h >>> 40);
+			return row * (this.mask + 1) + (spread & this.mask);
+		}
+		
+		private void halve() {
+			for (int i = 0; i < this.table.length; i++) {
+				this.table[i] = (this.table[i] >>> 1) & 0x7777777777777777L;
+			}
+			this.additions = 0;
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package classes;
+
+import java.util.ArrayList;
+import java.util.function.BooleanSupplier;
+
+/*The store comparison - what a cart costs at every store, what each store is missing,
+ *how far away each store is and which stores are closest and cheapest - with nothing
+ *from Swing or AWT in it, so it can run behind a server just as well as behind the map
+ *screen. An engine only holds what never changes after loading (the stores and an index
+ *of their locations), prices come in with each call as a PricingSnapshot, and every
+ *answer is a new immutable Quote - so one engine can be shared by any number of threads
+ *with no locking.
+ *
+ *A cart is given as parallel arrays of product ids and quantities; the same product can
+ *appear more than once and its quantities add up.*/
+public class PriceComparisonEngine {
+	private static final int checkEvery = 1024; // stores between checks for cancellation
+	
+	private final ArrayList<Store> stores; // by id, never modified
+	private final StoreKdTree storeIndex;
+	private final int feetPerPixel;
+	
+	public PriceComparisonEngine(ArrayList<Store> s, int feet) {
+		this.stores = new ArrayList<Store>(s);
+		this.storeIndex = new StoreKdTree(this.stores);
+		this.feetPerPixel = feet;
+	}
+	
+	public int getFeetPerPixel() {
+		return this.feetPerPixel;
+	}
+	
+	/*Compare the cart at every store, from the user's location (in pixels)*/
+	public Quote quote(PricingSnapshot pricing, int[] productIds, int[] quantities, int userX, int userY) {
+		return this.quote(pricing, productIds, quantities, userX, userY, null);
+	}
+	
+	/*Same as above, but gives up and returns null as soon as cancelled says so - it's
+	 *asked between cart lines and every checkEvery stores. cancelled can be null.*/
+	public Quote quote(PricingSnapshot pricing, int[] productIds, int[] quantities, int userX, int userY, BooleanSupplier cancelled) {
+		if (productIds.length != quantities.length) {
+			throw new IllegalArgumentException("Got " + productIds.length + " product ids but " + quantities.length + " quantities");
+		}
+		CartTotals totals = new CartTotals(pricing.getPrices());
+		InventoryBitmap cart = new InventoryBitmap();
+		for (int i = 0; i < productIds.length; i++) {
+			if (cancelled != null && cancelled.getAsBoolean()) {
+				return null;
+			}
+			if (quantities[i] < 0) {
+				throw new IllegalArgumentException("Negative quantity for product " + productIds[i]);
+			}
+			if (quantities[i] > 0) {
+				totals.add(productIds[i], quantities[i]);
+				cart.add(productIds[i]);
+			}
+		}
+		return this.quote(pricing, cart, totals, userX, userY, cancelled);
+	}
+	
+	/*Same again, for a cart whose totals are already worked out against pricing - e.g.
+	 *kept current one edit at a time, see CartTotals - so only the cheapest store and
+	 *the distances are left to do: O(stores) instead of O(stores x cart). productIds are
+	 *the products in the cart (quantities are already in the totals). The quote keeps
+	 *totals, so it mustn't change afterwards - hand over a copy.*/
+	public Quote quote(PricingSnapshot pricing, CartTotals totals, int[] productIds, int userX, int userY, BooleanSupplier cancelled) {
+		if (totals.getPrices() != pricing.getPrices()) {
+			throw new IllegalArgumentException("Cart totals are for other prices than the pricing snapshot");
+		}
+		InventoryBitmap cart = new InventoryBitmap();
+		for (int id : productIds) {
+			cart.add(id);
+		}
+		return this.quote(pricing, cart, totals, userX, userY, cancelled);
+	}
+	
+	private Quote quote(PricingSnapshot pricing, InventoryBitmap cart, CartTotals totals, int userX, int userY, BooleanSupplier cancelled) {
+		Store cheapest = null;
+		if (totals.getItemCount() > 0) {
+			int id = totals.getCheapestStoreId();
+			if (id != -1) {
+				cheapest = this.stores.get(id);
+			}
+		}
+		return this.locate(pricing, cart, totals, cheapest, userX, userY, cancelled);
+	}
+	
+	/*The same quote seen from somewhere else - only distances and the closest store are
+	 *worked out again, since what the cart costs doesn't depend on where the user is*/
+	public Quote relocate(Quote q, int userX, int userY) {
+		return this.relocate(q, userX, userY, null);
+	}
+	
+	public Quote relocate(Quote q, int userX, int userY, BooleanSupplier cancelled) {
+		return this.locate(q.getPricing(), q.getCart(), q.getTotals(), q.getCheapest(), userX, userY, cancelled);
+	}
+	
+	/*The cheapest way to buy the cart q was made for from at most maxStores stores, each
+	 *store after the closest one costing centsPerFoot for every foot it is from the user
+	 *(see SplitCartOptimizer). Takes the same arrays q was made from.*/
+	public SplitPlan split(Quote q, int[] productIds, int[] quantities, int maxStores, double centsPerFoot) {
+		if (productIds.length != quantities.length) {
+			throw new IllegalArgumentException("Got " + productIds.length + " product ids but " + quantities.length + " quantities");
+		}
+		return new SplitCartOptimizer(this.stores).optimize(q, productIds, quantities, maxStores, centsPerFoot);
+	}
+	
+	/*The k closest stores to a point, closest first*/
+	public ArrayList<Store> getClosestStores(int x, int y, int k) {
+		return this.storeIndex.nearest(x, y, k);
+	}
+	
+	/*Every store within the given distance (in feet) of a point, going by the distance
+	 *a quote gives it - whole pixels, rounded down, times feetPerPixel - so the stores
+	 *found are exactly the ones shown as that close*/
+	public ArrayList<Store> getStoresWithinRadius(int x, int y, int feet) {
+		ArrayList<Store> result = new ArrayList<Store>();
+		if (feet < 0) {
+			return result;
+		}
+		for (Store s : this.storeIndex.withinRadius(x, y, feet / this.feetPerPixel + 1)) { // one pixel over, since distances round down
+			if (this.feetTo(x, y, s) <= feet) {
+				result.add(s);
+			}
+		}
+		return result;
+	}
+	
+	/*Distance from a point to a store as quotes give it*/
+	private int feetTo(int x, int y, Store s) {
+		return (int)Math.sqrt(StoreKdTree.squaredDistance(x, y, s.getXLoc(), s.getYLoc())) * this.feetPerPixel;
+	}
+	
+	private Quote locate(PricingSnapshot pricing, InventoryBitmap cart, CartTotals totals, Store cheapest, int userX, int userY, BooleanSupplier cancelled) {
+		int[] distances = new int[this.stores.size()];
+		for (int i = 0; i < distances.length; i++) {
+			if (cancelled != null && i % checkEvery == checkEvery - 1 && cancelled.getAsBoolean()) {
+				return null;
+			}
+			Store s = this.stores.get(i);
+			distances[s.getId()] = this.feetTo(userX, userY, s);
+		}
+		if (cancelled != null && cancelled.getAsBoolean()) {
+			return null;
+		}
+		Store closest = this.storeIndex.nearest(userX, userY);
+		return new Quote(pricing, cart, totals, userX, userY, distances, closest, cheapest);
+	}
+}
@@ -0,0 +1,488 @@
+package classes;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*Live price and availability updates. Each update is one line of text,
+ *
+ *  store,product,price
+ *
+ *with names as in the catalog and the price in dollars, or - when the store no longer
+ *has the product. Lines can come from any mix of sources: a file that's followed as it
+ *grows (like tail -f), connections to a socket on localhost, or submit() (which also
+ *takes updates by id, e.g. from PriceFetchCoordinator). Sources only parse lines and
+ *queue them. A single publisher thread takes whatever has queued up (waiting a few
+ *milliseconds for more once the first update arrives), applies the whole batch to the
+ *current PricingSnapshot in one go and publishes the result through an AtomicReference
+ *- so readers just call current() and never wait on the feed, however fast updates
+ *come in. Updates that don't change anything are dropped, and a batch of nothing but
+ *those isn't published at all. When the queue is full the sources are slowed down rather than the queue
+ *growing without bound.*/
+public class PriceFeed {
+	public interface Listener {
+		/*Called on the publisher thread after every new snapshot - hand anything slow off
+		 *to another thread*/
+		void pricesPublished(PricingSnapshot s);
+	}
+	
+	public interface Receipt {
+		/*Called once, on the publisher thread (or whichever one stopped the feed) - false
+		 *if the updates were lost instead of published*/
+		void received(boolean published);
+	}
+	
+	private static final int queueCapacity = 1 << 16;
+	private static final int maxBatch = 8192;
+	private static final long lingerMillis = 20; // how long a batch can wait to fill up
+	private static final long tailPollMillis = 50;
+	
+	private HashMap<String, Store> storesByName;
+	private int storeCount;
+	private ProductRegistry products;
+	
+	private AtomicReference<PricingSnapshot> current;
+	private ArrayBlockingQueue<Update> queue;
+	private volatile Listener listener = null;
+	
+	private volatile boolean running = false;
+	private ArrayList<Thread> threads; // running ones - guarded by itself, like sources
+	private ArrayList<Closeable> sources; // open sockets, closed by stop()
+	
+	private AtomicLong accepted = new AtomicLong();
+	private AtomicLong rejected = new AtomicLong();
+	private AtomicLong published = new AtomicLong();
+	
+	public PriceFeed(ArrayList<Store> stores, ProductRegistry products, PricingSnapshot initial) {
+		this.storesByName = new HashMap<String, Store>();
+		for (Store s : stores) {
+			this.storesByName.put(s.getName(), s);
+		}
+		this.storeCount = stores.size();
+		this.products = products;
+		this.current = new AtomicReference<PricingSnapshot>(initial);
+		this.queue = new ArrayBlockingQueue<Update>(queueCapacity);
+		this.threads = new ArrayList<Thread>();
+		this.sources = new ArrayList<Closeable>();
+	}
+	
+	/*The latest published snapshot - never blocks*/
+	public PricingSnapshot current() {
+		return this.current.get();
+	}
+	
+	public void setListener(Listener l) {
+		this.listener = l;
+	}
+	
+	public void start() {
+		this.running = true;
+		this.startThread("price-feed-publisher", new Runnable() {
+			@Override
+			public void run() {
+				publishLoop();
+			}
+		});
+	}
+	
+	public void stop() {
+		this.running = false;
+		synchronized (this.sources) {
+			for (Closeable c : this.sources) {
+				try {
+					c.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+			this.sources.clear();
+		}
+		synchronized (this.threads) {
+			for (Thread t : this.threads) {
+				t.interrupt();
+			}
+			this.threads.clear();
+		}
+		this.dropQueued();
+	}
+	
+	/*Queue one update line, waiting if the queue is full. Returns false (and counts it
+	 *as rejected) if the line isn't a valid update.*/
+	public boolean submit(String line) {
+		String trimmed = line.trim();
+		if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+			return true;
+		}
+		Update u = this.parse(trimmed);
+		if (u == null) {
+			this.rejected.incrementAndGet();
+			return false;
+		}
+		try {
+			this.queue.put(u);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		this.accepted.incrementAndGet();
+		return true;
+	}
+	
+	/*Queue one update by ids, for sources that already have them (like
+	 *PriceFetchCoordinator) - cents as in PriceMatrix, UNAVAILABLE if the store no longer
+	 *has the product. Waits if the queue is full. Returns false (and counts it as
+	 *rejected) for an unknown store or product or a negative price, same as a bad line.*/
+	public boolean submit(int storeId, int productId, long cents) {
+		if (!this.valid(storeId, productId, cents)) {
+			this.rejected.incrementAndGet();
+			return false;
+		}
+		try {
+			this.queue.put(new Update(storeId, productId, cents, null));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		this.accepted.incrementAndGet();
+		return true;
+	}
+	
+	/*Queue updates for one store, checked like the above, and tell the receipt once
+	 *they've been through the publisher: published (which includes changing nothing),
+	 *or lost - the batch they were in failed, or the feed was stopped first. So whoever
+	 *submitted them can wait until current() has them. Rejected ones don't count either
+	 *way.*/
+	public void submit(int storeId, int[] productIds, long[] cents, Receipt receipt) {
+		Ticket t = new Ticket(receipt);
+		if (!this.running) {
+			t.settle(false);
+			return;
+		}
+		try {
+			for (int i = 0; i < productIds.length; i++) {
+				if (this.valid(storeId, productIds[i], cents[i])) {
+					this.queue.put(new Update(storeId, productIds[i], cents[i], t));
+					this.accepted.incrementAndGet();
+				} else {
+					this.rejected.incrementAndGet();
+				}
+			}
+			this.queue.put(new Update(t));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			t.settle(false);
+			return;
+		}
+		if (!this.running) {
+			this.dropQueued(); // stopped while these went in, maybe after stop() emptied the queue
+		}
+	}
+	
+	/*Follow a file, queueing every line appended to it from now on. The file doesn't
+	 *have to exist yet; if it's truncated or replaced, it's read again from the start.*/
+	public void tail(final File f) {
+		this.startThread("price-feed-tail", new Runnable() {
+			@Override
+			public void run() {
+				tailLoop(f);
+			}
+		});
+	}
+	
+	/*Accept connections on a localhost port (0 picks a free one) and queue every line
+	 *sent over them. Returns the port.*/
+	public int listen(int port) throws IOException {
+		final ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		synchronized (this.sources) {
+			this.sources.add(server);
+		}
+		this.startThread("price-feed-listener", new Runnable() {
+			@Override
+			public void run() {
+				acceptLoop(server);
+			}
+		});
+		return server.getLocalPort();
+	}
+	
+	public long getAcceptedCount() {
+		return this.accepted.get();
+	}
+	
+	public long getRejectedCount() {
+		return this.rejected.get();
+	}
+	
+	public long getPublishedCount() {
+		return this.published.get();
+	}
+	
+	/*Threads are only kept in the list while they run, so stop() can interrupt them -
+	 *connections come and go, and the list would otherwise grow with every one*/
+	private void startThread(String name, final Runnable r) {
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					r.run();
+				} finally {
+					synchronized (threads) {
+						threads.remove(Thread.currentThread());
+					}
+				}
+			}
+		}, name);
+		t.setDaemon(true);
+		synchronized (this.threads) {
+			this.threads.add(t);
+		}
+		t.start();
+	}
+	
+	private boolean valid(int storeId, int productId, long cents) {
+		return storeId >= 0 && storeId < this.storeCount && this.products.contains(productId)
+				&& (cents >= 0 || cents == PriceMatrix.UNAVAILABLE);
+	}
+	
+	/*Tell the receipts of whatever's still queued that it's lost*/
+	private void dropQueued() {
+		ArrayList<Update> left = new ArrayList<Update>();
+		this.queue.drainTo(left);
+		dropped(left);
+	}
+	
+	private static void dropped(ArrayList<Update> updates) {
+		for (Update u : updates) {
+			if (u.ticket != null) {
+				u.ticket.settle(false);
+			}
+		}
+	}
+	
+	private Update parse(String line) {
+		String[] f = CatalogLoader.splitCsv(line);
+		if (f.length != 3) {
+			return null;
+		}
+		Store s = this.storesByName.get(f[0]);
+		Product p = this.products.get(f[1]);
+		if (s == null || p == null) {
+			return null;
+		}
+		long cents = PriceMatrix.UNAVAILABLE;
+		if (!f[2].equals("-")) {
+			try {
+				cents = PriceMatrix.toCents(new BigDecimal(f[2]));
+			} catch (NumberFormatException | ArithmeticException e) {
+				return null;
+			}
+			if (cents < 0) {
+				return null;
+			}
+		}
+		return new Update(s.getId(), p.getId(), cents, null);
+	}
+	
+	private void publishLoop() {
+		ArrayList<Update> batch = new ArrayList<Update>(maxBatch);
+		int[] stores = new int[maxBatch];
+		int[] products = new int[maxBatch];
+		long[] cents = new long[maxBatch];
+		ArrayList<Ticket> reached = new ArrayList<Ticket>(); // markers in the batch
+		while (this.running) {
+			try {
+				Update first = this.queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+				while (batch.size() < maxBatch) {
+					this.queue.drainTo(batch, maxBatch - batch.size());
+					long left = deadline - System.nanoTime();
+					if (batch.size() >= maxBatch || left <= 0) {
+						break;
+					}
+					Update u = this.queue.poll(left, TimeUnit.NANOSECONDS);
+					if (u == null) {
+						break;
+					}
+					batch.add(u);
+				}
+			} catch (InterruptedException e) {
+				dropped(batch);
+				break;
+			}
+			
+			int n = 0;
+			for (Update u : batch) {
+				if (u.isMarker()) {
+					reached.add(u.ticket);
+					continue;
+				}
+				stores[n] = u.store;
+				products[n] = u.product;
+				cents[n] = u.cents;
+				n++;
+			}
+			try {
+				PricingSnapshot next = this.current.get().apply(stores, products, cents, n);
+				if (next != this.current.get()) {
+					this.current.set(next); // only this thread ever sets it
+					this.published.incrementAndGet();
+					Listener l = this.listener;
+					if (l != null) {
+						l.pricesPublished(next);
+					}
+				}
+			} catch (RuntimeException e) {
+				e.printStackTrace(); // drop the batch but keep the feed going
+				for (Update u : batch) {
+					if (u.ticket != null) {
+						u.ticket.failed = true; // its marker may only come in a later batch
+					}
+				}
+			}
+			batch.clear();
+			for (Ticket t : reached) {
+				t.settle(true);
+			}
+			reached.clear();
+		}
+		this.dropQueued();
+	}
+	
+	private void tailLoop(File f) {
+		long pos = f.length(); // 0 if it doesn't exist yet
+		ByteArrayOutputStream partial = new ByteArrayOutputStream();
+		byte[] buf = new byte[64 << 10];
+		while (this.running) {
+			long length = f.length();
+			if (length < pos) {
+				pos = 0;
+				partial.reset();
+			}
+			if (length > pos) {
+				try (RandomAccessFile in = new RandomAccessFile(f, "r")) {
+					in.seek(pos);
+					int n;
+					while ((n = in.read(buf)) > 0) {
+						pos += n;
+						for (int i = 0; i < n; i++) {
+							if (buf[i] == '\n') {
+								this.submit(new String(partial.toByteArray(), StandardCharsets.UTF_8));
+								partial.reset();
+							} else {
+								partial.write(buf[i]);
+							}
+						}
+					}
+				} catch (IOException e) {
+					e.printStackTrace(); // try again next poll
+				}
+			}
+			try {
+				Thread.sleep(tailPollMillis);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+	
+	private void acceptLoop(ServerSocket server) {
+		while (this.running) {
+			final Socket client;
+			try {
+				client = server.accept();
+			} catch (IOException e) {
+				return; // closed by stop()
+			}
+			synchronized (this.sources) {
+				this.sources.add(client);
+			}
+			this.startThread("price-feed-connection", new Runnable() {
+				@Override
+				public void run() {
+					readLoop(client);
+				}
+			});
+		}
+	}
+	
+	private void readLoop(Socket client) {
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8))) {
+			String line;
+			while (this.running && (line = in.readLine()) != null) {
+				this.submit(line);
+			}
+		} catch (IOException e) {
+			// connection dropped or closed by stop()
+		} finally {
+			synchronized (this.sources) {
+				this.sources.remove(client);
+			}
+		}
+	}
+	
+	private static class Update {
+		private final int store; // -1 for a marker
+		private final int product;
+		private final long cents;
+		private final Ticket ticket; // null unless submitted with a receipt
+		
+		private Update(int s, int p, long c, Ticket t) {
+			this.store = s;
+			this.product = p;
+			this.cents = c;
+			this.ticket = t;
+		}
+		
+		/*Marker queued after a receipt's updates - once the publisher gets to it, they've
+		 *all been through*/
+		private Update(Ticket t) {
+			this(-1, -1, PriceMatrix.UNAVAILABLE, t);
+		}
+		
+		private boolean isMarker() {
+			return this.store == -1;
+		}
+	}
+	
+	/*A receipt and whether any of its updates were lost so far*/
+	private static class Ticket {
+		private final Receipt receipt;
+		private volatile boolean failed = false;
+		private final AtomicBoolean settled = new AtomicBoolean(false);
+		
+		private Ticket(Receipt r) {
+			this.receipt = r;
+		}
+		
+		private void settle(boolean published) {
+			if (!this.settled.compareAndSet(false, true)) {
+				return;
+			}
+			try {
+				this.receipt.received(published && !this.failed);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
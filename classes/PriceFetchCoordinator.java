@@ -0,0 +1,481 @@
+package classes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ServiceLoader;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*Asks the PriceProviders for current prices and hands whatever comes back to a
+ *PriceFeed, which publishes it like any other update. Every store goes to the first
+ *provider that covers it, and a fetch is cut into batches - one per store and up to the
+ *provider's getMaxBatch() products.
+ *
+ *Each provider gets its own threads (getMaxConcurrency() of them), so a slow or stuck
+ *chain only ever holds up its own batches. Each batch is then on its own clock:
+ *
+ *  - if there's no answer after getHedgeAfterMillis(), the same batch is asked for again
+ *    alongside the first try, and whichever answers first wins (the other is interrupted)
+ *  - a try that fails is retried after a short, doubling pause
+ *  - at most maxAttempts tries in all, and after getTimeoutMillis() the batch is given
+ *    up on - its prices just stay as they were
+ *
+ *Prices go to the feed as each batch lands, not when the whole fetch is done, so one
+ *slow chain never holds up the rest of a cart's quote. A batch only counts as landed
+ *(for its Round, and for the cache) once the feed has published its prices, so a
+ *caller done waiting on a Round finds them in feed.current().
+ *
+ *What's been fetched is kept in a PriceCache, for as long as the provider's
+ *getTtlMillis() for the store, so a fetch only goes out for prices that aren't current.
+ *A price that's just past that (within getStaleMillis()) still counts, and is
+ *refreshed in the background, and one that's already being fetched for another
+ *caller is waited on rather than asked for again - however many carts want a price at
+ *once, it goes out once. Thread-safe.*/
+public class PriceFetchCoordinator {
+	private static final int maxAttempts = 3; // per batch - tries, hedges and retries together
+	private static final long retryBackoffMillis = 25; // doubled for every failure after the first
+	private static final int defaultCacheSize = 1 << 18; // store and product pairs
+	private static final int batchLanded = 1; // how a batch went
+	private static final int batchFailed = 2;
+	private static final int batchTimedOut = 3;
+	
+	private final PriceFeed feed;
+	private final Lane[] lanes; // one per provider in use
+	private final Lane[] laneFor; // by store id, null where no provider covers the store
+	private final ArrayList<Store> stores;
+	private final ScheduledThreadPoolExecutor timer; // hedges, retries and deadlines
+	private final PriceCache cache;
+	
+	public PriceFetchCoordinator(Catalog catalog, ArrayList<PriceProvider> providers, PriceFeed f) {
+		this(catalog, providers, f, defaultCacheSize);
+	}
+	
+	/*Providers that opt out (see PriceProvider.init) or don't cover any store are left
+	 *out. The cache keeps up to cacheSize prices.*/
+	public PriceFetchCoordinator(Catalog catalog, ArrayList<PriceProvider> providers, PriceFeed f, int cacheSize) {
+		this.feed = f;
+		this.stores = catalog.getStores();
+		this.laneFor = new Lane[this.stores.size()];
+		this.cache = new PriceCache(this.stores.size(), cacheSize, 0, 0);
+		ArrayList<Lane> used = new ArrayList<Lane>();
+		for (PriceProvider p : providers) {
+			if (!p.init(catalog)) {
+				continue;
+			}
+			Lane lane = null;
+			for (Store s : this.stores) {
+				if (this.laneFor[s.getId()] == null && p.covers(s)) {
+					if (lane == null) {
+						lane = new Lane(p);
+						used.add(lane);
+					}
+					this.laneFor[s.getId()] = lane;
+					this.cache.setTtl(s.getId(), p.getTtlMillis(s), p.getStaleMillis(s));
+				}
+			}
+		}
+		this.lanes = used.toArray(new Lane[0]);
+		this.timer = new ScheduledThreadPoolExecutor(1, daemonThreads("price-fetch-timer"));
+		this.timer.setRemoveOnCancelPolicy(true);
+	}
+	
+	/*Every provider on the classpath (see PriceProvider)*/
+	public static ArrayList<PriceProvider> loadProviders() {
+		ArrayList<PriceProvider> providers = new ArrayList<PriceProvider>();
+		for (PriceProvider p : ServiceLoader.load(PriceProvider.class)) {
+			providers.add(p);
+		}
+		return providers;
+	}
+	
+	/*Number of providers in use*/
+	public int getProviderCount() {
+		return this.lanes.length;
+	}
+	
+	/*Start fetching the products' prices at every store that has a provider, apart from
+	 *the ones that are cached or already being fetched. Returns right away - the Round
+	 *says how it went, and is done once this caller's batches and any it's waiting on
+	 *have landed. Stale prices being refreshed don't hold it up.*/
+	public Round fetch(int[] productIds) {
+		ArrayList<Batch> batches = new ArrayList<Batch>();
+		Round round = new Round();
+		Round background = new Round(); // for refreshes - nobody waits on it
+		Object[] inFlight = new Object[1];
+		for (Store s : this.stores) {
+			Lane lane = this.laneFor[s.getId()];
+			if (lane == null) {
+				continue;
+			}
+			int size = Math.max(1, lane.provider.getMaxBatch());
+			Batch load = null;
+			Batch refresh = null;
+			for (int id : productIds) {
+				if (load == null || load.isFull()) {
+					load = new Batch(lane, s, size, round);
+					batches.add(load);
+				}
+				if (refresh == null || refresh.isFull()) {
+					refresh = new Batch(lane, s, size, background);
+					batches.add(refresh);
+				}
+				switch (this.cache.claim(s.getId(), id, load, refresh, inFlight)) {
+				case PriceCache.LOAD:
+					load.add(id);
+					break;
+				case PriceCache.REFRESH:
+					refresh.add(id);
+					round.cached.incrementAndGet();
+					break;
+				case PriceCache.JOIN:
+					((Batch)inFlight[0]).join(round);
+					break;
+				default: // FRESH, STALE
+					round.cached.incrementAndGet();
+				}
+			}
+		}
+		for (Batch b : batches) {
+			if (!b.isEmpty()) {
+				b.start();
+			}
+		}
+		round.landed(); // everything's started
+		background.landed();
+		return round;
+	}
+	
+	public void stop() {
+		this.timer.shutdownNow();
+		for (Lane lane : this.lanes) {
+			lane.pool.shutdownNow();
+		}
+	}
+	
+	public PriceCache getCache() {
+		return this.cache;
+	}
+	
+	/*One line per provider - tries, hedges, failures and timeouts so far - and one for
+	 *the cache*/
+	public String getStats() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(this.cache.getStats()).append(String.format("%n"));
+		for (Lane lane : this.lanes) {
+			sb.append(String.format("%s: %d batches, %d tries (%d hedged), %d failed, %d timed out%n",
+					lane.provider.getName(), lane.batches.get(), lane.tries.get(), lane.hedges.get(), lane.failures.get(), lane.timeouts.get()));
+		}
+		return sb.toString();
+	}
+	
+	/*Prices for the batch came in - send them all on to the feed, and once it has
+	 *published them, cache them and finish the batch. If the feed lost them instead
+	 *(or turned them down as nonsense), they're not cached, and the batch counts as
+	 *failed. The feed drops the ones that don't change anything; checking against its
+	 *current snapshot here would miss updates it has queued but not yet published.*/
+	private void deliver(final Batch b, final long[] cents) {
+		final int s = b.store.getId();
+		this.feed.submit(s, b.ids, cents, new PriceFeed.Receipt() {
+			@Override
+			public void received(boolean published) {
+				for (int i = 0; i < b.ids.length; i++) {
+					if (published && (cents[i] >= 0 || cents[i] == PriceMatrix.UNAVAILABLE)) {
+						cache.put(s, b.ids[i], cents[i]);
+					} else {
+						cache.release(s, b.ids[i], b);
+					}
+				}
+				b.finish(published ? batchLanded : batchFailed);
+			}
+		});
+	}
+	
+	private static ThreadFactory daemonThreads(final String name) {
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name);
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+	
+	/*A provider, its threads and its counts*/
+	private static class Lane {
+		private final PriceProvider provider;
+		private final ExecutorService pool;
+		private final AtomicLong batches = new AtomicLong();
+		private final AtomicLong tries = new AtomicLong();
+		private final AtomicLong hedges = new AtomicLong();
+		private final AtomicLong failures = new AtomicLong();
+		private final AtomicLong timeouts = new AtomicLong();
+		
+		private Lane(PriceProvider p) {
+			this.provider = p;
+			this.pool = Executors.newFixedThreadPool(Math.max(1, p.getMaxConcurrency()), daemonThreads("price-fetch-" + p.getName()));
+		}
+	}
+	
+	/*How one fetch went - counts are of store and product pairs. Prices waited on from
+	 *someone else's batch count the way that batch went.*/
+	public static class Round {
+		private final AtomicInteger pending = new AtomicInteger(1); // batches and waits - plus one until fetch() has started them all
+		private final CountDownLatch done = new CountDownLatch(1);
+		private final AtomicInteger cached = new AtomicInteger();
+		private final AtomicInteger fetched = new AtomicInteger();
+		private final AtomicInteger failed = new AtomicInteger();
+		private final AtomicInteger timedOut = new AtomicInteger();
+		
+		private void waitFor() {
+			this.pending.incrementAndGet();
+		}
+		
+		private void landed() {
+			if (this.pending.decrementAndGet() == 0) {
+				this.done.countDown();
+			}
+		}
+		
+		/*Wait until every batch has landed or been given up on - false if that took
+		 *longer than the given time*/
+		public boolean await(long millis) throws InterruptedException {
+			return this.done.await(millis, TimeUnit.MILLISECONDS);
+		}
+		
+		public boolean isDone() {
+			return this.done.getCount() == 0;
+		}
+		
+		/*Current (or stale, and being refreshed) in the cache, so not waited on*/
+		public int getCached() {
+			return this.cached.get();
+		}
+		
+		public int getFetched() {
+			return this.fetched.get();
+		}
+		
+		public int getFailed() {
+			return this.failed.get();
+		}
+		
+		public int getTimedOut() {
+			return this.timedOut.get();
+		}
+	}
+	
+	/*One store's prices for up to a batch of products, and the tries at getting them.
+	 *It's the loader for them in the cache, so other fetches wanting them join it.*/
+	private class Batch {
+		private final Lane lane;
+		private final Store store;
+		private int[] ids; // filled in by fetch(), then trimmed to size by start()
+		private int size = 0;
+		private final Round round;
+		private final AtomicBoolean done = new AtomicBoolean(false);
+		
+		/*Guarded by this*/
+		private ArrayList<Future<?>> tries = new ArrayList<Future<?>>();
+		private int failures = 0;
+		private ScheduledFuture<?> hedge = null;
+		private ScheduledFuture<?> deadline = null;
+		private ArrayList<Round> waiters = new ArrayList<Round>(0); // one entry per price waited on
+		private int outcome = 0; // set once finished
+		
+		private Batch(Lane l, Store s, int capacity, Round r) {
+			this.lane = l;
+			this.store = s;
+			this.ids = new int[capacity];
+			this.round = r;
+		}
+		
+		private void add(int id) {
+			this.ids[this.size++] = id;
+		}
+		
+		private boolean isFull() {
+			return this.size == this.ids.length;
+		}
+		
+		private boolean isEmpty() {
+			return this.size == 0;
+		}
+		
+		/*Another fetch wants one of these prices - it's done when this is (or right away
+		 *if this already is)*/
+		private synchronized void join(Round r) {
+			if (this.outcome != 0) {
+				count(r, this.outcome, 1);
+				return;
+			}
+			r.waitFor();
+			this.waiters.add(r);
+		}
+		
+		private void start() {
+			if (this.size < this.ids.length) {
+				this.ids = Arrays.copyOf(this.ids, this.size);
+			}
+			this.round.waitFor();
+			this.lane.batches.incrementAndGet();
+			try {
+				synchronized (this) {
+					this.launch();
+					this.hedge = timer.schedule(new Runnable() {
+						@Override
+						public void run() {
+							hedge();
+						}
+					}, this.lane.provider.getHedgeAfterMillis(), TimeUnit.MILLISECONDS);
+					this.deadline = timer.schedule(new Runnable() {
+						@Override
+						public void run() {
+							giveUp(true);
+						}
+					}, this.lane.provider.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+				}
+			} catch (RejectedExecutionException e) {
+				this.giveUp(false); // stopped
+			}
+		}
+		
+		/*Start another try, if there are any left - caller holds the lock*/
+		private boolean launch() {
+			if (this.done.get() || this.tries.size() >= maxAttempts) {
+				return false;
+			}
+			this.tries.add(this.lane.pool.submit(new Runnable() {
+				@Override
+				public void run() {
+					attempt();
+				}
+			}));
+			return true;
+		}
+		
+		private synchronized void hedge() {
+			if (this.launch()) {
+				this.lane.hedges.incrementAndGet();
+			}
+		}
+		
+		private void attempt() {
+			if (this.done.get()) {
+				return; // waited in the pool past the end
+			}
+			this.lane.tries.incrementAndGet();
+			long[] cents;
+			try {
+				cents = this.lane.provider.fetch(this.store, this.ids);
+				if (cents == null || cents.length != this.ids.length) {
+					throw new IllegalStateException(this.lane.provider.getName() + " answered with the wrong number of prices");
+				}
+			} catch (InterruptedException e) {
+				return; // given up on, or another try won
+			} catch (Exception e) {
+				this.failed();
+				return;
+			}
+			if (this.done.compareAndSet(false, true)) {
+				deliver(this, cents); // finishes the batch once they're published
+				this.stopTries();
+			}
+		}
+		
+		/*A try failed - try again after a pause if there are tries left, give up if
+		 *that was the last one out*/
+		private void failed() {
+			if (this.done.get()) {
+				return;
+			}
+			this.lane.failures.incrementAndGet();
+			synchronized (this) {
+				this.failures++;
+				if (this.tries.size() < maxAttempts) {
+					try {
+						timer.schedule(new Runnable() {
+							@Override
+							public void run() {
+								synchronized (Batch.this) {
+									launch();
+								}
+							}
+						}, retryBackoffMillis << (this.failures - 1), TimeUnit.MILLISECONDS);
+						return;
+					} catch (RejectedExecutionException e) {
+						// stopped, give up now
+					}
+				} else if (this.failures < this.tries.size()) {
+					return; // another try is still out
+				}
+			}
+			this.giveUp(false);
+		}
+		
+		private void giveUp(boolean timedOut) {
+			if (!this.done.compareAndSet(false, true)) {
+				return;
+			}
+			if (timedOut) {
+				this.lane.timeouts.incrementAndGet();
+			}
+			for (int id : this.ids) {
+				cache.release(this.store.getId(), id, this);
+			}
+			this.stopTries();
+			this.finish(timedOut ? batchTimedOut : batchFailed);
+		}
+		
+		/*Stop the clocks and any tries still out*/
+		private synchronized void stopTries() {
+			if (this.hedge != null) {
+				this.hedge.cancel(false);
+			}
+			if (this.deadline != null) {
+				this.deadline.cancel(false);
+			}
+			for (Future<?> f : this.tries) {
+				if (!f.isDone()) {
+					f.cancel(true);
+				}
+			}
+		}
+		
+		/*Let whoever's waiting know how it went*/
+		private void finish(int how) {
+			ArrayList<Round> joined;
+			synchronized (this) {
+				this.outcome = how;
+				joined = this.waiters;
+				this.waiters = null;
+			}
+			count(this.round, how, this.ids.length);
+			this.round.landed();
+			for (Round r : joined) {
+				count(r, how, 1);
+				r.landed();
+			}
+		}
+	}
+	
+	private static void count(Round r, int outcome, int prices) {
+		if (outcome == batchLanded) {
+			r.fetched.addAndGet(prices);
+		} else if (outcome == batchTimedOut) {
+			r.timedOut.addAndGet(prices);
+		} else {
+			r.failed.addAndGet(prices);
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package classes;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+
+/*Dense store x product table of prices. Every price is computed once here (base
+ *price times the store's modifier) and kept as a whole number of cents, so pricing
+ *a cart is just an integer sum over one store's row - no BigDecimal math and no
+ *allocation per lookup. Rows are indexed by store id and columns by product id.
+ *
+ *Each row is stored as blocks of BLOCK_SIZE prices, each block a LongBuffer - either
+ *wrapping an array, or mapped straight from a catalog snapshot file, in which case it's
+ *only paged in when it's read. A matrix is never changed once it's built: withPrices
+ *makes a new one that shares every block the changes don't touch, so live price
+ *updates only copy a few blocks and older matrices stay valid for whoever is reading
+ *them.*/
+public class PriceMatrix {
+	public static final long UNAVAILABLE = -1; // product isn't stocked at the store
+	
+	private static final int BLOCK_BITS = 10;
+	private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+	private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+	
+	private int productCount;
+	private LongBuffer[][] cents; // [store id][product id / BLOCK_SIZE]
+	
+	public PriceMatrix(ArrayList<Store> stores, ArrayList<Product> products, PricingRules rules) {
+		this.productCount = products.size();
+		this.cents = new LongBuffer[stores.size()][];
+		for (Store s : stores) {
+			this.cents[s.getId()] = toBlocks(LongBuffer.wrap(computeRow(s, products, rules)), this.productCount);
+		}
+	}
+	
+	private PriceMatrix(LongBuffer[][] blocks, int products) {
+		this.cents = blocks;
+		this.productCount = products;
+	}
+	
+	/*Matrix over rows that already exist, e.g. mapped from a snapshot*/
+	static PriceMatrix fromRows(LongBuffer[] rows, int products) {
+		LongBuffer[][] blocks = new LongBuffer[rows.length][];
+		for (int s = 0; s < rows.length; s++) {
+			blocks[s] = toBlocks(rows[s], products);
+		}
+		return new PriceMatrix(blocks, products);
+	}
+	
+	private static LongBuffer[] toBlocks(LongBuffer row, int products) {
+		LongBuffer[] blocks = new LongBuffer[(products + BLOCK_SIZE - 1) >>> BLOCK_BITS];
+		LongBuffer r = row.duplicate();
+		for (int b = 0; b < blocks.length; b++) {
+			r.limit(Math.min(products, (b + 1) * BLOCK_SIZE)).position(b * BLOCK_SIZE);
+			blocks[b] = r.slice();
+		}
+		return blocks;
+	}
+	
+	/*One store's prices, by product id*/
+	static long[] computeRow(Store s, ArrayList<Product> products, PricingRules rules) {
+		long[] row = new long[products.size()];
+		for (int i = 0; i < row.length; i++) {
+			row[i] = UNAVAILABLE;
+		}
+		int[] stocked = s.getInventoryIds().toArray();
+		for (int i = 0; i < stocked.length; i++) {
+			Product p = products.get(stocked[i]);
+			row[p.getId()] = toCents(p.getBasePrice().multiply(BigDecimal.valueOf(rules.getModifier(s.getId(), p))));
+		}
+		return row;
+	}
+	
+	/*Copy of this matrix with the first n changes applied in order (so later ones win).
+	 *Only the blocks that change are copied - the rest are shared with this matrix,
+	 *which is left as it was. If nothing changes, this matrix is returned.*/
+	PriceMatrix withPrices(int[] stores, int[] products, long[] prices, int n) {
+		LongBuffer[][] next = this.cents.clone();
+		boolean changed = false;
+		for (int i = 0; i < n; i++) {
+			int s = stores[i];
+			int b = products[i] >>> BLOCK_BITS;
+			if (next[s][b] == this.cents[s][b] && this.cents[s][b].get(products[i] & BLOCK_MASK) == prices[i]) {
+				continue; // block not touched yet, and the price is already that
+			}
+			changed = true;
+			if (next[s] == this.cents[s]) {
+				next[s] = next[s].clone();
+			}
+			if (next[s][b] == this.cents[s][b]) {
+				long[] copy = new long[this.cents[s][b].limit()];
+				this.cents[s][b].get(0, copy);
+				next[s][b] = LongBuffer.wrap(copy);
+			}
+			next[s][b].put(products[i] & BLOCK_MASK, prices[i]);
+		}
+		return changed ? new PriceMatrix(next, this.productCount) : this;
+	}
+	
+	public int getStoreCount() {
+		return this.cents.length;
+	}
+	
+	public int getProductCount() {
+		return this.productCount;
+	}
+	
+	/*Returns the price in cents, or UNAVAILABLE if the store doesn't carry the product*/
+	public long getPrice(Store s, Product p) {
+		return this.getPrice(s.getId(), p.getId());
+	}
+	
+	public long getPrice(int storeId, int productId) {
+		return this.cents[storeId][productId >>> BLOCK_BITS].get(productId & BLOCK_MASK);
+	}
+	
+	/*Price times quantity for every cart line the store carries - lines the store
+	 *doesn't have are skipped, same as before. Indexed loop on purpose so nothing is
+	 *allocated.*/
+	public long getCartTotal(Store s, CartCounts cart) {
+		long total = 0;
+		for (int i = 0; i < cart.size(); i++) {
+			long price = this.getPrice(s.getId(), cart.getId(i));
+			if (price != UNAVAILABLE) {
+				total += price * cart.getQuantity(i);
+			}
+		}
+		return total;
+	}
+	
+	/*Round to the nearest cent - half-even, which is what DecimalFormat was doing to the
+	 *BigDecimal totals anyway*/
+	public static long toCents(BigDecimal price) {
+		return price.movePointRight(2).setScale(0, RoundingMode.HALF_EVEN).longValueExact();
+	}
+}
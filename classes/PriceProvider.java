@@ -0,0 +1,65 @@
+package classes;
+
+/*Where live prices come from - one of these per chain (or per API), each pricing some
+ *of the catalog's stores. Providers are found with java.util.ServiceLoader, so a chain
+ *can be added by putting a jar on the classpath with its class named in
+ *META-INF/services/classes.PriceProvider (and a public no-argument constructor); see
+ *PriceFetchCoordinator for how they're called, and SimulatedPriceProvider for one to
+ *test with.
+ *
+ *fetch() is called from several threads at once, and the thread is interrupted when
+ *the coordinator gives up on it - a provider stuck in I/O should let that through.*/
+public abstract class PriceProvider {
+	
+	/*Name for stats and logs*/
+	public abstract String getName();
+	
+	/*Called once with the catalog before anything else - return false to sit this one
+	 *out (e.g. none of the provider's stores are in it)*/
+	public boolean init(Catalog catalog) {
+		return true;
+	}
+	
+	/*Whether this provider prices the store - a store is asked of the first provider
+	 *that covers it*/
+	public abstract boolean covers(Store s);
+	
+	/*Current prices at the store for the given products, in cents (PriceMatrix.UNAVAILABLE
+	 *if it doesn't have one), in the same order. Throw if it can't - the coordinator
+	 *tries again.*/
+	public abstract long[] fetch(Store s, int[] productIds) throws Exception;
+	
+	/*Most products to ask for in one fetch*/
+	public int getMaxBatch() {
+		return 256;
+	}
+	
+	/*Most fetches in flight at once - more wait their turn, without holding up other
+	 *providers*/
+	public int getMaxConcurrency() {
+		return 4;
+	}
+	
+	/*How long a batch gets, retries and all, before it's given up on*/
+	public long getTimeoutMillis() {
+		return 2000;
+	}
+	
+	/*How long to wait for an answer before asking again alongside the first try (a
+	 *hedged request - whichever answers first wins)*/
+	public long getHedgeAfterMillis() {
+		return this.getTimeoutMillis() / 4;
+	}
+	
+	/*How long a price fetched from the store stays current - the coordinator won't ask
+	 *for it again before then*/
+	public long getTtlMillis(Store s) {
+		return 60000;
+	}
+	
+	/*How long after that the old price is still used while it's fetched again in the
+	 *background - after that it has to be waited for*/
+	public long getStaleMillis(Store s) {
+		return this.getTtlMillis(s);
+	}
+}
@@ -0,0 +1,150 @@
+package classes;
+
+import enums.ProductType;
+import java.util.Arrays;
+
+/*Every store's price modifiers (a product costs its base price times its modifier at
+ *a store). Rules come in as data - per store, a modifier for each product type, a
+ *default for the types without one, and modifiers for single products - and are
+ *compiled once they're all in:
+ *
+ *  - the type rules into a dense [store][type] table, defaults already filled in, with
+ *    one more column for uniform products (the same price everywhere, so always 1.00)
+ *  - each store's product rules into sorted arrays of product ids and modifiers
+ *
+ *A lookup is then two array indexes, plus a binary search at stores that have product
+ *rules. Product rules win over everything else, the uniform flag included.
+ *
+ *Only changed by whoever loads the catalog, before compile() - read-only after that, so
+ *it can be shared between threads.*/
+public class PricingRules {
+	public static final int ANY_TYPE = ProductType.values().length; // the store's default
+	private static final int UNIFORM = ProductType.values().length; // table column for uniform products
+	private static final double NO_RULE = Double.NaN;
+	
+	private final int storeCount;
+	private double[][] typeRules; // [store][type, then default], NO_RULE where none was given
+	private int[][] overrideIds; // [store] product ids with their own rule, sorted
+	private double[][] overrides; // [store] their modifiers, same order
+	private int[] overrideCounts; // only used before compiling
+	
+	private double[][] table = null; // [store][type, then UNIFORM], once compiled
+	
+	public PricingRules(int stores) {
+		this.storeCount = stores;
+		this.typeRules = new double[stores][ProductType.values().length + 1];
+		for (double[] r : this.typeRules) {
+			Arrays.fill(r, NO_RULE);
+		}
+		this.overrideIds = new int[stores][0];
+		this.overrides = new double[stores][0];
+		this.overrideCounts = new int[stores];
+	}
+	
+	public int getStoreCount() {
+		return this.storeCount;
+	}
+	
+	/*Modifier for one type at a store (ANY_TYPE for its default) - a later rule for the
+	 *same store and type replaces an earlier one*/
+	public void setTypeModifier(int storeId, int type, double m) {
+		this.checkOpen(m);
+		this.typeRules[storeId][type] = m;
+	}
+	
+	/*Modifier for one product at a store, whatever its type*/
+	public void setProductModifier(int storeId, int productId, double m) {
+		this.checkOpen(m);
+		int n = this.overrideCounts[storeId];
+		if (n == this.overrideIds[storeId].length) {
+			this.overrideIds[storeId] = Arrays.copyOf(this.overrideIds[storeId], Math.max(4, 2 * n));
+			this.overrides[storeId] = Arrays.copyOf(this.overrides[storeId], Math.max(4, 2 * n));
+		}
+		this.overrideIds[storeId][n] = productId;
+		this.overrides[storeId][n] = m;
+		this.overrideCounts[storeId] = n + 1;
+	}
+	
+	/*Build the lookup tables - no more rules after this. Stores without a default get
+	 *1.00.*/
+	public void compile() {
+		if (this.table != null) {
+			return;
+		}
+		int types = ProductType.values().length;
+		double[][] t = new double[this.storeCount][types + 1];
+		for (int s = 0; s < this.storeCount; s++) {
+			double[] r = this.typeRules[s];
+			double fallback = Double.isNaN(r[ANY_TYPE]) ? 1.00 : r[ANY_TYPE];
+			for (int type = 0; type < types; type++) {
+				t[s][type] = Double.isNaN(r[type]) ? fallback : r[type];
+			}
+			t[s][UNIFORM] = 1.00;
+			this.sortOverrides(s);
+		}
+		this.overrideCounts = null;
+		this.table = t;
+	}
+	
+	/*Modifier for the product at the store*/
+	public double getModifier(int storeId, Product p) {
+		int[] ids = this.overrideIds[storeId];
+		if (ids.length != 0) {
+			int i = Arrays.binarySearch(ids, p.getId());
+			if (i >= 0) {
+				return this.overrides[storeId][i];
+			}
+		}
+		return this.table[storeId][p.getUniform() ? UNIFORM : p.getType().ordinal()];
+	}
+	
+	/*What the store's products of the type cost, base price times this, unless they're
+	 *uniform or have their own rule*/
+	public double getTypeModifier(int storeId, int type) {
+		return this.table[storeId][type];
+	}
+	
+	/*The store's product rules, by product id - copies*/
+	public int[] getProductRuleIds(int storeId) {
+		return this.overrideIds[storeId].clone();
+	}
+	
+	public double[] getProductRuleModifiers(int storeId) {
+		return this.overrides[storeId].clone();
+	}
+	
+	private void checkOpen(double m) {
+		if (this.table != null) {
+			throw new IllegalStateException("Pricing rules are already compiled");
+		}
+		if (!(m >= 0) || Double.isInfinite(m)) {
+			throw new IllegalArgumentException("Bad price modifier " + m);
+		}
+	}
+	
+	/*Trim to size and sort by product id - a later rule for the same product wins*/
+	private void sortOverrides(int s) {
+		int n = this.overrideCounts[s];
+		long[] order = new long[n]; // product id, then position, so equal ids keep their order
+		for (int i = 0; i < n; i++) {
+			order[i] = ((long)this.overrideIds[s][i] << 32) | i;
+		}
+		Arrays.sort(order);
+		int[] ids = new int[n];
+		double[] mods = new double[n];
+		int m = 0;
+		for (int i = 0; i < n; i++) {
+			int id = (int)(order[i] >>> 32);
+			double mod = this.overrides[s][(int)order[i]];
+			if (m > 0 && ids[m - 1] == id) {
+				mods[m - 1] = mod;
+			} else {
+				ids[m] = id;
+				mods[m] = mod;
+				m++;
+			}
+		}
+		this.overrideIds[s] = Arrays.copyOf(ids, m);
+		this.overrides[s] = Arrays.copyOf(mods, m);
+	}
+}
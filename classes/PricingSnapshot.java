@@ -0,0 +1,73 @@
+package classes;
+
+import java.util.ArrayList;
+
+/*Prices and availability as of one moment. Snapshots are immutable, so any number of
+ *threads can price carts against one without locking while the price feed builds the
+ *next one; a quote computed against a single snapshot is always consistent, even if
+ *newer prices arrive halfway through. Each snapshot shares everything the updates
+ *after it didn't touch with the one before it.*/
+public class PricingSnapshot {
+	private final long version;
+	private final PriceMatrix prices;
+	private final InventoryBitmap[] inventories; // by store id - never modified once the snapshot exists
+	
+	/*The starting snapshot - the catalog's prices and the stores' own inventories*/
+	public PricingSnapshot(PriceMatrix m, ArrayList<Store> stores) {
+		this.version = 0;
+		this.prices = m;
+		this.inventories = new InventoryBitmap[stores.size()];
+		for (Store s : stores) {
+			this.inventories[s.getId()] = s.getInventoryIds();
+		}
+	}
+	
+	private PricingSnapshot(long v, PriceMatrix m, InventoryBitmap[] i) {
+		this.version = v;
+		this.prices = m;
+		this.inventories = i;
+	}
+	
+	/*Goes up by one with every snapshot published after the first*/
+	public long getVersion() {
+		return this.version;
+	}
+	
+	public PriceMatrix getPrices() {
+		return this.prices;
+	}
+	
+	/*Ids of the products the store has in stock - read only*/
+	public InventoryBitmap getInventory(Store s) {
+		return this.inventories[s.getId()];
+	}
+	
+	/*The next snapshot, with the first n updates applied in order. A price of
+	 *UNAVAILABLE takes the product out of the store's stock, anything else puts it
+	 *(back) in. Only changed price blocks and inventories are copied - and if nothing
+	 *changes at all, this snapshot is returned as it is.*/
+	PricingSnapshot apply(int[] stores, int[] products, long[] cents, int n) {
+		InventoryBitmap[] next = this.inventories.clone();
+		boolean stockChanged = false;
+		for (int i = 0; i < n; i++) {
+			int s = stores[i];
+			boolean stocked = cents[i] != PriceMatrix.UNAVAILABLE;
+			if (next[s].contains(products[i]) != stocked) {
+				stockChanged = true;
+				if (next[s] == this.inventories[s]) {
+					next[s] = next[s].copy();
+				}
+				if (stocked) {
+					next[s].add(products[i]);
+				} else {
+					next[s].remove(products[i]);
+				}
+			}
+		}
+		PriceMatrix prices = this.prices.withPrices(stores, products, cents, n);
+		if (prices == this.prices && !stockChanged) {
+			return this;
+		}
+		return new PricingSnapshot(this.version + 1, prices, next);
+	}
+}
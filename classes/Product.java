@@ -8,6 +8,7 @@ public class Product {
 	private ProductType type;
 	private boolean uniform; // same price everywhere
 	private BigDecimal basePrice;
+	private int id; // dense index into the catalog, assigned by ProductRegistry
 	
 	public Product(String s, ProductType t, boolean u, BigDecimal p) {
 		this.name = s;
@@ -16,6 +17,14 @@ public class Product {
 		this.basePrice = p;
 	}
 	
+	public int getId() {
+		return this.id;
+	}
+	
+	void setId(int i) {
+		this.id = i;
+	}
+	
 	public String getName() {
 		return this.name;
 	}
@@ -0,0 +1,58 @@
+package classes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/*Every product in the catalog, by id and by name. Products get their ids here, in
+ *the order they're added, so an id is always the product's position in getProducts()
+ *and everything else (prices, inventories, carts, lists) can be an array indexed by
+ *it. Names are only for turning what a person or a file typed into an id, once.
+ *
+ *Filled in by whoever loads the catalog and only read after that, so it can be shared
+ *between threads once it's built.*/
+public class ProductRegistry {
+	private ArrayList<Product> products;
+	private HashMap<String, Product> byName;
+	
+	public ProductRegistry() {
+		this(16);
+	}
+	
+	public ProductRegistry(int expected) {
+		this.products = new ArrayList<Product>(expected);
+		this.byName = new HashMap<String, Product>(Math.max(16, expected * 4 / 3 + 1));
+	}
+	
+	/*Give the product the next id - throws IllegalArgumentException if there's already
+	 *a product with its name*/
+	public int add(Product p) {
+		if (this.byName.put(p.getName(), p) != null) {
+			throw new IllegalArgumentException("duplicate product " + p.getName());
+		}
+		p.setId(this.products.size());
+		this.products.add(p);
+		return p.getId();
+	}
+	
+	public Product get(int id) {
+		return this.products.get(id);
+	}
+	
+	/*Null if there's no product by that name*/
+	public Product get(String name) {
+		return this.byName.get(name);
+	}
+	
+	public boolean contains(int id) {
+		return id >= 0 && id < this.products.size();
+	}
+	
+	public int size() {
+		return this.products.size();
+	}
+	
+	/*In id order - not to be changed*/
+	public ArrayList<Product> getProducts() {
+		return this.products;
+	}
+}
@@ -0,0 +1,565 @@
+package classes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/*Finds products by name as the user types. Names are split into lowercase words
+ *(letters and digits - "Milk (.5%)" is "milk" and "5"), and a query matches a product
+ *when every word of the query starts a word of the name, in any order. The last word
+ *of the query is usually still being typed, so that's all a query ever asks of it.
+ *
+ *Two indexes make that fast enough to run on every keystroke with hundreds of
+ *thousands of products:
+ *
+ *  - a prefix trie over the distinct words of all names. Words are sorted and the
+ *    products of each word are stored in word order, so every trie node covers a
+ *    contiguous run of words, and the products with a word starting with some prefix
+ *    are one contiguous slice. Only the smallest such slice among the query's words is
+ *    looked through; the other words are checked against the product's own words.
+ *  - a trigram index (every run of three characters of " word ", so word boundaries
+ *    count) for typos. The products sharing the most trigrams with the query, plus
+ *    those with a word close to the query's longest word (a bounded edit-distance walk
+ *    of the trie, for short words whose typo leaves no trigram intact), are checked
+ *    with an edit distance (transpositions count as one edit) against each query word,
+ *    allowing 1 edit for words of 3 or 4 letters, 2 up to 8 and 3 past that. That's
+ *    what finds "Chips" for "chisps", "Water" for "wtaer", and "Crisps" and "Chips"
+ *    for each other.
+ *
+ *Results come ranked: prefix matches first (more whole-word matches, then shorter
+ *names, then catalog order), then typo matches (fewer edits, then more shared
+ *trigrams). Searches share scratch space, so they're synchronized.*/
+public class ProductSearchIndex {
+	private static final int fuzzyCandidates = 256; // products checked by edit distance per search
+	private static final int maxEdits = 3;
+	
+	private final int productCount;
+	
+	/*Distinct words, sorted, and the products of each, in word order*/
+	private String[] words;
+	private int[] wordStart; // products of word w are wordProducts[wordStart[w] .. wordStart[w + 1])
+	private int[] wordProducts;
+	
+	/*Each product's words, as indexes into words*/
+	private int[] productWordStart;
+	private int[] productWords;
+	private int[] nameLength;
+	
+	/*Trie over words - node 0 is the root. Children are linked through sibling, in
+	 *character order; each node covers words [low, high).*/
+	private int[] child;
+	private int[] sibling;
+	private char[] edge;
+	private int[] low;
+	private int[] high;
+	private int nodeCount;
+	
+	/*Trigrams - products with trigram t are trigramProducts[trigramStart[t] .. trigramStart[t + 1])*/
+	private HashMap<Long, Integer> trigramIds = new HashMap<Long, Integer>();
+	private int[] trigramStart;
+	private int[] trigramProducts;
+	
+	/*Scratch for searches, by product*/
+	private int[] hits;
+	private int[] checked; // search number a product was last looked at for a prefix match, negated if it matched
+	private int[] counted; // search number a product's hits were last counted in
+	private int[] candidate; // search number a product was last picked to check for typos in
+	private int[] touched;
+	private int searchNumber = 0;
+	
+	public ProductSearchIndex(ArrayList<Product> products) {
+		this.productCount = products.size();
+		this.nameLength = new int[this.productCount];
+		
+		/*Every (word, product) pair, and the distinct words*/
+		ArrayList<String[]> split = new ArrayList<String[]>(this.productCount);
+		HashMap<String, Integer> wordIds = new HashMap<String, Integer>();
+		int pairs = 0;
+		for (int p = 0; p < this.productCount; p++) {
+			String[] w = splitWords(products.get(p).getName());
+			split.add(w);
+			pairs += w.length;
+			this.nameLength[p] = products.get(p).getName().length();
+			for (String s : w) {
+				if (!wordIds.containsKey(s)) {
+					wordIds.put(s, wordIds.size());
+				}
+			}
+		}
+		this.words = wordIds.keySet().toArray(new String[0]);
+		Arrays.sort(this.words);
+		for (int w = 0; w < this.words.length; w++) {
+			wordIds.put(this.words[w], w);
+		}
+		
+		/*Products by word, and words by product*/
+		this.wordStart = new int[this.words.length + 1];
+		this.productWordStart = new int[this.productCount + 1];
+		this.productWords = new int[pairs];
+		int at = 0;
+		for (int p = 0; p < this.productCount; p++) {
+			this.productWordStart[p] = at;
+			for (String s : split.get(p)) {
+				int w = wordIds.get(s);
+				this.productWords[at++] = w;
+				this.wordStart[w + 1]++;
+			}
+		}
+		this.productWordStart[this.productCount] = at;
+		for (int w = 0; w < this.words.length; w++) {
+			this.wordStart[w + 1] += this.wordStart[w];
+		}
+		this.wordProducts = new int[pairs];
+		int[] fill = Arrays.copyOf(this.wordStart, this.words.length);
+		for (int p = 0; p < this.productCount; p++) {
+			for (int i = this.productWordStart[p]; i < this.productWordStart[p + 1]; i++) {
+				this.wordProducts[fill[this.productWords[i]]++] = p;
+			}
+		}
+		
+		this.buildTrie();
+		this.buildTrigrams(split);
+		
+		this.hits = new int[this.productCount];
+		this.checked = new int[this.productCount];
+		this.counted = new int[this.productCount];
+		this.candidate = new int[this.productCount];
+		this.touched = new int[this.productCount];
+	}
+	
+	/*Words go in sorted, so a node's child for a character is either its last child or
+	 *a new one, and every node's words are a contiguous run*/
+	private void buildTrie() {
+		int capacity = 1;
+		for (String w : this.words) {
+			capacity += w.length();
+		}
+		this.child = new int[capacity];
+		this.sibling = new int[capacity];
+		this.edge = new char[capacity];
+		this.low = new int[capacity];
+		this.high = new int[capacity];
+		int[] lastChild = new int[capacity];
+		this.nodeCount = 1;
+		this.low[0] = 0;
+		this.high[0] = this.words.length;
+		for (int w = 0; w < this.words.length; w++) {
+			String word = this.words[w];
+			int node = 0;
+			for (int i = 0; i < word.length(); i++) {
+				char c = word.charAt(i);
+				int last = this.child[node] == 0 ? 0 : lastChild[node];
+				int next;
+				if (last != 0 && this.edge[last] == c) {
+					next = last;
+				} else {
+					next = this.nodeCount++;
+					this.edge[next] = c;
+					this.low[next] = w;
+					if (last == 0) {
+						this.child[node] = next;
+					} else {
+						this.sibling[last] = next;
+					}
+					lastChild[node] = next;
+				}
+				this.high[next] = w + 1;
+				node = next;
+			}
+		}
+	}
+	
+	private void buildTrigrams(ArrayList<String[]> split) {
+		/*Count first, then fill - a product's trigrams are only counted once*/
+		ArrayList<long[]> perProduct = new ArrayList<long[]>(this.productCount);
+		ArrayList<Integer> counts = new ArrayList<Integer>();
+		for (int p = 0; p < this.productCount; p++) {
+			long[] grams = trigrams(split.get(p), false);
+			perProduct.add(grams);
+			for (long g : grams) {
+				Integer id = this.trigramIds.get(g);
+				if (id == null) {
+					this.trigramIds.put(g, counts.size());
+					counts.add(1);
+				} else {
+					counts.set(id, counts.get(id) + 1);
+				}
+			}
+		}
+		this.trigramStart = new int[counts.size() + 1];
+		for (int t = 0; t < counts.size(); t++) {
+			this.trigramStart[t + 1] = this.trigramStart[t] + counts.get(t);
+		}
+		this.trigramProducts = new int[this.trigramStart[counts.size()]];
+		int[] fill = Arrays.copyOf(this.trigramStart, counts.size());
+		for (int p = 0; p < this.productCount; p++) {
+			for (long g : perProduct.get(p)) {
+				this.trigramProducts[fill[this.trigramIds.get(g)]++] = p;
+			}
+		}
+	}
+	
+	/*Up to limit product ids for the query, best first - none for a blank query*/
+	public synchronized int[] search(String query, int limit) {
+		String[] tokens = splitWords(query);
+		if (tokens.length == 0 || limit <= 0) {
+			return new int[0];
+		}
+		this.searchNumber++;
+		if (this.searchNumber == Integer.MAX_VALUE) {
+			Arrays.fill(this.checked, 0);
+			Arrays.fill(this.counted, 0);
+			Arrays.fill(this.candidate, 0);
+			this.searchNumber = 1;
+		}
+		long[] best = new long[limit]; // max-heap of ranking keys, lower is better
+		int found = 0;
+		
+		/*Prefix matches - through the smallest slice of products among the tokens, word
+		 *by word. A token that's a whole word sorts before the words it starts, so a
+		 *product is always first met through its best word for that token.*/
+		int narrowest = -1;
+		int firstWord = 0;
+		int lastWord = 0;
+		for (int t = 0; t < tokens.length; t++) {
+			int node = this.find(tokens[t]);
+			int a = node == -1 ? 0 : this.low[node];
+			int b = node == -1 ? 0 : this.high[node];
+			if (narrowest == -1 || this.wordStart[b] - this.wordStart[a] < this.wordStart[lastWord] - this.wordStart[firstWord]) {
+				narrowest = t;
+				firstWord = a;
+				lastWord = b;
+			}
+		}
+		for (int w = firstWord; w < lastWord; w++) {
+			int wordWhole = this.words[w].length() == tokens[narrowest].length() ? 1 : 0;
+			for (int i = this.wordStart[w]; i < this.wordStart[w + 1]; i++) {
+				int p = this.wordProducts[i];
+				if (Math.abs(this.checked[p]) == this.searchNumber) {
+					continue; // more than one of its words starts with the token
+				}
+				this.checked[p] = this.searchNumber;
+				int whole = wordWhole;
+				boolean all = true;
+				for (int t = 0; t < tokens.length && all; t++) {
+					if (t != narrowest) {
+						int match = this.wordMatch(p, tokens[t]);
+						all = match > 0;
+						whole += match == 2 ? 1 : 0;
+					}
+				}
+				if (all) {
+					this.checked[p] = -this.searchNumber;
+					long key = ((long)Math.min(tokens.length - whole, 255) << 54) | ((long)Math.min(this.nameLength[p], (1 << 22) - 1) << 32) | p;
+					found = offer(best, found, key);
+				}
+			}
+		}
+		
+		/*Typo matches, below every prefix match*/
+		int letters = 0;
+		for (String t : tokens) {
+			letters += t.length();
+		}
+		if (found < limit && letters >= 3) {
+			found = this.fuzzy(tokens, best, found);
+		}
+		
+		long[] sorted = Arrays.copyOf(best, found);
+		Arrays.sort(sorted);
+		int[] result = new int[found];
+		for (int i = 0; i < found; i++) {
+			result[i] = (int)sorted[i];
+		}
+		return result;
+	}
+	
+	/*The trie node for a prefix, or -1 if no word starts with it*/
+	private int find(String prefix) {
+		int node = 0;
+		for (int i = 0; i < prefix.length() && node != -1; i++) {
+			char c = prefix.charAt(i);
+			int n = this.child[node];
+			while (n != 0 && this.edge[n] < c) {
+				n = this.sibling[n];
+			}
+			node = n != 0 && this.edge[n] == c ? n : -1;
+		}
+		return node;
+	}
+	
+	/*2 if one of the product's words is the token, 1 if one starts with it, 0 if not*/
+	private int wordMatch(int p, String token) {
+		int match = 0;
+		for (int i = this.productWordStart[p]; i < this.productWordStart[p + 1]; i++) {
+			String w = this.words[this.productWords[i]];
+			if (w.startsWith(token)) {
+				if (w.length() == token.length()) {
+					return 2;
+				}
+				match = 1;
+			}
+		}
+		return match;
+	}
+	
+	private int fuzzy(String[] tokens, long[] best, int found) {
+		long[] grams = trigrams(tokens, true);
+		int touchedCount = 0;
+		for (long g : grams) {
+			Integer t = this.trigramIds.get(g);
+			if (t == null) {
+				continue;
+			}
+			for (int i = this.trigramStart[t]; i < this.trigramStart[t + 1]; i++) {
+				int p = this.trigramProducts[i];
+				if (this.checked[p] == -this.searchNumber) {
+					continue; // already a prefix match
+				}
+				if (this.counted[p] != this.searchNumber) {
+					this.counted[p] = this.searchNumber;
+					this.hits[p] = 0;
+					this.touched[touchedCount++] = p;
+				}
+				this.hits[p]++;
+			}
+		}
+		
+		/*Candidates: the products sharing the most trigrams with the query...*/
+		int needed = Math.max(1, grams.length / 3);
+		long[] heap = new long[fuzzyCandidates];
+		int count = 0;
+		for (int i = 0; i < touchedCount; i++) {
+			int p = this.touched[i];
+			if (this.hits[p] >= needed) {
+				count = offer(heap, count, ((long)Math.min(grams.length - this.hits[p], 65535) << 32) | p);
+			}
+		}
+		int[] candidates = new int[fuzzyCandidates * 2];
+		for (int c = 0; c < count; c++) {
+			candidates[c] = (int)heap[c];
+			this.candidate[candidates[c]] = this.searchNumber;
+		}
+		
+		/*...and products with a word within reach of the longest token, found by walking
+		 *the trie - short words with a typo near the start ("wtaer") share no trigrams*/
+		int anchor = 0;
+		for (int t = 1; t < tokens.length; t++) {
+			if (tokens[t].length() > tokens[anchor].length()) {
+				anchor = t;
+			}
+		}
+		int allowed = allowedEdits(tokens[anchor]);
+		if (allowed > 0) {
+			ArrayList<Integer> ranges = new ArrayList<Integer>();
+			String token = tokens[anchor];
+			int[][] rows = new int[token.length() + allowed + 2][token.length() + 1];
+			for (int i = 0; i <= token.length(); i++) {
+				rows[0][i] = i;
+			}
+			this.walk(0, 0, new char[rows.length], rows, token, anchor == tokens.length - 1, allowed, ranges);
+			for (int r = 0; r < ranges.size() && count < candidates.length; r += 2) {
+				for (int i = this.wordStart[ranges.get(r)]; i < this.wordStart[ranges.get(r + 1)] && count < candidates.length; i++) {
+					int p = this.wordProducts[i];
+					if (this.checked[p] != -this.searchNumber && this.candidate[p] != this.searchNumber) {
+						this.candidate[p] = this.searchNumber;
+						candidates[count++] = p;
+					}
+				}
+			}
+		}
+		
+		/*Then how many edits away each token is from its closest word*/
+		for (int c = 0; c < count; c++) {
+			int p = candidates[c];
+			int edits = 0;
+			for (int t = 0; t < tokens.length; t++) {
+				int limit = allowedEdits(tokens[t]);
+				int closest = limit + 1;
+				boolean last = t == tokens.length - 1;
+				for (int i = this.productWordStart[p]; i < this.productWordStart[p + 1] && closest > 0; i++) {
+					closest = Math.min(closest, editDistance(tokens[t], this.words[this.productWords[i]], last, limit));
+				}
+				if (closest > limit) {
+					edits = -1;
+					break;
+				}
+				edits += closest;
+			}
+			if (edits != -1) {
+				int shared = this.counted[p] == this.searchNumber ? this.hits[p] : 0;
+				long key = (1L << 62) | ((long)Math.min(edits, 16383) << 48) | ((long)Math.min(grams.length - shared, 65535) << 32) | p;
+				found = offer(best, found, key);
+			}
+		}
+		return found;
+	}
+	
+	/*Depth-first through the trie below node, keeping the edit-distance row of the token
+	 *against the word so far (rows[depth], with the characters in path), and skipping
+	 *any branch already past allowed. Adds [low, high) word ranges to out: for a prefix
+	 *token, every word under the first node within reach; otherwise single words.*/
+	private void walk(int node, int depth, char[] path, int[][] rows, String token, boolean prefix, int allowed, ArrayList<Integer> out) {
+		int m = token.length();
+		if (depth + 1 >= rows.length) {
+			return;
+		}
+		int[] prev = rows[depth];
+		int[] row = rows[depth + 1];
+		for (int n = this.child[node]; n != 0; n = this.sibling[n]) {
+			char c = this.edge[n];
+			path[depth] = c;
+			row[0] = depth + 1;
+			int rowMin = row[0];
+			for (int i = 1; i <= m; i++) {
+				int cost = token.charAt(i - 1) == c ? 0 : 1;
+				int d = Math.min(Math.min(prev[i] + 1, row[i - 1] + 1), prev[i - 1] + cost);
+				if (depth > 0 && i > 1 && token.charAt(i - 1) == path[depth - 1] && token.charAt(i - 2) == c) {
+					d = Math.min(d, rows[depth - 1][i - 2] + 1);
+				}
+				row[i] = d;
+				rowMin = Math.min(rowMin, d);
+			}
+			if (rowMin > allowed) {
+				continue;
+			}
+			if (prefix && row[m] <= allowed) {
+				out.add(this.low[n]);
+				out.add(this.high[n]);
+				continue;
+			}
+			if (!prefix && row[m] <= allowed && this.words[this.low[n]].length() == depth + 1) {
+				out.add(this.low[n]);
+				out.add(this.low[n] + 1);
+			}
+			this.walk(n, depth + 1, path, rows, token, prefix, allowed, out);
+		}
+	}
+	
+	private static int allowedEdits(String token) {
+		if (token.length() < 3) {
+			return 0;
+		} else if (token.length() <= 4) {
+			return 1;
+		} else if (token.length() <= 8) {
+			return 2;
+		}
+		return maxEdits;
+	}
+	
+	/*Edits (insert, delete, substitute, swap two neighbours) from token to word - or to
+	 *the closest start of word, if prefix - stopping early once it's past limit*/
+	private static int editDistance(String token, String word, boolean prefix, int limit) {
+		int m = token.length();
+		int n = word.length();
+		if (!prefix && Math.abs(m - n) > limit) {
+			return limit + 1;
+		}
+		int[] prev2 = new int[n + 1];
+		int[] prev = new int[n + 1];
+		int[] row = new int[n + 1];
+		for (int j = 0; j <= n; j++) {
+			prev[j] = j;
+		}
+		for (int i = 1; i <= m; i++) {
+			row[0] = i;
+			int rowMin = row[0];
+			for (int j = 1; j <= n; j++) {
+				int cost = token.charAt(i - 1) == word.charAt(j - 1) ? 0 : 1;
+				int d = Math.min(Math.min(prev[j] + 1, row[j - 1] + 1), prev[j - 1] + cost);
+				if (i > 1 && j > 1 && token.charAt(i - 1) == word.charAt(j - 2) && token.charAt(i - 2) == word.charAt(j - 1)) {
+					d = Math.min(d, prev2[j - 2] + 1);
+				}
+				row[j] = d;
+				rowMin = Math.min(rowMin, d);
+			}
+			if (rowMin > limit) {
+				return limit + 1;
+			}
+			int[] tmp = prev2;
+			prev2 = prev;
+			prev = row;
+			row = tmp;
+		}
+		if (!prefix) {
+			return prev[n];
+		}
+		int closest = prev[0];
+		for (int j = 1; j <= n; j++) {
+			closest = Math.min(closest, prev[j]);
+		}
+		return closest;
+	}
+	
+	/*Add a key to a max-heap of the lowest keys, holding at most heap.length*/
+	private static int offer(long[] heap, int size, long key) {
+		if (size < heap.length) {
+			int i = size++;
+			heap[i] = key;
+			while (i > 0 && heap[(i - 1) / 2] < heap[i]) {
+				long tmp = heap[i];
+				heap[i] = heap[(i - 1) / 2];
+				heap[(i - 1) / 2] = tmp;
+				i = (i - 1) / 2;
+			}
+		} else if (key < heap[0]) {
+			heap[0] = key;
+			int i = 0;
+			while (true) {
+				int l = 2 * i + 1;
+				int r = l + 1;
+				int largest = i;
+				if (l < size && heap[l] > heap[largest]) {
+					largest = l;
+				}
+				if (r < size && heap[r] > heap[largest]) {
+					largest = r;
+				}
+				if (largest == i) {
+					break;
+				}
+				long tmp = heap[i];
+				heap[i] = heap[largest];
+				heap[largest] = tmp;
+				i = largest;
+			}
+		}
+		return size;
+	}
+	
+	/*Lowercase runs of letters and digits*/
+	private static String[] splitWords(String s) {
+		ArrayList<String> words = new ArrayList<String>();
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i <= s.length(); i++) {
+			char c = i < s.length() ? s.charAt(i) : ' ';
+			if (Character.isLetterOrDigit(c)) {
+				sb.append(Character.toLowerCase(c));
+			} else if (sb.length() > 0) {
+				words.add(sb.toString());
+				sb.setLength(0);
+			}
+		}
+		return words.toArray(new String[0]);
+	}
+	
+	/*Distinct trigrams of " word " for every word, three chars packed into a long. The
+	 *last word of a query can still grow, so it gets no closing space.*/
+	private static long[] trigrams(String[] words, boolean query) {
+		ArrayList<Long> grams = new ArrayList<Long>();
+		for (int w = 0; w < words.length; w++) {
+			String padded = " " + words[w] + (query && w == words.length - 1 ? "" : " ");
+			for (int i = 0; i + 3 <= padded.length(); i++) {
+				long g = ((long)padded.charAt(i) << 32) | ((long)padded.charAt(i + 1) << 16) | padded.charAt(i + 2);
+				if (!grams.contains(g)) {
+					grams.add(g);
+				}
+			}
+		}
+		long[] result = new long[grams.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = grams.get(i);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,86 @@
+package classes;
+
+/*One answer from PriceComparisonEngine: a cart compared at every store, from one user
+ *location, against one pricing snapshot. Nothing in a quote changes after it's made, so
+ *it can be passed between threads freely.*/
+public final class Quote {
+	private final PricingSnapshot pricing;
+	private final InventoryBitmap cart; // distinct product ids - never modified
+	private final CartTotals totals; // never modified
+	private final int userX;
+	private final int userY;
+	private final int[] distances; // in feet, by store id
+	private final Store closest;
+	private final Store cheapest;
+	
+	Quote(PricingSnapshot p, InventoryBitmap c, CartTotals t, int x, int y, int[] d, Store cl, Store ch) {
+		this.pricing = p;
+		this.cart = c;
+		this.totals = t;
+		this.userX = x;
+		this.userY = y;
+		this.distances = d;
+		this.closest = cl;
+		this.cheapest = ch;
+	}
+	
+	/*The prices and availability the quote was worked out from*/
+	public PricingSnapshot getPricing() {
+		return this.pricing;
+	}
+	
+	public int getUserX() {
+		return this.userX;
+	}
+	
+	public int getUserY() {
+		return this.userY;
+	}
+	
+	/*Number of items in the cart, counting quantities*/
+	public long getItemCount() {
+		return this.totals.getItemCount();
+	}
+	
+	/*What the items the store carries cost there, in cents*/
+	public long getTotal(Store s) {
+		return this.totals.getTotal(s);
+	}
+	
+	/*Cart items the store doesn't carry, counting quantities*/
+	public long getMissingCount(Store s) {
+		return this.totals.getMissingCount(s);
+	}
+	
+	/*Ids of the cart products the store doesn't carry, in catalog order*/
+	public int[] getMissingItems(Store s) {
+		if (this.totals.getMissingCount(s) == 0) {
+			return new int[0];
+		}
+		return this.cart.andNot(this.pricing.getInventory(s)).toArray();
+	}
+	
+	/*Distance from the user to the store, in feet*/
+	public int getDistance(Store s) {
+		return this.distances[s.getId()];
+	}
+	
+	/*null only if there are no stores*/
+	public Store getClosest() {
+		return this.closest;
+	}
+	
+	/*Store with the lowest total, or null if the cart is empty or nothing in it is
+	 *stocked anywhere*/
+	public Store getCheapest() {
+		return this.cheapest;
+	}
+	
+	InventoryBitmap getCart() {
+		return this.cart;
+	}
+	
+	CartTotals getTotals() {
+		return this.totals;
+	}
+}
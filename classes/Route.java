@@ -0,0 +1,55 @@
+package classes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*A round trip from the user's location through some stores and back (see
+ *RoutePlanner). Never changes once made.*/
+public final class Route {
+	private final int userX;
+	private final int userY;
+	private final Store[] stops; // in the order they're visited
+	private final int lengthFeet;
+	private final boolean optimal;
+	
+	Route(int x, int y, Store[] s, int length, boolean o) {
+		this.userX = x;
+		this.userY = y;
+		this.stops = s;
+		this.lengthFeet = length;
+		this.optimal = o;
+	}
+	
+	/*Where the trip starts and ends, in pixels*/
+	public int getUserX() {
+		return this.userX;
+	}
+	
+	public int getUserY() {
+		return this.userY;
+	}
+	
+	/*The stores in the order they're visited*/
+	public ArrayList<Store> getStops() {
+		return new ArrayList<Store>(Arrays.asList(this.stops));
+	}
+	
+	public int getStopCount() {
+		return this.stops.length;
+	}
+	
+	public Store getStop(int i) {
+		return this.stops[i];
+	}
+	
+	/*The whole trip, back to the start included*/
+	public int getLengthFeet() {
+		return this.lengthFeet;
+	}
+	
+	/*False if the route came from the heuristic (more than RoutePlanner's exact limit
+	 *of stops) - it's then short, but not necessarily the shortest*/
+	public boolean isOptimal() {
+		return this.optimal;
+	}
+}
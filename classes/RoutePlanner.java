@@ -0,0 +1,274 @@
+package classes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*Plans the shortest round trip from the user's location through a set of stores and
+ *back. Up to maxExactStops stops the answer is exact (Held-Karp: for every subset of
+ *stops and every stop it could start and end at, the shortest path through that
+ *subset - 2^n * n^3 steps, a few milliseconds at 12, once per set of stops). Past that, a tour is built
+ *nearest-neighbour first and then improved with 2-opt (reversing a stretch of it) and
+ *Or-opt (moving a run of up to three stops elsewhere, either way round) until neither
+ *finds anything shorter.
+ *
+ *Meant to be called again on every step of a drag: distances come from a
+ *DistanceMatrix that only works out what's changed, the Held-Karp paths between stores
+ *are kept while the stops stay the same, and the heuristic starts from the last tour when the stops are the
+ *same, so it usually only has to confirm it. Asking again with nothing changed just
+ *returns the last route. Not thread-safe - one planner per thread.*/
+public class RoutePlanner {
+	public static final int maxExactStops = 12;
+	private static final int maxPasses = 50; // improvement passes per call, for huge stop counts
+	
+	private final DistanceMatrix matrix;
+	private int[] best = new int[0]; // Held-Karp scratch: [subset * n + last], shortest path from the start
+	private int[] paths = null; // [a * n + b], shortest path from stop a through every stop to b
+	private byte[][] prev = null; // [a][subset * n + last], the stop before last on that path
+	private int[] tour = null; // last heuristic tour, matrix indices, user first
+	private Route last = null;
+	
+	public RoutePlanner(int feetPerPixel) {
+		this.matrix = new DistanceMatrix(feetPerPixel);
+	}
+	
+	/*The shortest (or for many stops, a short) round trip from userX, userY (in pixels)
+	 *through every one of the stops*/
+	public Route plan(int userX, int userY, ArrayList<Store> stops) {
+		boolean moved = this.matrix.setOrigin(userX, userY);
+		boolean changed = this.matrix.setStops(stops);
+		if (!moved && !changed && this.last != null) {
+			return this.last;
+		}
+		if (changed) {
+			this.tour = null;
+			this.paths = null;
+		}
+		int n = stops.size();
+		int[] order;
+		if (n <= maxExactStops) {
+			order = this.exact(n);
+		} else {
+			if (this.tour == null) {
+				this.tour = this.nearestNeighbour(n);
+			}
+			this.improve(this.tour);
+			order = this.tour;
+		}
+		Store[] visits = new Store[n];
+		for (int i = 0; i < n; i++) {
+			visits[i] = this.matrix.getStop(order[i + 1]);
+		}
+		this.last = new Route(userX, userY, visits, this.length(order), n <= maxExactStops);
+		return this.last;
+	}
+	
+	private int length(int[] t) {
+		int total = 0;
+		for (int i = 0; i < t.length; i++) {
+			total += this.matrix.get(t[i], t[(i + 1) % t.length]);
+		}
+		return total;
+	}
+	
+	/*Held-Karp, split so a drag doesn't have to redo it: only the legs to and from the
+	 *user depend on where the user is, so for every pair of stops a and b the shortest
+	 *path from a through all the other stops to b is worked out once per set of stops,
+	 *and each call just picks the a and b that make the round trip shortest (n^2 steps).
+	 *Stop j (0-based) is matrix index j + 1. Returns the tour as matrix indices, user
+	 *first.*/
+	private int[] exact(int n) {
+		int[] t = new int[n + 1];
+		if (n == 0) {
+			return t;
+		}
+		if (this.paths == null) {
+			this.findPaths(n);
+		}
+		int bestA = 0;
+		int bestB = 0;
+		long shortest = Long.MAX_VALUE;
+		for (int a = 0; a < n; a++) {
+			for (int b = 0; b < n; b++) {
+				if (a == b && n > 1) {
+					continue;
+				}
+				long d = (long)this.matrix.get(0, a + 1) + this.paths[a * n + b] + this.matrix.get(b + 1, 0);
+				if (d < shortest) {
+					shortest = d;
+					bestA = a;
+					bestB = b;
+				}
+			}
+		}
+		byte[] before = this.prev[bestA];
+		int set = (1 << n) - 1;
+		int end = bestB;
+		for (int i = n; i >= 1; i--) {
+			t[i] = end + 1;
+			int p = before[set * n + end];
+			set &= ~(1 << end);
+			end = p;
+		}
+		return t;
+	}
+	
+	/*For every start a: the shortest path from a through each subset of stops (that
+	 *includes a) ending at each stop in it, and the stop before that end*/
+	private void findPaths(int n) {
+		int subsets = 1 << n;
+		int all = subsets - 1;
+		if (this.best.length < subsets * n) {
+			this.best = new int[subsets * n];
+		}
+		int[] dp = this.best;
+		this.paths = new int[n * n];
+		this.prev = new byte[n][subsets * n];
+		for (int a = 0; a < n; a++) {
+			byte[] before = this.prev[a];
+			Arrays.fill(dp, 0, subsets * n, Integer.MAX_VALUE);
+			dp[(1 << a) * n + a] = 0;
+			before[(1 << a) * n + a] = -1;
+			for (int set = 1 << a; set < subsets; set++) {
+				if ((set & (1 << a)) == 0) {
+					continue;
+				}
+				for (int j = 0; j < n; j++) {
+					int here = dp[set * n + j];
+					if (here == Integer.MAX_VALUE) {
+						continue;
+					}
+					for (int k = 0; k < n; k++) {
+						if ((set & (1 << k)) != 0) {
+							continue;
+						}
+						int to = (set | (1 << k)) * n + k;
+						int d = here + this.matrix.get(j + 1, k + 1);
+						if (d < dp[to]) {
+							dp[to] = d;
+							before[to] = (byte)j;
+						}
+					}
+				}
+			}
+			for (int b = 0; b < n; b++) {
+				this.paths[a * n + b] = dp[all * n + b];
+			}
+		}
+	}
+	
+	/*Always go to the closest stop not yet visited*/
+	private int[] nearestNeighbour(int n) {
+		int[] t = new int[n + 1];
+		boolean[] visited = new boolean[n + 1];
+		int at = 0;
+		for (int i = 1; i <= n; i++) {
+			int next = -1;
+			for (int j = 1; j <= n; j++) {
+				if (!visited[j] && (next == -1 || this.matrix.get(at, j) < this.matrix.get(at, next))) {
+					next = j;
+				}
+			}
+			visited[next] = true;
+			t[i] = next;
+			at = next;
+		}
+		return t;
+	}
+	
+	/*2-opt and Or-opt until neither helps (or maxPasses). The user stays at t[0].*/
+	private void improve(int[] t) {
+		for (int pass = 0; pass < maxPasses; pass++) {
+			boolean better = this.twoOpt(t);
+			better |= this.orOpt(t);
+			if (!better) {
+				return;
+			}
+		}
+	}
+	
+	/*Replace edges a-b and c-d with a-c and b-d, reversing b..c, wherever that's
+	 *shorter*/
+	private boolean twoOpt(int[] t) {
+		int size = t.length;
+		boolean better = false;
+		for (int i = 0; i < size - 2; i++) {
+			int a = t[i];
+			int b = t[i + 1];
+			for (int j = i + 2; j < size; j++) {
+				if (i == 0 && j == size - 1) {
+					continue; // the two edges share the user
+				}
+				int c = t[j];
+				int d = t[(j + 1) % size];
+				int delta = this.matrix.get(a, c) + this.matrix.get(b, d) - this.matrix.get(a, b) - this.matrix.get(c, d);
+				if (delta < 0) {
+					for (int lo = i + 1, hi = j; lo < hi; lo++, hi--) {
+						int tmp = t[lo];
+						t[lo] = t[hi];
+						t[hi] = tmp;
+					}
+					b = t[i + 1];
+					better = true;
+				}
+			}
+		}
+		return better;
+	}
+	
+	/*Take out a run of 1 to 3 stops and put it back between two other neighbours,
+	 *forwards or backwards, wherever that's shorter*/
+	private boolean orOpt(int[] t) {
+		int size = t.length;
+		boolean better = false;
+		int[] scratch = new int[size];
+		for (int len = 1; len <= 3; len++) {
+			for (int i = 1; i + len <= size; i++) {
+				int first = t[i];
+				int lastStop = t[i + len - 1];
+				int p = t[i - 1];
+				int q = t[(i + len) % size];
+				int saved = this.matrix.get(p, first) + this.matrix.get(lastStop, q) - this.matrix.get(p, q);
+				int bestGain = 0;
+				int bestAt = -1;
+				boolean bestReversed = false;
+				for (int k = 0; k < size; k++) {
+					if (k >= i - 1 && k <= i + len - 1) {
+						continue; // edges touching the run
+					}
+					int a = t[k];
+					int b = t[(k + 1) % size];
+					int forward = this.matrix.get(a, first) + this.matrix.get(lastStop, b) - this.matrix.get(a, b);
+					int backward = this.matrix.get(a, lastStop) + this.matrix.get(first, b) - this.matrix.get(a, b);
+					if (saved - forward > bestGain) {
+						bestGain = saved - forward;
+						bestAt = k;
+						bestReversed = false;
+					}
+					if (saved - backward > bestGain) {
+						bestGain = saved - backward;
+						bestAt = k;
+						bestReversed = true;
+					}
+				}
+				if (bestAt != -1) {
+					/*Rebuild the tour with the run after position bestAt*/
+					int m = 0;
+					for (int k = 0; k < size; k++) {
+						if (k >= i && k < i + len) {
+							continue;
+						}
+						scratch[m++] = t[k];
+						if (k == bestAt) {
+							for (int r = 0; r < len; r++) {
+								scratch[m++] = t[bestReversed ? i + len - 1 - r : i + r];
+							}
+						}
+					}
+					System.arraycopy(scratch, 0, t, 0, size);
+					better = true;
+				}
+			}
+		}
+		return better;
+	}
+}
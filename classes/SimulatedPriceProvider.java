@@ -0,0 +1,115 @@
+package classes;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*A stand-in for a chain's price API, for trying out PriceFetchCoordinator without one.
+ *Answers come from the catalog's own prices, drifting a few percent either way every
+ *so often, after a made-up delay - usually around latencyMillis, now and then (or
+ *always, for the slow stores) slowMillis - and fail some of the time.
+ *
+ *The no-argument constructor (the one ServiceLoader would use) reads its settings from
+ *system properties:
+ *
+ *  simprices.stores       - store names it covers, comma separated (all of them)
+ *  simprices.latency      - typical delay in milliseconds (40)
+ *  simprices.slowRate     - fraction of answers that take slowMillis instead (0.05)
+ *  simprices.slow         - that delay in milliseconds (1500)
+ *  simprices.slowStores   - stores that always take that long, comma separated (none)
+ *  simprices.failureRate  - fraction of fetches that fail (0.02)*/
+public class SimulatedPriceProvider extends PriceProvider {
+	private static final long driftMillis = 10000; // prices move this often
+	private static final double maxDrift = 0.03;
+	
+	private final String name;
+	private final HashSet<String> storeNames; // null for every store
+	private final long latencyMillis;
+	private final double slowRate;
+	private final long slowMillis;
+	private final HashSet<String> slowStores;
+	private final double failureRate;
+	private PriceMatrix prices;
+	
+	public SimulatedPriceProvider() {
+		this("simulated",
+				names(System.getProperty("simprices.stores")),
+				Long.getLong("simprices.latency", 40),
+				Double.parseDouble(System.getProperty("simprices.slowRate", "0.05")),
+				Long.getLong("simprices.slow", 1500),
+				names(System.getProperty("simprices.slowStores")),
+				Double.parseDouble(System.getProperty("simprices.failureRate", "0.02")));
+	}
+	
+	/*Null stores for all of them*/
+	public SimulatedPriceProvider(String n, String[] stores, long latency, double slowFraction, long slow, String[] alwaysSlow, double failures) {
+		this.name = n;
+		this.storeNames = stores == null ? null : new HashSet<String>(Arrays.asList(stores));
+		this.latencyMillis = latency;
+		this.slowRate = slowFraction;
+		this.slowMillis = slow;
+		this.slowStores = new HashSet<String>();
+		if (alwaysSlow != null) {
+			this.slowStores.addAll(Arrays.asList(alwaysSlow));
+		}
+		this.failureRate = failures;
+	}
+	
+	@Override
+	public String getName() {
+		return this.name;
+	}
+	
+	@Override
+	public boolean init(Catalog catalog) {
+		this.prices = catalog.getPriceMatrix();
+		return true;
+	}
+	
+	@Override
+	public boolean covers(Store s) {
+		return this.storeNames == null || this.storeNames.contains(s.getName());
+	}
+	
+	@Override
+	public long[] fetch(Store s, int[] productIds) throws Exception {
+		ThreadLocalRandom r = ThreadLocalRandom.current();
+		boolean slow = this.slowStores.contains(s.getName()) || r.nextDouble() < this.slowRate;
+		long delay = slow ? this.slowMillis : this.latencyMillis / 2 + r.nextLong(this.latencyMillis + 1);
+		Thread.sleep(delay); // lets an interrupt through, like blocking I/O should
+		if (r.nextDouble() < this.failureRate) {
+			throw new IOException(this.name + " couldn't reach " + s.getName());
+		}
+		
+		/*The same drift for everyone asking in the same period, so a hedged request
+		 *gets the same answer as the one it raced*/
+		long period = System.currentTimeMillis() / driftMillis;
+		long[] cents = new long[productIds.length];
+		for (int i = 0; i < cents.length; i++) {
+			long base = this.prices.getPrice(s.getId(), productIds[i]);
+			if (base == PriceMatrix.UNAVAILABLE) {
+				cents[i] = base;
+				continue;
+			}
+			long h = (period * 31 + s.getId()) * 1000003L + productIds[i];
+			h ^= h >>> 33;
+			h *= 0xff51afd7ed558ccdL;
+			h ^= h >>> 33;
+			double drift = ((h >>> 11) / (double)(1L << 53) * 2 - 1) * maxDrift;
+			cents[i] = Math.max(1, Math.round(base * (1 + drift)));
+		}
+		return cents;
+	}
+	
+	private static String[] names(String list) {
+		if (list == null || list.trim().isEmpty()) {
+			return null;
+		}
+		String[] names = list.split(",");
+		for (int i = 0; i < names.length; i++) {
+			names[i] = names[i].trim();
+		}
+		return names;
+	}
+}
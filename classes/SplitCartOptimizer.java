@@ -0,0 +1,408 @@
+package classes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/*Finds the cheapest way to buy a cart from up to maxStores stores. A plan costs what its
+ *items cost (each bought wherever it's cheapest among the plan's stores) plus a travel
+ *penalty for every store after the first: centsPerFoot times that store's distance from
+ *the user. The closest store in the plan is the free one, since the user is going
+ *somewhere anyway. Buying more of the cart always beats buying less, so when the whole
+ *cart can't be had from maxStores stores, the plan covers as much of it as it can and
+ *the rest is left out, like items no store has at all.
+ *
+ *The search is branch-and-bound over sets of stores, added in order of how good they are
+ *on their own. For each item, the cheapest price among the stores that are still allowed
+ *to be added is known up front (suffix minima over that order), so a branch's lower
+ *bound is the sum over items of the better of what its stores already offer and that
+ *minimum, plus its travel so far and the least one more store could add. Once that
+ *reaches the best plan found, the branch and every branch after it at the same depth
+ *are dropped - later stores only ever have fewer options. There's a second bound too:
+ *together, stores never save more than the sum of what each would save on its own, so
+ *a branch with r stores still to add can't beat its cost less the r biggest savings
+ *(net of travel) among the stores it may still add. A greedy plan is found first so
+ *there's something to prune against from the start, and plans of one store are
+ *searched, then two, and so on up to maxStores, each starting from the best of the
+ *smaller ones. Stores that carry nothing in the
+ *cart never enter the search, and a store is only added if it's cheaper for at least one
+ *item.
+ *
+ *Costs are exact longs, so a cart big enough that a plan's cost could overflow one (the
+ *cost of leaving every item out, with maxSpend and travel added up) is turned down with
+ *an IllegalArgumentException rather than planned wrong.
+ *
+ *Searches that would look at more than maxWork prices stop there and return the best
+ *plan found so far, marked as not optimal. Small store counts (or a few stores with
+ *clearly better prices) finish well inside that; hundreds of stores with prices all
+ *close together usually don't past two stores.*/
+class SplitCartOptimizer {
+	private static final long maxWork = 1 << 23; // cost cells looked at, tens of milliseconds
+	
+	private final ArrayList<Store> stores;
+	
+	/*Per search*/
+	private int n; // candidate stores
+	private int m; // distinct cart items
+	private long[][] cost; // [candidate][item], quantity included, miss if not stocked
+	private long[][] suffixMin; // [candidate][item], over candidates from there on
+	private long[] travel; // [candidate], cents
+	private long miss; // cost of leaving an item out - more than any plan that buys it
+	private long best;
+	private int[] bestSet;
+	private int bestSize;
+	private int[] set;
+	private long work;
+	private long[][] gains; // [depth][candidate], scratch for search
+	private long[][] tops; // [depth][candidate]
+	private long[][] heaps; // [depth][stores left]
+	private long[][] nexts; // [depth][item]
+	
+	SplitCartOptimizer(ArrayList<Store> s) {
+		this.stores = s;
+	}
+	
+	SplitPlan optimize(Quote q, int[] productIds, int[] quantities, int maxStores, double centsPerFoot) {
+		if (maxStores < 1) {
+			throw new IllegalArgumentException("maxStores must be at least 1, got " + maxStores);
+		}
+		if (centsPerFoot < 0) {
+			throw new IllegalArgumentException("centsPerFoot can't be negative, got " + centsPerFoot);
+		}
+		PriceMatrix prices = q.getPricing().getPrices();
+		
+		/*Distinct items with their total quantities - packed and sorted so repeats are
+		 *next to each other*/
+		long[] packed = new long[productIds.length];
+		int lines = 0;
+		for (int i = 0; i < productIds.length; i++) {
+			if (quantities[i] > 0) {
+				packed[lines++] = ((long)productIds[i] << 32) | quantities[i];
+			}
+		}
+		Arrays.sort(packed, 0, lines);
+		int[] ids = new int[lines];
+		long[] qty = new long[lines];
+		int distinct = 0;
+		for (int i = 0; i < lines; i++) {
+			int id = (int)(packed[i] >>> 32);
+			if (distinct > 0 && ids[distinct - 1] == id) {
+				qty[distinct - 1] += (int)packed[i];
+			} else {
+				ids[distinct] = id;
+				qty[distinct++] = (int)packed[i];
+			}
+		}
+		
+		/*Split off items nobody has; the rest are what the search works on*/
+		int[] items = new int[distinct];
+		long[] itemQty = new long[distinct];
+		int[] nowhere = new int[distinct];
+		int nNowhere = 0;
+		this.m = 0;
+		long maxSpend = 0;
+		for (int i = 0; i < distinct; i++) {
+			long most = -1;
+			for (int s = 0; s < this.stores.size(); s++) {
+				long p = prices.getPrice(s, ids[i]);
+				if (p != PriceMatrix.UNAVAILABLE) {
+					most = Math.max(most, p);
+				}
+			}
+			if (most == -1) {
+				nowhere[nNowhere++] = ids[i];
+			} else {
+				items[this.m] = ids[i];
+				itemQty[this.m++] = qty[i];
+				maxSpend = addCost(maxSpend, multiplyCost(most, qty[i]));
+			}
+		}
+		
+		/*Candidates - every store with at least one item - and their travel penalties*/
+		ArrayList<Store> candidates = new ArrayList<Store>();
+		ArrayList<long[]> rows = new ArrayList<long[]>();
+		long maxTravel = 0;
+		for (Store s : this.stores) {
+			long[] row = new long[this.m];
+			boolean any = false;
+			for (int i = 0; i < this.m; i++) {
+				long p = prices.getPrice(s.getId(), items[i]);
+				row[i] = p == PriceMatrix.UNAVAILABLE ? -1 : p * itemQty[i];
+				any |= p != PriceMatrix.UNAVAILABLE;
+			}
+			if (any) {
+				candidates.add(s);
+				rows.add(row);
+				maxTravel = addCost(maxTravel, Math.round(q.getDistance(s) * centsPerFoot));
+			}
+		}
+		this.n = candidates.size();
+		this.miss = addCost(addCost(maxSpend, maxTravel), 1);
+		multiplyCost(this.miss, this.m + 1); // a plan that leaves everything out, and then some
+		final long[] score = new long[this.n];
+		long[] travelById = new long[this.stores.size()];
+		for (int c = 0; c < this.n; c++) {
+			long[] row = rows.get(c);
+			for (int i = 0; i < this.m; i++) {
+				if (row[i] == -1) {
+					row[i] = this.miss;
+				}
+				score[c] += Math.min(row[i], maxSpend); // a store missing things scores badly, but not off the scale
+			}
+			travelById[candidates.get(c).getId()] = Math.round(q.getDistance(candidates.get(c)) * centsPerFoot);
+			score[c] += travelById[candidates.get(c).getId()];
+		}
+		
+		/*Best stores on their own go first*/
+		Integer[] order = new Integer[this.n];
+		for (int c = 0; c < this.n; c++) {
+			order[c] = c;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Long.compare(score[a], score[b]);
+			}
+		});
+		Store[] ordered = new Store[this.n];
+		this.cost = new long[this.n][];
+		this.travel = new long[this.n];
+		for (int c = 0; c < this.n; c++) {
+			ordered[c] = candidates.get(order[c]);
+			this.cost[c] = rows.get(order[c]);
+			this.travel[c] = travelById[ordered[c].getId()];
+		}
+		this.suffixMin = new long[this.n + 1][this.m];
+		Arrays.fill(this.suffixMin[this.n], this.miss);
+		for (int c = this.n - 1; c >= 0; c--) {
+			for (int i = 0; i < this.m; i++) {
+				this.suffixMin[c][i] = Math.min(this.cost[c][i], this.suffixMin[c + 1][i]);
+			}
+		}
+		
+		/*Search, starting from the greedy plan*/
+		int k = Math.min(maxStores, this.n);
+		long[] none = new long[this.m];
+		Arrays.fill(none, this.miss);
+		this.best = sum(none);
+		this.bestSet = new int[k];
+		this.bestSize = 0;
+		this.work = 0;
+		this.gains = new long[k][this.n];
+		this.tops = new long[k][this.n + 1];
+		this.heaps = new long[k][k];
+		this.nexts = new long[k][this.m];
+		this.greedy(k);
+		for (int size = 1; size <= k && this.work <= maxWork; size++) {
+			this.set = new int[size];
+			this.search(0, 0, none, 0, Long.MAX_VALUE);
+		}
+		boolean optimal = this.work <= maxWork;
+		
+		/*Which store each item is bought at - ties go to the closer store*/
+		ArrayList<Store> chosen = new ArrayList<Store>();
+		for (int j = 0; j < this.bestSize; j++) {
+			chosen.add(ordered[this.bestSet[j]]);
+		}
+		final Quote quote = q;
+		chosen.sort(new Comparator<Store>() {
+			@Override
+			public int compare(Store a, Store b) {
+				int c = Integer.compare(quote.getDistance(a), quote.getDistance(b));
+				return c != 0 ? c : Integer.compare(a.getId(), b.getId());
+			}
+		});
+		int[] bought = new int[this.m];
+		Store[] at = new Store[this.m];
+		int nBought = 0;
+		long itemCents = 0;
+		for (int i = 0; i < this.m; i++) {
+			Store where = null;
+			long cheapest = this.miss;
+			for (Store s : chosen) {
+				long p = prices.getPrice(s.getId(), items[i]);
+				if (p != PriceMatrix.UNAVAILABLE && p * itemQty[i] < cheapest) {
+					cheapest = p * itemQty[i];
+					where = s;
+				}
+			}
+			if (where == null) {
+				nowhere[nNowhere++] = items[i]; // would have taken more than maxStores stores
+			} else {
+				bought[nBought] = items[i];
+				at[nBought++] = where;
+				itemCents += cheapest;
+			}
+		}
+		long travelCents = 0;
+		for (int j = 1; j < chosen.size(); j++) {
+			travelCents += travelById[chosen.get(j).getId()];
+		}
+		int[] left = Arrays.copyOf(nowhere, nNowhere);
+		Arrays.sort(left);
+		this.cost = null;
+		this.suffixMin = null;
+		this.gains = null;
+		this.tops = null;
+		this.nexts = null;
+		return new SplitPlan(chosen, Arrays.copyOf(bought, nBought), Arrays.copyOf(at, nBought), left, itemCents, travelCents, optimal);
+	}
+	
+	/*Extend the plan (the first depth entries of set, with the given per-item costs and
+	 *travel) with stores from start on*/
+	private void search(int depth, int start, long[] cur, long travelSum, long minTravel) {
+		this.work += (long)(this.n - start) * this.m;
+		if (this.work > maxWork) {
+			return;
+		}
+		int left = this.set.length - depth; // stores that can still be added
+		long spent = depth == 0 ? 0 : travelSum - minTravel;
+		long leastMore = depth == 0 ? 0 : minTravel; // any added store costs at least this much travel
+		long items = sum(cur);
+		
+		/*What each store would save on its own, less its travel (which is at least its own
+		 *once there's a store in the plan), and the most the best left of them could save
+		 *together from each point on - adding stores never saves more than the stores
+		 *would on their own*/
+		long[] gain = this.gains[depth];
+		long[] top = this.tops[depth];
+		long[] heap = this.heaps[depth]; // the best left savings so far, smallest first
+		int inHeap = 0;
+		long heapSum = 0;
+		top[this.n] = 0;
+		for (int j = this.n - 1; j >= start; j--) {
+			long[] row = this.cost[j];
+			long g = 0;
+			for (int i = 0; i < this.m; i++) {
+				if (row[i] < cur[i]) {
+					g += cur[i] - row[i];
+				}
+			}
+			gain[j] = g;
+			long net = depth == 0 ? g : g - this.travel[j];
+			if (net > 0) {
+				if (inHeap < left) {
+					int at = inHeap++;
+					while (at > 0 && heap[at - 1] > net) {
+						heap[at] = heap[at - 1];
+						at--;
+					}
+					heap[at] = net;
+					heapSum += net;
+				} else if (net > heap[0]) {
+					heapSum += net - heap[0];
+					int at = 0;
+					while (at + 1 < inHeap && heap[at + 1] < net) {
+						heap[at] = heap[at + 1];
+						at++;
+					}
+					heap[at] = net;
+				}
+			}
+			top[j] = heapSum;
+		}
+		
+		long[] next = this.nexts[depth];
+		for (int j = start; j < this.n; j++) {
+			/*Both bounds only grow with j*/
+			if (items + spent - top[j] >= this.best) {
+				return;
+			}
+			long bound = spent + leastMore;
+			long[] suffix = this.suffixMin[j];
+			for (int i = 0; i < this.m && bound < this.best; i++) {
+				bound += Math.min(cur[i], suffix[i]);
+			}
+			if (bound >= this.best) {
+				return;
+			}
+			if (gain[j] == 0) {
+				continue; // only adds travel
+			}
+			long t = this.travel[j];
+			long sum = travelSum + t;
+			long min = Math.min(minTravel, t);
+			this.set[depth] = j;
+			long total = items - gain[j] + sum - min;
+			if (total < this.best) {
+				this.best = total;
+				System.arraycopy(this.set, 0, this.bestSet, 0, depth + 1);
+				this.bestSize = depth + 1;
+			}
+			if (left > 1) {
+				long[] row = this.cost[j];
+				for (int i = 0; i < this.m; i++) {
+					next[i] = Math.min(row[i], cur[i]);
+				}
+				this.search(depth + 1, j + 1, next, sum, min);
+				if (this.work > maxWork) {
+					return;
+				}
+			}
+		}
+	}
+	
+	/*Add whichever store lowers the total most, until none does or there are k*/
+	private void greedy(int k) {
+		long[] cur = new long[this.m];
+		Arrays.fill(cur, this.miss);
+		long travelSum = 0;
+		long minTravel = Long.MAX_VALUE;
+		int[] picked = new int[k];
+		boolean[] used = new boolean[this.n];
+		for (int depth = 0; depth < k; depth++) {
+			int bestJ = -1;
+			long bestTotal = Long.MAX_VALUE;
+			for (int j = 0; j < this.n; j++) {
+				if (used[j]) {
+					continue;
+				}
+				long total = travelSum + this.travel[j] - Math.min(minTravel, this.travel[j]);
+				for (int i = 0; i < this.m; i++) {
+					total += Math.min(cur[i], this.cost[j][i]);
+				}
+				if (total < bestTotal) {
+					bestTotal = total;
+					bestJ = j;
+				}
+			}
+			if (bestJ == -1 || bestTotal >= this.best) {
+				return;
+			}
+			used[bestJ] = true;
+			picked[depth] = bestJ;
+			travelSum += this.travel[bestJ];
+			minTravel = Math.min(minTravel, this.travel[bestJ]);
+			for (int i = 0; i < this.m; i++) {
+				cur[i] = Math.min(cur[i], this.cost[bestJ][i]);
+			}
+			this.best = bestTotal;
+			System.arraycopy(picked, 0, this.bestSet, 0, depth + 1);
+			this.bestSize = depth + 1;
+		}
+	}
+	
+	private static long sum(long[] a) {
+		long s = 0;
+		for (long v : a) {
+			s += v;
+		}
+		return s;
+	}
+	
+	private static long addCost(long a, long b) {
+		try {
+			return Math.addExact(a, b);
+		} catch (ArithmeticException e) {
+			throw new IllegalArgumentException("Cart is too big to plan a split for");
+		}
+	}
+	
+	private static long multiplyCost(long a, long b) {
+		try {
+			return Math.multiplyExact(a, b);
+		} catch (ArithmeticException e) {
+			throw new IllegalArgumentException("Cart is too big to plan a split for");
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package classes;
+
+import java.util.ArrayList;
+
+/*The cheapest way found to buy a cart from several stores (see SplitCartOptimizer):
+ *which stores to go to and which store to buy each product at. Items no store has at
+ *all, and items that would have taken more stores than the plan was allowed, aren't
+ *bought and are listed separately. Never changes once made.*/
+public final class SplitPlan {
+	private final ArrayList<Store> stores; // stores to visit, closest first
+	private final int[] productIds; // distinct products that can be bought
+	private final Store[] storeFor; // where to buy each of productIds
+	private final int[] unavailable; // cart products not bought, in catalog order
+	private final long itemCents;
+	private final long travelCents;
+	private final boolean optimal;
+	
+	SplitPlan(ArrayList<Store> s, int[] ids, Store[] at, int[] u, long items, long travel, boolean o) {
+		this.stores = s;
+		this.productIds = ids;
+		this.storeFor = at;
+		this.unavailable = u;
+		this.itemCents = items;
+		this.travelCents = travel;
+		this.optimal = o;
+	}
+	
+	/*Stores to go to, closest first - empty if nothing in the cart can be bought*/
+	public ArrayList<Store> getStores() {
+		return new ArrayList<Store>(this.stores);
+	}
+	
+	public int getStoreCount() {
+		return this.stores.size();
+	}
+	
+	/*Where to buy a product, or null if it isn't in the cart or no store has it*/
+	public Store getStoreFor(int productId) {
+		for (int i = 0; i < this.productIds.length; i++) {
+			if (this.productIds[i] == productId) {
+				return this.storeFor[i];
+			}
+		}
+		return null;
+	}
+	
+	/*Product ids bought at the given store, in catalog order*/
+	public int[] getItemsAt(Store s) {
+		int n = 0;
+		for (int i = 0; i < this.storeFor.length; i++) {
+			if (this.storeFor[i] == s) {
+				n++;
+			}
+		}
+		int[] result = new int[n];
+		n = 0;
+		for (int i = 0; i < this.storeFor.length; i++) {
+			if (this.storeFor[i] == s) {
+				result[n++] = this.productIds[i];
+			}
+		}
+		return result;
+	}
+	
+	/*Cart products the plan doesn't buy - no store carries them, or covering them too
+	 *would have taken more stores than allowed*/
+	public int[] getUnavailable() {
+		return this.unavailable.clone();
+	}
+	
+	/*What the items cost, in cents*/
+	public long getItemCents() {
+		return this.itemCents;
+	}
+	
+	/*The travel penalty for the stores after the first, in cents*/
+	public long getTravelCents() {
+		return this.travelCents;
+	}
+	
+	public long getTotalCents() {
+		return this.itemCents + this.travelCents;
+	}
+	
+	/*False if the search was cut short (see SplitCartOptimizer) - the plan is then the
+	 *best one found, not necessarily the best there is*/
+	public boolean isOptimal() {
+		return this.optimal;
+	}
+}
@@ -1,94 +1,42 @@
 package classes;
 
-import java.util.ArrayList;
-
 public class Store {
 	private String name;
-	private ArrayList<Product> inventory;
+	private InventoryBitmap inventoryIds; // ids of the products the store carries
 	private int distanceTo;
 	private int xLoc;
 	private int yLoc;
+	private int id; // dense index into the list of stores, assigned at load time
 	
-	public Store(String n, ArrayList<Product> i, int x, int y) {
+	public Store(String n, InventoryBitmap i, int x, int y) {
 		this.name = n;
-		this.inventory = i;
+		this.inventoryIds = i;
 		this.xLoc = x;
 		this.yLoc = y;
 	}
 	
+	public int getId() {
+		return this.id;
+	}
+	
+	public void setId(int i) {
+		this.id = i;
+	}
+	
 	public String getName() {
 		return this.name;
 	}
 	
-	public ArrayList<Product> getInventory() {
-		return this.inventory;
+	public InventoryBitmap getInventoryIds() {
+		return this.inventoryIds;
 	}
 	
-	public int getDistanceTo() {
-		return this.distanceTo;
+	public boolean carries(Product p) {
+		return this.inventoryIds.contains(p.getId());
 	}
 	
-	/*Returns different modifiers based on the product and store - for the
-	 *scope of this project, this is just to create the illusion of differing
-	 *prices at stores. Also, the price modifier isn't a BigDecimal because
-	 *no precision is being lost just casting the double to a BigDecimal.*/
-	public double getPriceModifier(Product p) {
-		if (p.getUniform()) {
-			return 1.00;
-		}
-		
-		double priceModifier = 0;
-		
-		if (this.name == "Store A") {
-			switch (p.getType()) {
-				case BEVERAGE:
-					priceModifier = .92;
-					break;
-				case FRUIT:
-					priceModifier = .94;
-					break;
-				case MEAT:
-					priceModifier = .93;
-					break;
-				default:
-					priceModifier = 1.05;
-					break;
-			}
-		} else if (this.name == "Store B") {
-			switch (p.getType()) {
-				case SNACK:
-					priceModifier = .91;
-					break;
-				case UTIL:
-					priceModifier = .92;
-					break;
-				case VEGGIE:
-					priceModifier = .91;
-					break;
-				default:
-					priceModifier = 1.06;
-					break;
-				}
-		} else if (this.name == "Store C") {
-			switch (p.getType()) {
-				case WHEAT:
-					priceModifier = .95;
-					break;
-				case DAIRY:
-					priceModifier = .93;
-					break;
-				case MEAT:
-					priceModifier = .91;
-					break;
-				default:
-					priceModifier = 1.03;
-					break;
-			}
-		} else if (this.name == "Store D") {
-			priceModifier = .98;
-		}
-		
-		return priceModifier;
+	public int getDistanceTo() {
+		return this.distanceTo;
 	}
 	
 	public int getXLoc() {
@@ -0,0 +1,174 @@
+package classes;
+
+import java.util.ArrayList;
+
+/*2-d tree over store locations, for closest store, k closest stores and "every store
+ *within some radius" lookups without scanning every store. The tree is implicit: the
+ *stores are permuted so that for any range, the middle element is the splitting node
+ *and the halves on either side are its subtrees (splitting on x, then y, and so on).
+ *Store locations never change after loading, so the tree is built once and only read
+ *after that. Distances are compared squared, in the same pixel units as the stores.*/
+public class StoreKdTree {
+	private Store[] nodes;
+	
+	public StoreKdTree(ArrayList<Store> stores) {
+		this.nodes = stores.toArray(new Store[0]);
+		this.build(0, this.nodes.length, 0);
+	}
+	
+	public int size() {
+		return this.nodes.length;
+	}
+	
+	/*Closest store to the point, or null if there are no stores. Ties go to the store
+	 *with the lower id.*/
+	public Store nearest(int x, int y) {
+		ArrayList<Store> result = this.nearest(x, y, 1);
+		return result.isEmpty() ? null : result.get(0);
+	}
+	
+	/*The k closest stores to the point, closest first - none for k = 0*/
+	public ArrayList<Store> nearest(int x, int y, int k) {
+		if (k < 0) {
+			throw new IllegalArgumentException("k can't be negative, got " + k);
+		}
+		Store[] best = new Store[Math.min(k, this.nodes.length)];
+		long[] bestDist = new long[best.length];
+		int[] count = new int[1];
+		if (best.length > 0) {
+			this.nearest(0, this.nodes.length, 0, x, y, best, bestDist, count);
+		}
+		ArrayList<Store> result = new ArrayList<Store>(count[0]);
+		for (int i = 0; i < count[0]; i++) {
+			result.add(best[i]);
+		}
+		return result;
+	}
+	
+	/*Every store whose distance to the point is at most r, in no particular order*/
+	public ArrayList<Store> withinRadius(int x, int y, int r) {
+		ArrayList<Store> result = new ArrayList<Store>();
+		this.withinRadius(0, this.nodes.length, 0, x, y, (long)r * r, result);
+		return result;
+	}
+	
+	public static long squaredDistance(int x1, int y1, int x2, int y2) {
+		long dx = x2 - x1;
+		long dy = y2 - y1;
+		return dx * dx + dy * dy;
+	}
+	
+	private static int coord(Store s, int axis) {
+		return axis == 0 ? s.getXLoc() : s.getYLoc();
+	}
+	
+	/*Put the median (by the current axis) in the middle of the range, smaller ones to
+	 *the left and larger ones to the right, then do the same for both halves*/
+	private void build(int lo, int hi, int axis) {
+		if (hi - lo <= 1) {
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		this.select(lo, hi - 1, mid, axis);
+		this.build(lo, mid, 1 - axis);
+		this.build(mid + 1, hi, 1 - axis);
+	}
+	
+	/*Quickselect - afterwards nodes[k] is the element that would be there if the range
+	 *were sorted by the axis coordinate*/
+	private void select(int lo, int hi, int k, int axis) {
+		while (hi > lo) {
+			int pivot = coord(this.nodes[(lo + hi) >>> 1], axis);
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (coord(this.nodes[i], axis) < pivot) {
+					i++;
+				}
+				while (coord(this.nodes[j], axis) > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					Store tmp = this.nodes[i];
+					this.nodes[i] = this.nodes[j];
+					this.nodes[j] = tmp;
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				hi = j;
+			} else if (k >= i) {
+				lo = i;
+			} else {
+				return;
+			}
+		}
+	}
+	
+	/*best/bestDist hold the closest stores found so far, sorted by distance; count[0]
+	 *is how many slots are filled*/
+	private void nearest(int lo, int hi, int axis, int x, int y, Store[] best, long[] bestDist, int[] count) {
+		if (lo >= hi) {
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		Store s = this.nodes[mid];
+		this.offer(s, squaredDistance(x, y, s.getXLoc(), s.getYLoc()), best, bestDist, count);
+		
+		/*Search the side the point is on first, then the other side only if the
+		 *splitting line is closer than the worst of the current best*/
+		long diff = (axis == 0 ? x : y) - coord(s, axis);
+		if (diff < 0) {
+			this.nearest(lo, mid, 1 - axis, x, y, best, bestDist, count);
+			if (count[0] < best.length || diff * diff <= bestDist[count[0] - 1]) {
+				this.nearest(mid + 1, hi, 1 - axis, x, y, best, bestDist, count);
+			}
+		} else {
+			this.nearest(mid + 1, hi, 1 - axis, x, y, best, bestDist, count);
+			if (count[0] < best.length || diff * diff <= bestDist[count[0] - 1]) {
+				this.nearest(lo, mid, 1 - axis, x, y, best, bestDist, count);
+			}
+		}
+	}
+	
+	private void offer(Store s, long dist, Store[] best, long[] bestDist, int[] count) {
+		int n = count[0];
+		if (n == best.length && !closer(dist, s, bestDist[n - 1], best[n - 1])) {
+			return;
+		}
+		int i = n == best.length ? n - 1 : n;
+		while (i > 0 && closer(dist, s, bestDist[i - 1], best[i - 1])) {
+			best[i] = best[i - 1];
+			bestDist[i] = bestDist[i - 1];
+			i--;
+		}
+		best[i] = s;
+		bestDist[i] = dist;
+		if (n < best.length) {
+			count[0]++;
+		}
+	}
+	
+	private static boolean closer(long dist, Store s, long otherDist, Store other) {
+		return dist < otherDist || (dist == otherDist && s.getId() < other.getId());
+	}
+	
+	private void withinRadius(int lo, int hi, int axis, int x, int y, long r2, ArrayList<Store> result) {
+		if (lo >= hi) {
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		Store s = this.nodes[mid];
+		if (squaredDistance(x, y, s.getXLoc(), s.getYLoc()) <= r2) {
+			result.add(s);
+		}
+		long diff = (axis == 0 ? x : y) - coord(s, axis);
+		if (diff <= 0 || diff * diff <= r2) {
+			this.withinRadius(lo, mid, 1 - axis, x, y, r2, result);
+		}
+		if (diff >= 0 || diff * diff <= r2) {
+			this.withinRadius(mid + 1, hi, 1 - axis, x, y, r2, result);
+		}
+	}
+}
@@ -0,0 +1,232 @@
+package controller;
+
+import classes.Catalog;
+import classes.PriceComparisonEngine;
+import classes.PricingSnapshot;
+import classes.Product;
+import classes.ProductRegistry;
+import classes.Quote;
+import classes.Store;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*Quotes a whole file of carts at once - one cart with its location per line, as JSON
+ *(see QuoteJson) - and writes one quote per line to another file, line for line:
+ *
+ *  java controller.BatchQuoter <carts.jsonl> <quotes.jsonl> [--summary] [--threads n]
+ *
+ *--summary leaves out the per-store totals and missing items, which is most of the
+ *output when there are many stores. A line that can't be quoted gets an error object
+ *with its line number instead, and the rest carry on. Every cart is priced against the
+ *same snapshot of the catalog's prices.
+ *
+ *Lines are read in batches and each batch is quoted on a fork-join pool (split in half
+ *until the pieces are small). Only a few batches are read ahead of the oldest one still
+ *being quoted, and batches are written out in the order they were read - so memory stays
+ *the same however long the file is, and the output lines up with the input. The output
+ *is written to a temporary file and moved into place once it's complete.*/
+public class BatchQuoter {
+	private static final int linesPerBatch = 256;
+	private static final int splitBelow = 16; // lines a task quotes itself rather than splitting
+	
+	private ArrayList<Product> products;
+	private ArrayList<Store> stores;
+	private ProductRegistry registry;
+	private PriceComparisonEngine engine;
+	private PricingSnapshot pricing;
+	private boolean perStore;
+	private ForkJoinPool pool;
+	private int maxInFlight; // batches read but not yet written
+	
+	private AtomicLong errors = new AtomicLong();
+	
+	public static void main(String[] args) throws IOException {
+		File in = null;
+		File out = null;
+		boolean perStore = true;
+		int threads = Runtime.getRuntime().availableProcessors();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--summary")) {
+				perStore = false;
+			} else if (args[i].equals("--threads") && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else if (in == null) {
+				in = new File(args[i]);
+			} else if (out == null) {
+				out = new File(args[i]);
+			} else {
+				in = null; // too many arguments
+				break;
+			}
+		}
+		if (in == null || out == null) {
+			System.err.println("usage: java controller.BatchQuoter <carts.jsonl> <quotes.jsonl> [--summary] [--threads n]");
+			System.exit(2);
+		}
+		
+		BatchQuoter b = new BatchQuoter(QuoteServer.loadCatalog(), perStore, threads);
+		long start = System.nanoTime();
+		long lines;
+		try {
+			lines = b.run(in, out);
+		} finally {
+			b.shutdown();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("%d carts in %.1f s (%.0f/s), %d errors", lines, seconds, lines / seconds, b.getErrorCount()));
+	}
+	
+	public BatchQuoter(Catalog catalog, boolean perStore, int threads) {
+		this.products = catalog.getProducts();
+		this.stores = catalog.getStores();
+		this.registry = catalog.getProductRegistry();
+		this.engine = new PriceComparisonEngine(this.stores, QuoteServer.feetPerPixel);
+		this.pricing = new PricingSnapshot(catalog.getPriceMatrix(), this.stores);
+		this.perStore = perStore;
+		this.pool = new ForkJoinPool(threads);
+		this.maxInFlight = 2 * threads;
+	}
+	
+	public void shutdown() {
+		this.pool.shutdown();
+	}
+	
+	/*Lines that couldn't be quoted so far*/
+	public long getErrorCount() {
+		return this.errors.get();
+	}
+	
+	/*Quote every line of in into out - returns the number of lines*/
+	public long run(File in, File out) throws IOException {
+		File tmp = new File(out.getPath() + ".tmp");
+		ArrayDeque<Batch> inFlight = new ArrayDeque<Batch>();
+		long lines = 0;
+		try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(in), StandardCharsets.UTF_8), 1 << 16);
+				BufferedWriter w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8), 1 << 16)) {
+			String[] batch = new String[linesPerBatch];
+			int n = 0;
+			String line;
+			while ((line = r.readLine()) != null) {
+				batch[n++] = line;
+				if (n == linesPerBatch) {
+					this.submit(new Batch(batch, n, lines + 1), inFlight, w);
+					lines += n;
+					batch = new String[linesPerBatch];
+					n = 0;
+				}
+			}
+			if (n > 0) {
+				this.submit(new Batch(batch, n, lines + 1), inFlight, w);
+				lines += n;
+			}
+			while (!inFlight.isEmpty()) {
+				write(inFlight.poll(), w);
+			}
+		} catch (IOException | RuntimeException e) {
+			for (Batch b : inFlight) {
+				b.cancel(true);
+			}
+			tmp.delete();
+			throw e;
+		}
+		Files.move(tmp.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return lines;
+	}
+	
+	/*Start quoting a batch, first writing out (and so waiting for) the oldest one if too
+	 *many are already in flight*/
+	private void submit(Batch b, ArrayDeque<Batch> inFlight, BufferedWriter w) throws IOException {
+		if (inFlight.size() >= this.maxInFlight) {
+			write(inFlight.poll(), w);
+		}
+		this.pool.execute(b);
+		inFlight.add(b);
+	}
+	
+	private static void write(Batch b, BufferedWriter w) throws IOException {
+		b.join();
+		for (int i = 0; i < b.count; i++) {
+			w.write(b.results[i]);
+			w.write('\n');
+		}
+	}
+	
+	/*One line's quote as JSON, or its error*/
+	private String quoteLine(String line, long lineNumber) {
+		try {
+			QuoteJson.Cart c = QuoteJson.readCart(line, this.registry);
+			Quote q = this.engine.quote(this.pricing, c.productIds, c.quantities, c.x, c.y);
+			return QuoteJson.write(q, this.stores, this.products, this.perStore);
+		} catch (IllegalArgumentException e) {
+			this.errors.incrementAndGet();
+			StringBuilder sb = new StringBuilder();
+			sb.append("{\"line\":").append(lineNumber).append(",\"error\":");
+			QuoteJson.writeString(sb, e.getMessage());
+			sb.append('}');
+			return sb.toString();
+		}
+	}
+	
+	/*A batch of lines, quoted by splitting it into Ranges*/
+	private class Batch extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final String[] lines;
+		private final String[] results;
+		private final int count;
+		private final long firstLine; // line number of lines[0], from 1
+		
+		private Batch(String[] l, int n, long first) {
+			this.lines = l;
+			this.results = new String[n];
+			this.count = n;
+			this.firstLine = first;
+		}
+		
+		@Override
+		protected void compute() {
+			new Range(this, 0, this.count).compute();
+		}
+	}
+	
+	private class Range extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final Batch batch;
+		private final int from;
+		private final int to;
+		
+		private Range(Batch b, int f, int t) {
+			this.batch = b;
+			this.from = f;
+			this.to = t;
+		}
+		
+		@Override
+		protected void compute() {
+			if (this.to - this.from <= splitBelow) {
+				for (int i = this.from; i < this.to; i++) {
+					this.batch.results[i] = quoteLine(this.batch.lines[i], this.batch.firstLine + i);
+					this.batch.lines[i] = null; // done with it
+				}
+				return;
+			}
+			int mid = (this.from + this.to) >>> 1;
+			invokeAll(new Range(this.batch, this.from, mid), new Range(this.batch, mid, this.to));
+		}
+	}
+}
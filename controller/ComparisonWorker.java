@@ -0,0 +1,200 @@
+package controller;
+
+import classes.CartTotals;
+import classes.PriceComparisonEngine;
+import classes.PricingSnapshot;
+import classes.Quote;
+import classes.SplitPlan;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import javax.swing.SwingUtilities;
+
+/*Gets quotes from the PriceComparisonEngine on a background thread, so mouse handlers on
+ *the event thread only post a request and return. Requests are coalesced: only the
+ *newest one waiting is ever started, and a run that's overtaken by a newer request gives
+ *up at its next checkpoint instead of finishing work nobody will see. When only the user
+ *location has changed since the last quote (a drag), that quote is just relocated
+ *instead of pricing the cart again, and a request that comes with the cart's totals
+ *already worked out (see CartTotals) only has to find the cheapest store. Results are
+ *handed to the listener on the event thread, oldest never after newest.
+ *
+ *Giving up on every overtaken run would show nothing at all for as long as a drag
+ *keeps producing requests faster than a comparison takes, so a run is only abandoned if
+ *the screen has had a result recently (within maxStaleMillis) - otherwise it finishes,
+ *and the screen keeps following the drag at that rate at least.
+ *
+ *A request can also ask for a split-cart plan (see SplitCartOptimizer). Since the travel
+ *part of a plan depends on where the user is, it's worked out again for every request
+ *that asks for one, so only ask while it's being shown.*/
+public class ComparisonWorker implements Runnable {
+	public interface Listener {
+		/*Called on the event thread*/
+		void comparisonDone(Quote q, SplitPlan split);
+	}
+	
+	private static final long maxStaleMillis = 100;
+	
+	private PriceComparisonEngine engine;
+	private Listener listener;
+	
+	private AtomicLong generation = new AtomicLong(); // of the newest request
+	private AtomicReference<Request> pending = new AtomicReference<Request>();
+	private volatile long lastDelivered = 0; // nanoTime a result was last posted
+	private long deliveredGeneration = 0; // event thread only
+	private Request lastRequest = null; // worker thread only, with lastQuote
+	private Quote lastQuote = null;
+	
+	private Thread thread;
+	private final Object wakeup = new Object();
+	private boolean scheduled = false; // guarded by wakeup
+	
+	public ComparisonWorker(PriceComparisonEngine e, Listener l) {
+		this.engine = e;
+		this.listener = l;
+		this.thread = new Thread(this, "comparison-worker");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+	
+	/*Ask for a quote for the cart from the given user location. The cart arrays must not
+	 *change afterwards - pass the same arrays again while the cart stays the same, and
+	 *new ones once it's changed. Returns right away.*/
+	public void submit(PricingSnapshot pricing, int[] productIds, int[] quantities, int userX, int userY) {
+		this.submit(pricing, productIds, quantities, userX, userY, 0, 0);
+	}
+	
+	/*Same as above, plus a split plan over at most splitStores stores, with travel at
+	 *centsPerFoot (see PriceComparisonEngine.split) - none if splitStores is 0*/
+	public void submit(PricingSnapshot pricing, int[] productIds, int[] quantities, int userX, int userY, int splitStores, double centsPerFoot) {
+		this.submit(pricing, productIds, quantities, null, userX, userY, splitStores, centsPerFoot);
+	}
+	
+	/*Same as above, with the cart's totals against pricing already worked out - a copy
+	 *that won't change afterwards, like the arrays (null to have them worked out)*/
+	public void submit(PricingSnapshot pricing, int[] productIds, int[] quantities, CartTotals totals, int userX, int userY, int splitStores, double centsPerFoot) {
+		Request r = new Request(this.generation.incrementAndGet(), pricing, productIds, quantities, totals, userX, userY, splitStores, centsPerFoot);
+		this.pending.set(r);
+		synchronized (this.wakeup) {
+			this.scheduled = true;
+			this.wakeup.notify();
+		}
+	}
+	
+	public void stop() {
+		this.thread.interrupt();
+	}
+	
+	@Override
+	public void run() {
+		while (!Thread.currentThread().isInterrupted()) {
+			synchronized (this.wakeup) {
+				while (!this.scheduled) {
+					try {
+						this.wakeup.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				this.scheduled = false;
+			}
+			Request r = this.pending.getAndSet(null);
+			if (r == null) {
+				continue;
+			}
+			final Result result = this.compare(r);
+			if (result == null) {
+				continue; // overtaken - the newer request is already pending
+			}
+			this.lastDelivered = System.nanoTime();
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					deliver(result);
+				}
+			});
+		}
+	}
+	
+	private void deliver(Result r) {
+		if (r.generation <= this.deliveredGeneration) {
+			return;
+		}
+		this.deliveredGeneration = r.generation;
+		this.listener.comparisonDone(r.quote, r.split);
+	}
+	
+	/*A newer request is waiting and the screen isn't starved for results*/
+	private boolean overtaken(Request r) {
+		return r.generation != this.generation.get()
+				&& System.nanoTime() - this.lastDelivered < maxStaleMillis * 1000000L;
+	}
+	
+	/*The quote and plan, or null if they were abandoned for a newer request*/
+	private Result compare(final Request r) {
+		BooleanSupplier cancelled = new BooleanSupplier() {
+			@Override
+			public boolean getAsBoolean() {
+				return overtaken(r);
+			}
+		};
+		Quote q;
+		Request last = this.lastRequest;
+		if (last != null && last.pricing == r.pricing && last.productIds == r.productIds && last.quantities == r.quantities) {
+			q = this.engine.relocate(this.lastQuote, r.userX, r.userY, cancelled);
+		} else if (r.totals != null) {
+			q = this.engine.quote(r.pricing, r.totals, r.productIds, r.userX, r.userY, cancelled);
+		} else {
+			q = this.engine.quote(r.pricing, r.productIds, r.quantities, r.userX, r.userY, cancelled);
+		}
+		if (q == null) {
+			return null;
+		}
+		this.lastRequest = r;
+		this.lastQuote = q;
+		SplitPlan split = null;
+		if (r.splitStores > 0) {
+			if (cancelled.getAsBoolean()) {
+				return null;
+			}
+			split = this.engine.split(q, r.productIds, r.quantities, r.splitStores, r.centsPerFoot);
+		}
+		return new Result(r.generation, q, split);
+	}
+	
+	private static class Request {
+		private final long generation;
+		private final PricingSnapshot pricing;
+		private final int[] productIds;
+		private final int[] quantities;
+		private final CartTotals totals; // null to work them out
+		private final int userX;
+		private final int userY;
+		private final int splitStores;
+		private final double centsPerFoot;
+		
+		private Request(long g, PricingSnapshot p, int[] ids, int[] q, CartTotals t, int x, int y, int k, double cents) {
+			this.generation = g;
+			this.pricing = p;
+			this.productIds = ids;
+			this.quantities = q;
+			this.totals = t;
+			this.userX = x;
+			this.userY = y;
+			this.splitStores = k;
+			this.centsPerFoot = cents;
+		}
+	}
+	
+	private static class Result {
+		private final long generation;
+		private final Quote quote;
+		private final SplitPlan split;
+		
+		private Result(long g, Quote q, SplitPlan s) {
+			this.generation = g;
+			this.quote = q;
+			this.split = s;
+		}
+	}
+}
@@ -33,6 +33,12 @@ import enums.*;
 /*Swing for general user interface (buttons, panels, etc)*/
 import javax.swing.JFrame;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
 
 /*AWT for graphics and interaction*/
 import java.awt.Color;
@@ -47,18 +53,46 @@ import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 
 /*Utilities*/
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.math.BigDecimal; //these are slower and uglier than doubles but are far more accurate
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.text.DecimalFormat;
 
 public class Main implements MouseListener, MouseMotionListener {
 	public enum AppState {START, MENU, CART, MAP, EXIT};
-	public enum SelectionMode {SELECTED, CLOSEST, CHEAPEST};
+	public enum SelectionMode {SELECTED, CLOSEST, CHEAPEST, SPLIT};
 	
-	private ArrayList<Product> allProducts;
-	private ArrayList<Product> groceryCart;
+	private final String dataPath = "data"; // catalog files, see CatalogLoader
+	private final String snapshotPath = "data/catalog.snapshot"; // see CatalogSnapshot
+	
+	private ProductRegistry productRegistry; // products by id (and name)
+	private ArrayList<Product> allProducts; // productRegistry's products, in id order
+	private CartCounts groceryCart; // product id -> quantity, only changed through cartModel
+	private CartListModel cartModel; // the cart as both screens' cart lists show it
+	private int[] cartProductIds = null; // groceryCart as the engine takes it, null once it's out of date
+	private int[] cartQuantities = null;
+	private CartTotals cartTotals; // groceryCart at every store as of pricing, changed by one product per cart edit
+	private CartTotals quotedTotals = null; // copy of cartTotals handed to the comparison worker, null once it's out of date
 	
 	private ArrayList<Store> stores;
+	private PriceComparisonEngine engine; // every store comparison goes through this
+	private Quote quote; // latest comparison - everything store-related on screen comes from it
+	private SplitPlan splitPlan = null; // latest split-cart plan, only worked out in SPLIT mode
+	private final int splitMaxStores = Integer.getInteger("split.maxStores", 3);
+	private RoutePlanner routePlanner; // event thread only
+	private Route route = null; // trip through the stores being shown, if any
+	private final double splitCentsPerFoot = Double.parseDouble(System.getProperty("split.centsPerFoot", "0.05")); // travel penalty per store after the closest
+	
+	private PriceMatrix priceMatrix; // always the matrix of the current pricing snapshot
+	private PricingSnapshot pricing; // prices and availability everything on screen was worked out from
+	private PriceFeed priceFeed;
+	private PriceFetchCoordinator priceFetcher = null; // asks the price providers, if there are any
+	private final int priceRefreshSeconds = Integer.getInteger("prices.refreshSeconds", 30);
+	private AtomicBoolean pricingPending = new AtomicBoolean(false); // a newer snapshot is waiting for the event thread
+	private final String priceFeedPath = "data/prices.feed"; // followed for live updates, see PriceFeed
+	private ComparisonWorker comparisonWorker; // gets quotes off the event thread
 	
 	private Product selectedProduct = null;
 	private Store selectedStore = null;
@@ -76,11 +110,13 @@ public class Main implements MouseListener, MouseMotionListener {
 	private int userYLoc;
 	
 	private boolean userDragged = false;
+	private boolean mapPanned = false; // dragging the map itself rather than the user point
+	private int panXLoc;
+	private int panYLoc;
 	private boolean userHovered = false;
 	
 	private int pointDimensions = 6; // in pixels
 	private final int pixelsToFeetConstant = 11;
-	private final int bigNumber = 1000000000;
 	
 	private int screenHeight;
 	private int screenWidth;
@@ -97,6 +133,7 @@ public class Main implements MouseListener, MouseMotionListener {
 	private MapScreen mapScreen;
 	
 	private boolean running = true;
+	private CountDownLatch exitLatch = new CountDownLatch(1); // released when the user exits
 	
 	DecimalFormat df;
 	
@@ -105,18 +142,11 @@ public class Main implements MouseListener, MouseMotionListener {
 	
 	private SelectionMode mode = SelectionMode.SELECTED;
 	
-	private static int sleepTime = 16; // 60 fps!! /s
-	
+	/*There's no render loop - everything is driven by Swing events, and the main
+	 *thread just waits for the user to exit*/
 	public static void main(String[] args) {
 		Main m = new Main();
-		while (m.isRunning()) {
-			m.tick();
-			try {
-    				Thread.sleep(sleepTime); // sleep time is in milliseconds
-    			} catch (InterruptedException e) {
-    				e.printStackTrace();
-    			}
-		}
+		m.awaitExit();
 		m.cleanup();
 	}
 	
@@ -131,15 +161,16 @@ public class Main implements MouseListener, MouseMotionListener {
 		this.userYLoc = 29 * this.screenHeight / 100;
 		
 		/*Initialize variables*/
-		this.initProducts();
-		this.groceryCart = new ArrayList<Product>();
-		this.initStores();
+		Catalog catalog = this.initCatalog();
+		this.groceryCart = new CartCounts();
+		this.cartModel = new CartListModel(this.groceryCart, this.productRegistry);
+		this.engine = new PriceComparisonEngine(this.stores, this.pixelsToFeetConstant);
+		this.routePlanner = new RoutePlanner(this.pixelsToFeetConstant);
+		this.initPriceFeed();
+		this.initPriceProviders(catalog);
 		
-		/*Calculate initial distances*/
-		this.calculateStoreDistances();
-		
-		/*Initialize the closest store*/
-		this.calculateClosestStore();
+		/*Initial distances and closest store*/
+		this.setQuote(this.engine.quote(this.pricing, new int[0], new int[0], this.userXLoc, this.userYLoc));
 		
 		/*Initialize decimal formatter*/
 		this.df = new DecimalFormat("#.00");
@@ -147,11 +178,19 @@ public class Main implements MouseListener, MouseMotionListener {
 		/*Initialize screens*/
 		this.startScreen = new StartScreen(this.screenWidth, this.screenHeight);
 		this.menuScreen = new MenuScreen(this.screenWidth, this.screenHeight);
-		this.cartScreen = new CartScreen(this.screenWidth, this.screenHeight, this.allProducts);
-		this.mapScreen = new MapScreen(this.screenWidth, this.screenHeight, this.userXLoc, this.userYLoc, this.stores, this.pointDimensions);
+		this.cartScreen = new CartScreen(this.screenWidth, this.screenHeight, this.allProducts, this.cartModel);
+		this.mapScreen = new MapScreen(this.screenWidth, this.screenHeight, this.userXLoc, this.userYLoc, this.stores, this.pointDimensions, this.cartModel);
 		this.mapScreen.addMouseListener(this); // add listeners for map clicks and events
 		this.mapScreen.addMouseMotionListener(this);
 		
+		/*Store comparisons run in the background from here on*/
+		this.comparisonWorker = new ComparisonWorker(this.engine, new ComparisonWorker.Listener() {
+			@Override
+			public void comparisonDone(Quote q, SplitPlan split) {
+				applyComparison(q, split);
+			}
+		});
+		
 		/*Update map dimensions.*/
 		this.mapXLoc = this.mapScreen.getMapXLoc();
 		this.mapYLoc = this.mapScreen.getMapYLoc();
@@ -175,79 +214,130 @@ public class Main implements MouseListener, MouseMotionListener {
 		return this.running;
 	}
 	
-	/*Appears only in the main while loop - a cycle consists of updating the 
-	 *state of the application, updating label text, and repainting the frame*/
-	void tick() {
+	/*Appears only in main - block until the exit button is pressed*/
+	public void awaitExit() {
+		try {
+			this.exitLatch.await();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/*Called by the buttons that switch screens - the switch happens right away*/
+	public void setNextState(AppState s) {
+		this.nextState = s;
 		this.updateAppState();
-		this.updateLabels();
-		this.frame.repaint();
 	}
 	
 	/*Appears only in main - dispose of the frame when we're finished*/
 	public void cleanup() {
+		if (this.priceFetcher != null) {
+			this.priceFetcher.stop();
+		}
+		this.priceFeed.stop();
+		this.comparisonWorker.stop();
 		this.frame.dispose();
 	}
 	
-	/*Initialize the ArrayList of all products to hold some random items. Prices are from
-	 *walmart and target*/
-	public void initProducts() {
-		/*Initialize list of products.*/
-		this.allProducts = new ArrayList<Product>();
-		this.allProducts.add(new Product("Apples (Red)", ProductType.FRUIT, false, BigDecimal.valueOf(.80))); // populate list with some random items
-		this.allProducts.add(new Product("Apples (Green)", ProductType.FRUIT, false, BigDecimal.valueOf(.81)));
-		this.allProducts.add(new Product("Bananas", ProductType.FRUIT, false, BigDecimal.valueOf(.57)));
-		this.allProducts.add(new Product("Bread", ProductType.WHEAT, false, BigDecimal.valueOf(2.30)));
-		this.allProducts.add(new Product("Grapes (Green)", ProductType.FRUIT, false, BigDecimal.valueOf(1.57)));
-		this.allProducts.add(new Product("Chips", ProductType.SNACK, false, BigDecimal.valueOf(3.00)));
-		this.allProducts.add(new Product("Crisps", ProductType.SNACK, false, BigDecimal.valueOf(2.90)));
-		this.allProducts.add(new Product("Chisps", ProductType.SNACK, false, BigDecimal.valueOf(3.25)));
-		this.allProducts.add(new Product("Beef (1 lb)", ProductType.MEAT, false, BigDecimal.valueOf(3.86)));
-		this.allProducts.add(new Product("Chicken (1 lb)", ProductType.MEAT, false, BigDecimal.valueOf(3.24)));
-		this.allProducts.add(new Product("Laundry Detergent", ProductType.UTIL, true, BigDecimal.valueOf(10.42)));
-		this.allProducts.add(new Product("Paper Towels", ProductType.UTIL, false, BigDecimal.valueOf(6.02)));
-		this.allProducts.add(new Product("Batteries (AA)", ProductType.UTIL, true, BigDecimal.valueOf(14.99)));
-		this.allProducts.add(new Product("Batteries (AAA)", ProductType.UTIL, true, BigDecimal.valueOf(12.99)));
-		this.allProducts.add(new Product("Cereal", ProductType.WHEAT, false, BigDecimal.valueOf(2.99)));
-		this.allProducts.add(new Product("Milk (Skim)", ProductType.DAIRY, false, BigDecimal.valueOf(2.99)));
-		this.allProducts.add(new Product("Milk (.5%)", ProductType.DAIRY, false, BigDecimal.valueOf(3.55)));
-		this.allProducts.add(new Product("Milk (1%)", ProductType.DAIRY, false, BigDecimal.valueOf(3.98)));
-		this.allProducts.add(new Product("Milk (2%)", ProductType.DAIRY, false, BigDecimal.valueOf(3.98)));
-		this.allProducts.add(new Product("Cheese", ProductType.DAIRY, false, BigDecimal.valueOf(4.19)));
-		this.allProducts.add(new Product("Water (2L)", ProductType.BEVERAGE, false, BigDecimal.valueOf(1.20)));
-		this.allProducts.add(new Product("Coca Cola (2L)", ProductType.BEVERAGE, true, BigDecimal.valueOf(1.79)));
-		this.allProducts.add(new Product("Pepsi (2L)", ProductType.BEVERAGE, true, BigDecimal.valueOf(1.79)));
-		this.allProducts.add(new Product("Sparkling Water", ProductType.BEVERAGE, false, BigDecimal.valueOf(1.68)));
-		this.allProducts.add(new Product("Ice Cream", ProductType.DAIRY, false, BigDecimal.valueOf(5.25)));
-	}
-	
-	/*Initialize the ArrayList of all stores to hold some random stores with random inventories*/
-	public void initStores() {
-		/*Initialize stores.*/
-		this.stores = new ArrayList<Store>();
-		
-		/*Set some random inventories*/
-		ArrayList<Product> storeAInv = new ArrayList<Product>();
-		storeAInv.addAll(this.allProducts);
-		storeAInv.remove(2);
-		storeAInv.remove(4);
-		storeAInv.remove(5);
-		
-		ArrayList<Product> storeBInv = new ArrayList<Product>();
-		storeBInv.addAll(this.allProducts);
-		storeBInv.remove(7);
-		storeBInv.remove(1);
-		storeBInv.remove(9);
-		
-		ArrayList<Product> storeCInv = new ArrayList<Product>();
-		storeCInv.addAll(this.allProducts);
-		storeCInv.remove(11);
-		storeCInv.remove(12);
-		storeCInv.remove(1);
-		
-		this.stores.add(new Store("Store A", storeAInv, 40 * this.screenWidth / 100, 32 * this.screenHeight / 100)); // populate list with some random stores
-		this.stores.add(new Store("Store B", storeBInv, 49 * this.screenWidth / 100, 29 * this.screenHeight / 100));
-		this.stores.add(new Store("Store C", storeCInv, 55 * this.screenWidth / 100, 25 * this.screenHeight / 100));
-		this.stores.add(new Store("Store D", this.allProducts, 63 * this.screenWidth / 100, 32 * this.screenHeight / 100));
+	/*Load the products and stores (with their inventories and pricing rules). Normally
+	 *that's just mapping the snapshot left by the last run; the data files are only
+	 *parsed when they've changed since then (and the snapshot is rewritten). There's
+	 *nothing to show without a catalog, so a bad or missing one ends the program.*/
+	public Catalog initCatalog() {
+		Catalog catalog = null;
+		try {
+			catalog = CatalogSnapshot.openOrLoad(new File(this.dataPath), new File(this.snapshotPath), this.screenWidth, this.screenHeight);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+		this.productRegistry = catalog.getProductRegistry();
+		this.allProducts = catalog.getProducts();
+		this.stores = catalog.getStores();
+		this.priceMatrix = catalog.getPriceMatrix();
+		return catalog;
+	}
+	
+	/*Start following live price updates. The feed can publish far more often than the
+	 *screen needs to change, so only one hand-off to the event thread is queued at a
+	 *time, and it always picks up the newest snapshot. A localhost port for updates can
+	 *be opened with -Dpricefeed.port=<port>.*/
+	public void initPriceFeed() {
+		this.pricing = new PricingSnapshot(this.priceMatrix, this.stores);
+		this.repriceCart();
+		this.priceFeed = new PriceFeed(this.stores, this.productRegistry, this.pricing);
+		this.priceFeed.setListener(new PriceFeed.Listener() {
+			@Override
+			public void pricesPublished(PricingSnapshot s) {
+				if (pricingPending.compareAndSet(false, true)) {
+					SwingUtilities.invokeLater(new Runnable() {
+						@Override
+						public void run() {
+							pricingPending.set(false);
+							applyPricing(priceFeed.current());
+						}
+					});
+				}
+			}
+		});
+		this.priceFeed.start();
+		this.priceFeed.tail(new File(this.priceFeedPath));
+		int port = Integer.getInteger("pricefeed.port", 0);
+		if (port > 0) {
+			try {
+				this.priceFeed.listen(port);
+			} catch (IOException e) {
+				e.printStackTrace(); // carry on with just the file
+			}
+		}
+	}
+	
+	/*Fetch live prices for what's in the cart from the price providers on the classpath
+	 *(see PriceProvider) - or from a simulated one, with -Dprices.simulate=true (see
+	 *SimulatedPriceProvider for its settings). Prices come back through the feed. The
+	 *cart is fetched again whenever it changes, and every -Dprices.refreshSeconds - only
+	 *what's out of date in the coordinator's cache actually goes out.*/
+	public void initPriceProviders(Catalog catalog) {
+		ArrayList<PriceProvider> providers = PriceFetchCoordinator.loadProviders();
+		if (Boolean.getBoolean("prices.simulate")) {
+			providers.add(new SimulatedPriceProvider());
+		}
+		if (providers.isEmpty()) {
+			return;
+		}
+		this.priceFetcher = new PriceFetchCoordinator(catalog, providers, this.priceFeed);
+		if (this.priceFetcher.getProviderCount() == 0) {
+			this.priceFetcher.stop();
+			this.priceFetcher = null;
+			return;
+		}
+		Timer refresh = new Timer(1000 * this.priceRefreshSeconds, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				fetchCartPrices();
+			}
+		});
+		refresh.start();
+	}
+	
+	/*Ask the providers for the cart's prices - doesn't wait for them*/
+	public void fetchCartPrices() {
+		if (this.priceFetcher != null && !this.groceryCart.isEmpty()) {
+			this.priceFetcher.fetch(this.groceryCart.getIds());
+		}
+	}
+	
+	/*Switch to a newer pricing snapshot - the cart is quoted again against it, and
+	 *everything that shows a price is updated*/
+	public void applyPricing(PricingSnapshot s) {
+		if (s == this.pricing) {
+			return;
+		}
+		this.pricing = s;
+		this.priceMatrix = s.getPrices();
+		this.repriceCart();
+		this.requestComparison(); // totals and the cheapest store may have changed
+		this.updateStrings();
 	}
 	
 	/*Set action/focus listeners for every element in the application*/
@@ -256,39 +346,39 @@ public class Main implements MouseListener, MouseMotionListener {
 		this.startScreen.getStartButton().addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				nextState = AppState.MENU;
+				setNextState(AppState.MENU);
 			}
     		});
 		/*Menu screen buttons*/
 		this.menuScreen.getEditCartButton().addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				nextState = AppState.CART;
+				setNextState(AppState.CART);
 			}
     		});
 		this.menuScreen.getMapButton().addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				nextState = AppState.MAP;
+				setNextState(AppState.MAP);
 			}
     		});
 		this.menuScreen.getExitButton().addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				nextState = AppState.EXIT;
+				setNextState(AppState.EXIT);
 			}
     		});
 		/*Cart screen elements*/
 		this.cartScreen.getBackButton().addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				nextState = AppState.MENU;
+				setNextState(AppState.MENU);
 			}
     		});
 		this.cartScreen.getMapButton().addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				nextState = AppState.MAP;
+				setNextState(AppState.MAP);
 			}
     		});
 		this.cartScreen.getAddButton().addActionListener(new ActionListener() {
@@ -298,16 +388,11 @@ public class Main implements MouseListener, MouseMotionListener {
 				if (index == -1) { // make sure item is selected
 					return;
 				}
-				String productString = cartScreen.getProductModel().getElementAt(index);
-				for (Product p : allProducts) {
-					if (p.getName() == productString) {
-						groceryCart.add(p);
-						cartScreen.getCartModel().addElement(productString);
-						mapScreen.getCartModel().addElement(productString);
-						break;
-					}
-				}
+				Product added = cartScreen.getProductModel().getProductAt(index);
+				cartModel.add(added, 1); // one more if it's already there
+				cartEdited(added.getId(), 1);
 				
+				requestComparison();
 				updateStrings();
 			}
     		});
@@ -319,28 +404,48 @@ public class Main implements MouseListener, MouseMotionListener {
 					if (index == -1) { // make sure item is selected
 						return;
 					}
-					String productString = cartScreen.getCartModel().getElementAt(index);
-					cartScreen.getCartModel().remove(index);
-					mapScreen.getCartModel().remove(index);
-					Product match = null;
-					for (Product p : groceryCart) {
-						if (p.getName() == productString) {
-							match = p;
-							break;
-						}
-					}
-					groceryCart.remove(match); // remove after to avoid concurrent modification exception
+					int quantity = cartModel.getQuantityAt(index);
+					Product match = cartModel.remove(index); // the whole row, whatever the quantity
+					cartEdited(match.getId(), -quantity);
+					cartScreen.getCartList().clearSelection(); // the last row moved into its place
 					
 					if (selectedProduct != null) {
-						if (match.getName() == selectedProduct.getName()) {
+						if (match.getId() == selectedProduct.getId()) {
 							selectedProduct = null; // set to null so the string can properly update
 						}
 					}
 					
+					requestComparison();
 					updateStrings();
 				}
 			}
     		});
+		this.cartScreen.getCartList().addListSelectionListener(new ListSelectionListener() {
+			@Override
+			public void valueChanged(ListSelectionEvent e) {
+				int index = cartScreen.getCartList().getSelectedIndex();
+				if (index != -1) {
+					cartScreen.getQuantitySpinner().setValue(cartModel.getQuantityAt(index));
+				}
+			}
+		});
+		this.cartScreen.getQuantitySpinner().addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				int index = cartScreen.getCartList().getSelectedIndex();
+				if (index == -1) { // the spinner only changes the selected row
+					return;
+				}
+				Product p = cartModel.getProductAt(index);
+				int before = cartModel.getQuantityAt(index);
+				int after = (Integer)cartScreen.getQuantitySpinner().getValue();
+				if (cartModel.setQuantity(index, after)) {
+					cartEdited(p.getId(), after - before);
+					requestComparison();
+					updateStrings();
+				}
+			}
+		});
 		this.cartScreen.getProductList().addFocusListener(new FocusListener() {
 			@Override
 			public void focusGained(FocusEvent e) {
@@ -361,6 +466,7 @@ public class Main implements MouseListener, MouseMotionListener {
 			@Override
 			public void actionPerformed(ActionEvent e) {
 				mode = SelectionMode.SELECTED;
+				splitPlan = null;
 				
 				mapScreen.getSelectedStoreTitleField().setText("Selected Store");
 				selectedStore = null;
@@ -371,6 +477,7 @@ public class Main implements MouseListener, MouseMotionListener {
 			@Override
 			public void actionPerformed(ActionEvent e) {
 				mode = SelectionMode.CLOSEST;
+				splitPlan = null;
 				
 				mapScreen.getSelectedStoreTitleField().setText("Closest Store");
 				updateStrings();
@@ -382,6 +489,7 @@ public class Main implements MouseListener, MouseMotionListener {
 			@Override
 			public void actionPerformed(ActionEvent e) {
 				mode = SelectionMode.CHEAPEST;
+				splitPlan = null;
 				
 				mapScreen.getSelectedStoreTitleField().setText("Cheapest Store");
 				updateStrings();
@@ -389,17 +497,29 @@ public class Main implements MouseListener, MouseMotionListener {
 				mapScreen.setSelectedStoreBool(false);
 			}
     		});
+		this.cartScreen.getSplitToggle().addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				mode = SelectionMode.SPLIT;
+				
+				mapScreen.getSelectedStoreTitleField().setText("Split Cart");
+				requestComparison(); // plans are only worked out in this mode
+				updateStrings();
+				
+				mapScreen.setSelectedStoreBool(false);
+			}
+    		});
 		/*Map screen elements*/
 		this.mapScreen.getBackButton().addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				nextState = AppState.MENU;
+				setNextState(AppState.MENU);
 			}
     		});
 		this.mapScreen.getCartButton().addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				nextState = AppState.CART;
+				setNextState(AppState.CART);
 			}
     		});
 		this.mapScreen.getCartList().addMouseListener(new MouseListener() {
@@ -410,17 +530,10 @@ public class Main implements MouseListener, MouseMotionListener {
 					selectedProductInfo = "Select a product";
 					return;
 				}
-				String productString = mapScreen.getCartModel().getElementAt(index);
-				Product match = null;
-				for (Product p : groceryCart) {
-					if (p.getName() == productString) {
-						match = p;
-						break;
-					}
-				}
-				selectedProduct = match;
+				selectedProduct = cartModel.getProductAt(index);
 				
 				updateSelectedProductInfoString();
+				updateLabels();
 			}
 			@Override
 			public void mousePressed(MouseEvent e) {}
@@ -453,10 +566,13 @@ public class Main implements MouseListener, MouseMotionListener {
 					this.frame.add(this.cartScreen.getRemoveButton());
 					this.frame.add(this.cartScreen.getCartLabel());
 					this.frame.add(this.cartScreen.getAllProductPane());
+					this.frame.add(this.cartScreen.getSearchField());
 					this.frame.add(this.cartScreen.getCartPane());
+					this.frame.add(this.cartScreen.getQuantitySpinner());
 					this.frame.add(this.cartScreen.getSelectToggle());
 					this.frame.add(this.cartScreen.getClosestToggle());
 					this.frame.add(this.cartScreen.getCheapestToggle());
+					this.frame.add(this.cartScreen.getSplitToggle());
 					this.frame.add(this.cartScreen.getToggleLabel());
 					this.addViewToFrame(this.cartScreen);
 					break;
@@ -479,25 +595,48 @@ public class Main implements MouseListener, MouseMotionListener {
 					break;
 				case EXIT:
 					this.running = false;
+					this.exitLatch.countDown();
 					break;
 				default:
 					break;
 			}
 			this.currState = this.nextState;
+			
+			/*New set of components - lay them out and paint the whole frame once*/
+			this.updateLabels();
+			this.frame.revalidate();
+			this.frame.repaint();
 		}
 	}
 	
-	/*Warning - this method is inefficient! setText() doesn't need to be called
-	 *on every label every single cycle. Ideally, setText() would be called only when
-	 *necessary, like once after a click or once for each update during a drag event. I'm
-	 *setting the text every cycle only because there's a noticeable flashing that occurs
-	 *when setText() is called once. This is either a swing issue or an issue with my old,
-	 *slow computer.*/
+	/*Called whenever something the labels show might have changed (after a click, or
+	 *once for each update during a drag event). setText() only repaints a label when its
+	 *text actually changes. The flashing that used to happen when setText() was called
+	 *once came from the map screen repainting over the labels on top of it; map repaints
+	 *now go through the frame (see RenderScheduler), so the labels get redrawn too.*/
 	public void updateLabels() {
 		switch (this.currState) {
 			case MAP:
-				/*Update selected store labels*/
-				if (this.selectedStore != null) {
+				/*Update selected store labels - in split mode they describe the plan*/
+				if (this.mode == SelectionMode.SPLIT && this.splitPlan != null && this.splitPlan.getStoreCount() > 0) {
+					StringBuilder names = new StringBuilder();
+					StringBuilder distances = new StringBuilder();
+					for (Store s : this.splitPlan.getStores()) {
+						if (names.length() > 0) {
+							names.append(" + ");
+							distances.append(" + ");
+						}
+						names.append(s.getName());
+						distances.append(s.getDistanceTo()).append(" ft");
+					}
+					this.mapScreen.getSelectedStoreNameField().setText("Name: " + names);
+					if (this.route != null && this.splitPlan.getStoreCount() > 1) {
+						distances.append(" (trip ").append(this.route.getLengthFeet()).append(" ft)");
+					}
+					this.mapScreen.getSelectedStoreDistanceField().setText("Distance: " + distances);
+					this.mapScreen.getSelectedStoreCartTotalField().setText("Cart Total: " + this.cartTotal);
+					this.mapScreen.getSelectedStoreMissingItemsField().setText("Missing Items: " + this.missingItemsString);
+				} else if (this.selectedStore != null) {
 					this.mapScreen.getSelectedStoreNameField().setText("Name: " + this.selectedStore.getName());
 					this.mapScreen.getSelectedStoreDistanceField().setText("Distance: " + this.selectedStore.getDistanceTo() + " ft");
 					this.mapScreen.getSelectedStoreCartTotalField().setText("Cart Total: " + this.cartTotal);
@@ -528,19 +667,22 @@ public class Main implements MouseListener, MouseMotionListener {
 	public void updateStrings() {
 		switch (this.mode) {
 			case CLOSEST:
-				this.calculateClosestStore();
-				this.selectedStore = this.closestStore;
+				this.selectedStore = this.closestStore; // as of the last comparison
 				break;
 			case CHEAPEST:
-				this.calculateCheapestStore();
 				this.selectedStore = this.cheapestStore;
 				break;
+			case SPLIT:
+				this.selectedStore = null; // there's a plan instead
+				break;
 			default:
 				break;
 		}
+		this.updateRoute();
 		this.updateSelectedProductInfoString();
 		this.updateCartTotalString();
 		this.updateMissingItemsString();
+		this.updateLabels();
 	}
 	
 	/*Update the selected product info string*/
@@ -549,13 +691,22 @@ public class Main implements MouseListener, MouseMotionListener {
 			this.selectedProductInfo = "Cart is empty";
 		} else if (this.selectedProduct == null) {
 			this.selectedProductInfo = "Select a product";
+		} else if (this.mode == SelectionMode.SPLIT && this.splitPlan != null) {
+			Store s = this.splitPlan.getStoreFor(this.selectedProduct.getId());
+			if (s == null) {
+				this.selectedProductInfo = "Item not available within " + this.splitMaxStores + " stores.";
+			} else {
+				this.selectedProductInfo = "Buy " + this.selectedProduct.getName() + " at " + s.getName() + ": " + this.formatQuantity(this.priceMatrix.getPrice(s, this.selectedProduct), this.selectedProduct);
+			}
 		} else if (this.selectedStore == null) {
 			this.selectedProductInfo = "Select a store";
-		} else if (!this.selectedStore.getInventory().contains(this.selectedProduct)) {
-			this.selectedProductInfo = "Item not available at " + this.selectedStore.getName() + ".";
 		} else {
-			BigDecimal price = this.selectedProduct.getBasePrice().multiply(BigDecimal.valueOf(this.selectedStore.getPriceModifier(this.selectedProduct)));
-			this.selectedProductInfo = "Price of " + this.selectedProduct.getName() + " at " + this.selectedStore.getName() + ": $" + this.df.format(price.doubleValue());
+			long price = this.priceMatrix.getPrice(this.selectedStore, this.selectedProduct);
+			if (price == PriceMatrix.UNAVAILABLE) {
+				this.selectedProductInfo = "Item not available at " + this.selectedStore.getName() + ".";
+			} else {
+				this.selectedProductInfo = "Price of " + this.selectedProduct.getName() + " at " + this.selectedStore.getName() + ": " + this.formatQuantity(price, this.selectedProduct);
+			}
 		}
 	}
 	
@@ -565,18 +716,35 @@ public class Main implements MouseListener, MouseMotionListener {
 			this.cartTotal = "Cart is empty";
 			return;
 		}
+		if (this.mode == SelectionMode.SPLIT && this.splitPlan != null) {
+			this.cartTotal = this.formatCents(this.splitPlan.getTotalCents());
+			if (this.splitPlan.getTravelCents() > 0) {
+				this.cartTotal += " (" + this.formatCents(this.splitPlan.getItemCents()) + " + " + this.formatCents(this.splitPlan.getTravelCents()) + " travel)";
+			}
+			if (!this.splitPlan.isOptimal()) {
+				this.cartTotal += " - best found";
+			}
+			return;
+		}
 		if (this.selectedStore == null) {
 			return;
 		}
 		
-		BigDecimal total = BigDecimal.valueOf(0.00);
-		for (Product p : this.groceryCart) {
-			if (this.selectedStore.getInventory().contains(p)) {
-				BigDecimal result = p.getBasePrice().multiply(BigDecimal.valueOf(this.selectedStore.getPriceModifier(p)));
-				total = total.add(result);
-			}
+		this.cartTotal = this.formatCents(this.quote.getTotal(this.selectedStore));
+	}
+	
+	/*Prices are kept in cents - only convert back to dollars for display*/
+	public String formatCents(long cents) {
+		return "$" + this.df.format(cents / 100.0);
+	}
+	
+	/*A price, and what the cart's quantity of the product comes to if it's more than one*/
+	public String formatQuantity(long cents, Product p) {
+		int quantity = this.groceryCart.get(p.getId());
+		if (quantity <= 1) {
+			return this.formatCents(cents);
 		}
-		this.cartTotal = "$" + this.df.format(total.doubleValue());
+		return this.formatCents(cents) + " each, " + this.formatCents(cents * quantity) + " for " + quantity;
 	}
 	
 	/*Find which items from the cart are missing and update the missing
@@ -586,84 +754,113 @@ public class Main implements MouseListener, MouseMotionListener {
 			this.missingItemsString = "Cart is empty";
 			return;
 		}
-		if (this.selectedStore == null) {
+		int[] missing;
+		if (this.mode == SelectionMode.SPLIT && this.splitPlan != null) {
+			missing = this.splitPlan.getUnavailable(); // in catalog order
+		} else if (this.selectedStore != null) {
+			missing = this.quote.getMissingItems(this.selectedStore); // in catalog order
+		} else {
 			return;
 		}
 		
-		ArrayList<Product> missing = new ArrayList<Product>();
-		for (Product p : this.groceryCart) {
-			boolean match = false;
-			for (Product q : this.selectedStore.getInventory()) {
-				if (q.getName() == p.getName()) {
-					match = true;
-				}
-			}
-			if (!match && !missing.contains(p)) {
-				missing.add(p);
-			}
-		}
-		if (missing.isEmpty()) {
+		if (missing.length == 0) {
 			this.missingItemsString = "None";
 		} else {
-			this.missingItemsString = "";
-			for (Product p : missing) {
-				this.missingItemsString += p.getName();
-				if (missing.indexOf(p) < missing.size() - 1) {
-					this.missingItemsString += ", ";
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < missing.length; i++) {
+				if (i > 0) {
+					sb.append(", ");
+				}
+				sb.append(this.productRegistry.get(missing[i]).getName());
+				int quantity = this.groceryCart.get(missing[i]);
+				if (quantity > 1) {
+					sb.append(" (x").append(quantity).append(")");
 				}
 			}
+			this.missingItemsString = sb.toString();
 		}
 	}
 	
-	/*Get distance between 2 points (in the context of this project, this "distance" 
-	 *will be in pixels)*/
-	public int getDistance(int x1, int x2, int y1, int y2) {
-		double x = Math.pow(x2 - x1, 2.0);
-		double y = Math.pow(y2 - y1, 2.0);
-		return (int)Math.sqrt(x + y);
+	/*The k closest stores to the user, closest first*/
+	public ArrayList<Store> getClosestStores(int k) {
+		return this.engine.getClosestStores(this.userXLoc, this.userYLoc, k);
 	}
 	
-	/*Calculate and update the distance between the user and store for all stores*/
-	public void calculateStoreDistances() {
-		for (Store s : this.stores) {
-			int distance = this.getDistance(this.userXLoc, s.getXLoc(), this.userYLoc, s.getYLoc());
-			s.setDistanceTo(distance * this.pixelsToFeetConstant); // multiply to make it look like feet
-		}
+	/*Every store within the given distance (in feet) of the user*/
+	public ArrayList<Store> getStoresWithinRadius(int feet) {
+		return this.engine.getStoresWithinRadius(this.userXLoc, this.userYLoc, feet);
 	}
 	
-	/*Calculate and update the closest store*/
-	public void calculateClosestStore() {
-		int closest = this.bigNumber; // start with some large number
-		for (Store s : this.stores) {
-			if (s.getDistanceTo() < closest) {
-				closest = s.getDistanceTo();
-				this.closestStore = s;
+	/*Plan the trip through the stores being shown - the split plan's stores in split
+	 *mode, otherwise the selected store - and put it on the map. Cheap enough to do on
+	 *every step of a drag (see RoutePlanner).*/
+	public void updateRoute() {
+		ArrayList<Store> stops = new ArrayList<Store>();
+		if (this.mode == SelectionMode.SPLIT) {
+			if (this.splitPlan != null) {
+				stops = this.splitPlan.getStores();
 			}
+		} else if (this.selectedStore != null) {
+			stops.add(this.selectedStore);
 		}
+		this.route = stops.isEmpty() ? null : this.routePlanner.plan(this.userXLoc, this.userYLoc, stops);
+		this.mapScreen.setRoute(this.route);
 	}
 	
-	/*Calculate and update the cheapest store*/
-	public void calculateCheapestStore() {
-		if (this.groceryCart.isEmpty()) {
-			this.cheapestStore = null;
-			return;
+	/*Ask for a new quote for the current location, cart and prices - the answer comes
+	 *back through applyComparison. The cart is only turned into arrays (and its totals
+	 *copied) again after it's changed, so the worker can tell a drag (same arrays) from
+	 *a cart edit, and never has to total the cart itself.*/
+	public void requestComparison() {
+		if (this.cartProductIds == null) {
+			this.cartProductIds = this.groceryCart.getIds();
+			this.cartQuantities = this.groceryCart.getQuantities();
+			this.fetchCartPrices(); // it's changed - get current prices for it
 		}
-		
-		BigDecimal cheapest = BigDecimal.valueOf(this.bigNumber); // start with some large number
+		if (this.quotedTotals == null) {
+			this.quotedTotals = this.cartTotals.copy();
+		}
+		int split = this.mode == SelectionMode.SPLIT ? this.splitMaxStores : 0;
+		this.comparisonWorker.submit(this.pricing, this.cartProductIds, this.cartQuantities, this.quotedTotals, this.userXLoc, this.userYLoc, split, this.splitCentsPerFoot);
+	}
+	
+	/*quantity more (or fewer) of a product went into the cart - only that product's
+	 *prices are added to the totals, O(stores)*/
+	private void cartEdited(int productId, int quantity) {
+		this.cartTotals.add(productId, quantity);
+		this.quotedTotals = null;
+		this.cartProductIds = null;
+	}
+	
+	/*Total the whole cart again against the current prices - only when they change*/
+	private void repriceCart() {
+		this.cartTotals = new CartTotals(this.priceMatrix);
+		for (int line = 0; line < this.groceryCart.size(); line++) {
+			this.cartTotals.add(this.groceryCart.getId(line), this.groceryCart.getQuantity(line));
+		}
+		this.quotedTotals = null;
+	}
+	
+	/*A quote came back (on the event thread) - take on its distances and closest and
+	 *cheapest stores, and the split plan if there is one, and update everything that
+	 *shows them*/
+	public void applyComparison(Quote q, SplitPlan split) {
+		this.setQuote(q);
+		if (this.mode == SelectionMode.SPLIT) {
+			this.splitPlan = split;
+		}
+		this.updateStrings();
+		this.mapScreen.refreshOverlays(); // distances in the store text changed
+	}
+	
+	/*Make the quote the one everything on screen comes from*/
+	public void setQuote(Quote q) {
+		this.quote = q;
 		for (Store s : this.stores) {
-			BigDecimal total = BigDecimal.valueOf(0.00);
-			for (Product p : this.groceryCart) {
-				if (s.getInventory().contains(p)) {
-					BigDecimal result = p.getBasePrice().multiply(BigDecimal.valueOf(s.getPriceModifier(p)));
-					total = total.add(result);
-				}
-			}
-			
-			if (total.compareTo(cheapest) == -1 && total.compareTo(BigDecimal.valueOf(0.00)) != 0) {
-				cheapest = total;
-				this.cheapestStore = s;
-			}
+			s.setDistanceTo(q.getDistance(s));
 		}
+		this.closestStore = q.getClosest();
+		this.cheapestStore = q.getCheapest();
 	}
 	
 	/*Add the given JPanel to the frame*/
@@ -676,12 +873,7 @@ public class Main implements MouseListener, MouseMotionListener {
 	/*Check store clicks*/
 	public void manageClick(int clickX, int clickY) {
 		if (this.mode == SelectionMode.SELECTED) {
-			Store match = null;
-			for (Store s : this.stores) {
-				if (this.inRegion(s.getXLoc(), s.getYLoc(), clickX, clickY, 2)) {
-					match = s;
-				}
-			}
+			Store match = this.mapScreen.getMarkerGrid().storeAt(clickX, clickY);
 			if (match != null) {
 				this.selectedStore = match;
 				this.updateStrings();
@@ -702,10 +894,16 @@ public class Main implements MouseListener, MouseMotionListener {
 		}
 	}
 	
-	/*If over user location, allow dragging of the point at that location*/
+	/*If over user location, allow dragging of the point at that location - anywhere
+	 *else on the map, dragging pans the map. The user location is in world coordinates,
+	 *so it's compared where it is on screen.*/
 	public void initUserLocDrag(int clickX, int clickY) {
-		if (this.inRegion(this.userXLoc, this.userYLoc, clickX, clickY, 3)) {
+		if (this.inRegion(this.mapScreen.toScreenX(this.userXLoc), this.mapScreen.toScreenY(this.userYLoc), clickX, clickY, 3)) {
 			this.userDragged = true;
+		} else if (this.mapScreen.onMap(clickX, clickY)) {
+			this.mapPanned = true;
+			this.panXLoc = clickX;
+			this.panYLoc = clickY;
 		}
 	}
 	
@@ -713,13 +911,8 @@ public class Main implements MouseListener, MouseMotionListener {
 	 *display info on hover if the hovered store is also the selected store. This
 	 *doesn't apply in the other two modes*/
 	public void manageMove(int moveX, int moveY) {
-		/*Check for store hovers*/
-		Store match = null;
-		for (Store s : this.stores) {
-			if (this.inRegion(s.getXLoc(), s.getYLoc(), moveX, moveY, 2)) {
-				match = s;
-			}
-		}
+		/*Check for store hovers - only the grid cell under the cursor is searched*/
+		Store match = this.mapScreen.getMarkerGrid().storeAt(moveX, moveY);
 		
 		if (match != null) {
 			if (this.mode == SelectionMode.SELECTED) {
@@ -736,7 +929,7 @@ public class Main implements MouseListener, MouseMotionListener {
 		}
 		
 		/*Check user loc hovers*/
-		if (this.inRegion(this.userXLoc, this.userYLoc, moveX, moveY, 2)) {
+		if (this.inRegion(this.mapScreen.toScreenX(this.userXLoc), this.mapScreen.toScreenY(this.userYLoc), moveX, moveY, 2)) {
 			this.userHovered = true;
 		} else {
 			this.userHovered = false;
@@ -763,26 +956,26 @@ public class Main implements MouseListener, MouseMotionListener {
 	
 	/*Check user location drags - keep the user location inside the map*/
 	public void manageDrag(int dragX, int dragY) {
+		if (this.mapPanned) {
+			this.mapScreen.panBy(dragX - this.panXLoc, dragY - this.panYLoc);
+			this.panXLoc = dragX;
+			this.panYLoc = dragY;
+		}
 		if (this.userDragged) {
 			int offsetMapX = this.mapXLoc - (this.mapWidth / 2);
 			if (dragX > offsetMapX && dragX < offsetMapX + this.mapWidth) {
-				this.userXLoc = dragX;
+				this.userXLoc = this.mapScreen.toWorldX(dragX);
 			}
 			int offsetMapY = this.mapYLoc - (this.mapHeight / 2);
 			if (dragY > offsetMapY && dragY < offsetMapY + this.mapHeight) {
-				this.userYLoc = dragY;
+				this.userYLoc = this.mapScreen.toWorldY(dragY);
 			}
 			
-			this.calculateStoreDistances();
-			this.calculateClosestStore();
-			
-			/*Map screen updates*/
+			/*Map screen updates - the point moves right away, distances and the closest
+			 *store follow when the worker has them*/
 			this.mapScreen.setUserLoc(this.userXLoc, this.userYLoc);
-			
-			/*If in closest mode, update strings on every drag event*/
-			if (this.mode == SelectionMode.CLOSEST) {
-				this.updateStrings();
-			}
+			this.updateRoute();
+			this.requestComparison();
 		}
 	}
 	
@@ -812,6 +1005,7 @@ public class Main implements MouseListener, MouseMotionListener {
 	@Override
 	public void mouseReleased(MouseEvent e) {
 		this.userDragged = false;
+		this.mapPanned = false;
 	}
 	
 	@Override
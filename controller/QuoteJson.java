@@ -0,0 +1,407 @@
+package controller;
+
+import classes.Product;
+import classes.ProductRegistry;
+import classes.Quote;
+import classes.Store;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/*The JSON the quote server, the batch quoter and the load client speak. Reading handles
+ *any JSON value - objects come back as HashMaps, arrays as ArrayLists, numbers as
+ *BigDecimals - and throws IllegalArgumentException (with the position) on anything
+ *malformed. A cart with its location looks like
+ *
+ *  {"x": 998, "y": 313, "items": [{"product": "Bananas", "quantity": 2}, {"id": 4}]}
+ *
+ *with products by name or by id and quantity 1 unless given (at most maxQuantity per
+ *item and maxItems in all, so totals can't overflow), and a quote like
+ *
+ *  {"pricingVersion": 3, "itemCount": 4,
+ *   "closest": {"store": "Store A", "distance": 1540},
+ *   "cheapest": {"store": "Store D", "totalCents": 1733},
+ *   "stores": [{"store": "Store A", "distance": 1540, "totalCents": 1805,
+ *               "missing": ["Bananas"]}, ...]}
+ *
+ *with distances in feet, and cheapest null when nothing in the cart is stocked anywhere.
+ *The stores array can be left out, when only the summary is wanted.*/
+public class QuoteJson {
+	static final int maxQuantity = 1000000; // per item
+	static final long maxItems = 100000000; // per cart, quantities added up
+	
+	private final String text;
+	private int pos = 0;
+	
+	private QuoteJson(String t) {
+		this.text = t;
+	}
+	
+	/*Parse one JSON value - the whole string has to be that value*/
+	public static Object parse(String text) {
+		QuoteJson p = new QuoteJson(text);
+		Object value = p.value();
+		p.skipSpace();
+		if (p.pos != text.length()) {
+			throw p.fail("Unexpected text after the value");
+		}
+		return value;
+	}
+	
+	/*A cart read by readCart - parallel arrays, as PriceComparisonEngine takes them*/
+	static class Cart {
+		final int x;
+		final int y;
+		final int[] productIds;
+		final int[] quantities;
+		
+		private Cart(int x, int y, int[] ids, int[] q) {
+			this.x = x;
+			this.y = y;
+			this.productIds = ids;
+			this.quantities = q;
+		}
+	}
+	
+	/*Read a cart and location - throws IllegalArgumentException if it's malformed or
+	 *names a product that doesn't exist*/
+	static Cart readCart(String json, ProductRegistry products) {
+		Object parsed = parse(json);
+		if (!(parsed instanceof HashMap)) {
+			throw new IllegalArgumentException("Expected an object");
+		}
+		HashMap<?, ?> obj = (HashMap<?, ?>)parsed;
+		int x = intField(obj, "x", null);
+		int y = intField(obj, "y", null);
+		Object items = obj.get("items");
+		if (items == null) {
+			items = new ArrayList<Object>();
+		}
+		if (!(items instanceof ArrayList)) {
+			throw new IllegalArgumentException("items must be an array");
+		}
+		ArrayList<?> list = (ArrayList<?>)items;
+		int[] ids = new int[list.size()];
+		int[] quantities = new int[list.size()];
+		long itemCount = 0;
+		for (int i = 0; i < ids.length; i++) {
+			if (!(list.get(i) instanceof HashMap)) {
+				throw new IllegalArgumentException("items[" + i + "] must be an object");
+			}
+			HashMap<?, ?> item = (HashMap<?, ?>)list.get(i);
+			Object name = item.get("product");
+			if (name != null) {
+				if (!(name instanceof String)) {
+					throw new IllegalArgumentException("items[" + i + "].product must be a string");
+				}
+				Product p = products.get((String)name);
+				if (p == null) {
+					throw new IllegalArgumentException("Unknown product \"" + name + "\"");
+				}
+				ids[i] = p.getId();
+			} else {
+				ids[i] = intField(item, "id", null);
+				if (!products.contains(ids[i])) {
+					throw new IllegalArgumentException("Unknown product id " + ids[i]);
+				}
+			}
+			quantities[i] = intField(item, "quantity", 1);
+			if (quantities[i] < 0) {
+				throw new IllegalArgumentException("items[" + i + "] has a negative quantity");
+			}
+			if (quantities[i] > maxQuantity) {
+				throw new IllegalArgumentException("items[" + i + "] has a quantity over " + maxQuantity);
+			}
+			itemCount += quantities[i];
+			if (itemCount > maxItems) {
+				throw new IllegalArgumentException("Cart has over " + maxItems + " items");
+			}
+		}
+		return new Cart(x, y, ids, quantities);
+	}
+	
+	/*A whole-number field, or the default if it's missing (null default means required)*/
+	private static int intField(HashMap<?, ?> obj, String name, Integer def) {
+		Object v = obj.get(name);
+		if (v == null) {
+			if (def == null) {
+				throw new IllegalArgumentException("Missing " + name);
+			}
+			return def;
+		}
+		if (!(v instanceof BigDecimal)) {
+			throw new IllegalArgumentException(name + " must be a number");
+		}
+		try {
+			return ((BigDecimal)v).intValueExact();
+		} catch (ArithmeticException e) {
+			throw new IllegalArgumentException(name + " must be a whole number");
+		}
+	}
+	
+	/*The quote as JSON - without the stores array unless perStore is set*/
+	public static String write(Quote q, ArrayList<Store> stores, ArrayList<Product> products, boolean perStore) {
+		StringBuilder sb = new StringBuilder(128 + stores.size() * 64);
+		sb.append("{\"pricingVersion\":").append(q.getPricing().getVersion());
+		sb.append(",\"itemCount\":").append(q.getItemCount());
+		sb.append(",\"closest\":");
+		if (q.getClosest() == null) {
+			sb.append("null");
+		} else {
+			sb.append("{\"store\":");
+			writeString(sb, q.getClosest().getName());
+			sb.append(",\"distance\":").append(q.getDistance(q.getClosest())).append('}');
+		}
+		sb.append(",\"cheapest\":");
+		if (q.getCheapest() == null) {
+			sb.append("null");
+		} else {
+			sb.append("{\"store\":");
+			writeString(sb, q.getCheapest().getName());
+			sb.append(",\"totalCents\":").append(q.getTotal(q.getCheapest())).append('}');
+		}
+		if (!perStore) {
+			sb.append('}');
+			return sb.toString();
+		}
+		sb.append(",\"stores\":[");
+		for (int i = 0; i < stores.size(); i++) {
+			Store s = stores.get(i);
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append("{\"store\":");
+			writeString(sb, s.getName());
+			sb.append(",\"distance\":").append(q.getDistance(s));
+			sb.append(",\"totalCents\":").append(q.getTotal(s));
+			sb.append(",\"missing\":[");
+			int[] missing = q.getMissingItems(s);
+			for (int j = 0; j < missing.length; j++) {
+				if (j > 0) {
+					sb.append(',');
+				}
+				writeString(sb, products.get(missing[j]).getName());
+			}
+			sb.append("]}");
+		}
+		sb.append("]}");
+		return sb.toString();
+	}
+	
+	public static String error(String message) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"error\":");
+		writeString(sb, message);
+		sb.append('}');
+		return sb.toString();
+	}
+	
+	public static void writeString(StringBuilder sb, String s) {
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '"':
+					sb.append("\\\"");
+					break;
+				case '\\':
+					sb.append("\\\\");
+					break;
+				case '\n':
+					sb.append("\\n");
+					break;
+				case '\r':
+					sb.append("\\r");
+					break;
+				case '\t':
+					sb.append("\\t");
+					break;
+				default:
+					if (c < 0x20) {
+						sb.append(String.format("\\u%04x", (int)c));
+					} else {
+						sb.append(c);
+					}
+					break;
+			}
+		}
+		sb.append('"');
+	}
+	
+	private IllegalArgumentException fail(String message, int at) {
+		return new IllegalArgumentException(message + " at position " + at);
+	}
+	
+	private IllegalArgumentException fail(String message) {
+		return this.fail(message, this.pos);
+	}
+	
+	private void skipSpace() {
+		while (this.pos < this.text.length()) {
+			char c = this.text.charAt(this.pos);
+			if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+				break;
+			}
+			this.pos++;
+		}
+	}
+	
+	private char peek() {
+		this.skipSpace();
+		if (this.pos >= this.text.length()) {
+			throw this.fail("Unexpected end of input");
+		}
+		return this.text.charAt(this.pos);
+	}
+	
+	private void expect(char c) {
+		if (this.peek() != c) {
+			throw this.fail("Expected '" + c + "'");
+		}
+		this.pos++;
+	}
+	
+	private Object value() {
+		char c = this.peek();
+		switch (c) {
+			case '{':
+				return this.object();
+			case '[':
+				return this.array();
+			case '"':
+				return this.string();
+			case 't':
+				this.literal("true");
+				return Boolean.TRUE;
+			case 'f':
+				this.literal("false");
+				return Boolean.FALSE;
+			case 'n':
+				this.literal("null");
+				return null;
+			default:
+				return this.number();
+		}
+	}
+	
+	private HashMap<String, Object> object() {
+		HashMap<String, Object> result = new HashMap<String, Object>();
+		this.expect('{');
+		if (this.peek() == '}') {
+			this.pos++;
+			return result;
+		}
+		while (true) {
+			if (this.peek() != '"') {
+				throw this.fail("Expected a field name");
+			}
+			String key = this.string();
+			this.expect(':');
+			result.put(key, this.value());
+			if (this.peek() == ',') {
+				this.pos++;
+			} else {
+				this.expect('}');
+				return result;
+			}
+		}
+	}
+	
+	private ArrayList<Object> array() {
+		ArrayList<Object> result = new ArrayList<Object>();
+		this.expect('[');
+		if (this.peek() == ']') {
+			this.pos++;
+			return result;
+		}
+		while (true) {
+			result.add(this.value());
+			if (this.peek() == ',') {
+				this.pos++;
+			} else {
+				this.expect(']');
+				return result;
+			}
+		}
+	}
+	
+	private String string() {
+		int start = this.pos;
+		this.pos++; // opening quote
+		StringBuilder sb = new StringBuilder();
+		while (true) {
+			if (this.pos >= this.text.length()) {
+				throw this.fail("Unterminated string", start);
+			}
+			char c = this.text.charAt(this.pos++);
+			if (c == '"') {
+				return sb.toString();
+			}
+			if (c != '\\') {
+				sb.append(c);
+				continue;
+			}
+			if (this.pos >= this.text.length()) {
+				throw this.fail("Unterminated string", start);
+			}
+			char e = this.text.charAt(this.pos++);
+			switch (e) {
+				case '"':
+				case '\\':
+				case '/':
+					sb.append(e);
+					break;
+				case 'b':
+					sb.append('\b');
+					break;
+				case 'f':
+					sb.append('\f');
+					break;
+				case 'n':
+					sb.append('\n');
+					break;
+				case 'r':
+					sb.append('\r');
+					break;
+				case 't':
+					sb.append('\t');
+					break;
+				case 'u':
+					if (this.pos + 4 > this.text.length()) {
+						throw this.fail("Bad \\u escape");
+					}
+					try {
+						sb.append((char)Integer.parseInt(this.text.substring(this.pos, this.pos + 4), 16));
+					} catch (NumberFormatException ex) {
+						throw this.fail("Bad \\u escape");
+					}
+					this.pos += 4;
+					break;
+				default:
+					throw this.fail("Bad escape", this.pos - 1);
+			}
+		}
+	}
+	
+	private BigDecimal number() {
+		int start = this.pos;
+		while (this.pos < this.text.length() && "+-0123456789.eE".indexOf(this.text.charAt(this.pos)) >= 0) {
+			this.pos++;
+		}
+		if (start == this.pos) {
+			throw this.fail("Unexpected character '" + this.text.charAt(start) + "'");
+		}
+		try {
+			return new BigDecimal(this.text.substring(start, this.pos));
+		} catch (NumberFormatException e) {
+			throw this.fail("Bad number", start);
+		}
+	}
+	
+	private void literal(String word) {
+		if (!this.text.startsWith(word, this.pos)) {
+			throw this.fail("Unexpected character '" + this.text.charAt(this.pos) + "'");
+		}
+		this.pos += word.length();
+	}
+}
@@ -0,0 +1,190 @@
+package controller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*Load generator for QuoteServer, to measure throughput and latency on one machine:
+ *
+ *  java controller.QuoteLoadClient [base url] [clients] [seconds] [items per cart]
+ *
+ *(http://127.0.0.1:8080, 16, 30 and 10 by default). Each client is a thread that sends
+ *a random cart from a random location, waits for the whole answer and sends the next
+ *one, over a kept-alive connection. The first fifth of the run is warm-up and isn't
+ *counted. Latency is measured from sending a request to having read its answer, so
+ *when the server falls behind it shows up as lower throughput rather than as queueing
+ *time - run with more clients to push it harder.*/
+public class QuoteLoadClient {
+	private static final int maxQuantity = 3;
+	
+	private final String baseUrl;
+	private final int itemsPerCart;
+	private int productCount;
+	private int mapWidth;
+	private int mapHeight;
+	
+	private volatile long countFrom; // nanoTime the warm-up ends
+	private volatile long stopAt; // nanoTime the run ends
+	private AtomicLong errors = new AtomicLong();
+	
+	public static void main(String[] args) throws Exception {
+		String url = args.length > 0 ? args[0] : "http://127.0.0.1:8080";
+		int clients = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+		int items = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+		new QuoteLoadClient(url, items).run(clients, seconds);
+	}
+	
+	public QuoteLoadClient(String url, int items) {
+		this.baseUrl = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+		this.itemsPerCart = items;
+	}
+	
+	public void run(int clients, int seconds) throws Exception {
+		this.readInfo();
+		System.out.println(this.productCount + " products, " + clients + " clients, " + seconds + " s, " + this.itemsPerCart + " items per cart");
+		
+		long start = System.nanoTime();
+		this.countFrom = start + seconds * 1000000000L / 5;
+		this.stopAt = start + seconds * 1000000000L;
+		final long[][] latencies = new long[clients][];
+		Thread[] threads = new Thread[clients];
+		for (int i = 0; i < clients; i++) {
+			final int client = i;
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					latencies[client] = clientLoop(new Random(client));
+				}
+			}, "quote-client-" + i);
+			threads[i].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		
+		int total = 0;
+		for (long[] l : latencies) {
+			total += l.length;
+		}
+		long[] all = new long[total];
+		int at = 0;
+		for (long[] l : latencies) {
+			System.arraycopy(l, 0, all, at, l.length);
+			at += l.length;
+		}
+		Arrays.sort(all);
+		double counted = (this.stopAt - this.countFrom) / 1e9;
+		System.out.println(String.format("%d quotes in %.1f s: %.0f quotes/s, %d errors", total, counted, total / counted, this.errors.get()));
+		if (total > 0) {
+			System.out.println(String.format("latency ms: p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f",
+					percentile(all, 0.50), percentile(all, 0.90), percentile(all, 0.99), percentile(all, 0.999), all[total - 1] / 1e6));
+		}
+	}
+	
+	/*Send quotes until the run ends - returns the latencies (in nanoseconds) of the ones
+	 *sent after the warm-up*/
+	private long[] clientLoop(Random r) {
+		long[] latencies = new long[1024];
+		int n = 0;
+		while (true) {
+			String body = this.randomCart(r);
+			long sent = System.nanoTime();
+			if (sent >= this.stopAt) {
+				break;
+			}
+			boolean ok;
+			try {
+				ok = this.post(body);
+			} catch (IOException e) {
+				ok = false;
+			}
+			long done = System.nanoTime();
+			if (!ok) {
+				this.errors.incrementAndGet();
+			} else if (sent >= this.countFrom && done <= this.stopAt) {
+				if (n == latencies.length) {
+					latencies = Arrays.copyOf(latencies, n * 2);
+				}
+				latencies[n++] = done - sent;
+			}
+		}
+		return Arrays.copyOf(latencies, n);
+	}
+	
+	private String randomCart(Random r) {
+		StringBuilder sb = new StringBuilder(32 + this.itemsPerCart * 28);
+		sb.append("{\"x\":").append(r.nextInt(this.mapWidth)).append(",\"y\":").append(r.nextInt(this.mapHeight)).append(",\"items\":[");
+		for (int i = 0; i < this.itemsPerCart; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append("{\"id\":").append(r.nextInt(this.productCount)).append(",\"quantity\":").append(1 + r.nextInt(maxQuantity)).append('}');
+		}
+		sb.append("]}");
+		return sb.toString();
+	}
+	
+	private boolean post(String body) throws IOException {
+		HttpURLConnection c = (HttpURLConnection)new URL(this.baseUrl + "/quote").openConnection();
+		c.setRequestMethod("POST");
+		c.setDoOutput(true);
+		c.setRequestProperty("Content-Type", "application/json");
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		c.setFixedLengthStreamingMode(bytes.length);
+		try (OutputStream out = c.getOutputStream()) {
+			out.write(bytes);
+		}
+		int status = c.getResponseCode();
+		InputStream in = status < 400 ? c.getInputStream() : c.getErrorStream();
+		if (in != null) {
+			readAll(in); // has to be read to the end for the connection to be reused
+		}
+		return status == 200;
+	}
+	
+	private void readInfo() throws IOException {
+		HttpURLConnection c = (HttpURLConnection)new URL(this.baseUrl + "/info").openConnection();
+		if (c.getResponseCode() != 200) {
+			throw new IOException("GET /info returned " + c.getResponseCode());
+		}
+		Object info = QuoteJson.parse(readAll(c.getInputStream()));
+		if (!(info instanceof HashMap)) {
+			throw new IOException("GET /info didn't return an object");
+		}
+		HashMap<?, ?> m = (HashMap<?, ?>)info;
+		this.productCount = ((BigDecimal)m.get("products")).intValueExact();
+		this.mapWidth = ((BigDecimal)m.get("width")).intValueExact();
+		this.mapHeight = ((BigDecimal)m.get("height")).intValueExact();
+		if (this.productCount == 0) {
+			throw new IOException("The server has no products");
+		}
+	}
+	
+	private static String readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[16 << 10];
+		try (InputStream i = in) {
+			int n;
+			while ((n = i.read(buf)) > 0) {
+				out.write(buf, 0, n);
+			}
+		}
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+	
+	/*In milliseconds, from sorted nanoseconds*/
+	private static double percentile(long[] sorted, double p) {
+		int i = (int)Math.ceil(p * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(i, sorted.length - 1))] / 1e6;
+	}
+}
@@ -0,0 +1,287 @@
+package controller;
+
+import classes.Catalog;
+import classes.CatalogSnapshot;
+import classes.PriceCache;
+import classes.PriceComparisonEngine;
+import classes.PriceFeed;
+import classes.PriceFetchCoordinator;
+import classes.PriceProvider;
+import classes.PricingSnapshot;
+import classes.Product;
+import classes.ProductRegistry;
+import classes.Quote;
+import classes.SimulatedPriceProvider;
+import classes.Store;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*Serves cart quotes over HTTP on localhost, with no window - the same comparison the
+ *map screen shows, from the same PriceComparisonEngine. Run it with
+ *
+ *  java controller.QuoteServer [port]
+ *
+ *(8080 by default) and POST a cart and a location to /quote:
+ *
+ *  {"x": 998, "y": 313, "items": [{"product": "Bananas", "quantity": 2}, {"id": 4}]}
+ *
+ *Products can be given by name or by id, and quantity defaults to 1. The location is in
+ *pixels of a 1920x1080 map, which is what the store locations are scaled to here. The
+ *answer is described in QuoteJson. GET /info gives the catalog size and map size, which
+ *is all QuoteLoadClient needs to make up carts.
+ *
+ *Each request gets its own virtual thread when the JVM has them (Java 21 on); older
+ *ones fall back to a fixed pool. Live prices come from the same feed file as the desktop
+ *app, and from the price providers if there are any (as in the app, with
+ *-Dprices.simulate=true for a simulated one): each quote waits up to
+ *-Dprices.waitMillis (250) for its cart's prices, then quotes with whatever's in. The
+ *coordinator's cache means a price many carts want at once is only fetched once, and
+ *then not again until it's out of date. GET /stats gives the cache's and providers'
+ *counts.*/
+public class QuoteServer {
+	private static final int defaultPort = 8080;
+	private static final int mapWidth = 1920;
+	private static final int mapHeight = 1080;
+	private static final int maxBody = 1 << 20; // bytes
+	static final int feetPerPixel = 11; // same as the map screen
+	
+	private static final String dataPath = "data";
+	private static final String snapshotPath = "data/server.snapshot"; // its own, since the screen size is fixed
+	private static final String priceFeedPath = "data/prices.feed";
+	
+	private ArrayList<Product> products;
+	private ArrayList<Store> stores;
+	private ProductRegistry registry;
+	private PriceComparisonEngine engine;
+	private PriceFeed priceFeed;
+	private PriceFetchCoordinator priceFetcher = null; // null without providers
+	private final long priceWaitMillis = Long.getLong("prices.waitMillis", 250);
+	
+	private HttpServer server;
+	private ExecutorService executor;
+	private boolean virtualThreads;
+	
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : defaultPort;
+		Catalog catalog = loadCatalog();
+		final QuoteServer s = new QuoteServer(catalog);
+		ArrayList<PriceProvider> providers = PriceFetchCoordinator.loadProviders();
+		if (Boolean.getBoolean("prices.simulate")) {
+			providers.add(new SimulatedPriceProvider());
+		}
+		s.setPriceProviders(catalog, providers);
+		s.start(port);
+		s.priceFeed.tail(new File(priceFeedPath));
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				s.stop();
+			}
+		});
+		System.out.println("Serving quotes on http://" + s.server.getAddress().getHostString() + ":" + s.getPort() + "/quote"
+				+ (s.virtualThreads ? " (virtual threads)" : " (thread pool)"));
+	}
+	
+	/*The catalog with store locations scaled to the fixed map size - also used by
+	 *BatchQuoter*/
+	static Catalog loadCatalog() throws IOException {
+		return CatalogSnapshot.openOrLoad(new File(dataPath), new File(snapshotPath), mapWidth, mapHeight);
+	}
+	
+	public QuoteServer(Catalog catalog) {
+		this.products = catalog.getProducts();
+		this.stores = catalog.getStores();
+		this.registry = catalog.getProductRegistry();
+		this.engine = new PriceComparisonEngine(this.stores, feetPerPixel);
+		this.priceFeed = new PriceFeed(this.stores, this.registry, new PricingSnapshot(catalog.getPriceMatrix(), this.stores));
+	}
+	
+	/*Fetch prices for every cart quoted from these providers - before start()*/
+	public void setPriceProviders(Catalog catalog, ArrayList<PriceProvider> providers) {
+		if (providers.isEmpty()) {
+			return;
+		}
+		this.priceFetcher = new PriceFetchCoordinator(catalog, providers, this.priceFeed);
+		if (this.priceFetcher.getProviderCount() == 0) {
+			this.priceFetcher.stop();
+			this.priceFetcher = null;
+		}
+	}
+	
+	public PriceFetchCoordinator getPriceFetcher() {
+		return this.priceFetcher;
+	}
+	
+	/*Start listening on a localhost port (0 picks a free one)*/
+	public void start(int port) throws IOException {
+		/*The JDK server writes the headers and the body of an answer separately, and with
+		 *Nagle's algorithm on the body then waits for the client's delayed ACK - about
+		 *40ms on every quote. It's read once, when the first server is created.*/
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+		this.server.createContext("/quote", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange ex) throws IOException {
+				handleQuote(ex);
+			}
+		});
+		this.server.createContext("/info", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange ex) throws IOException {
+				handleInfo(ex);
+			}
+		});
+		this.server.createContext("/stats", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange ex) throws IOException {
+				handleStats(ex);
+			}
+		});
+		this.executor = this.newExecutor();
+		this.server.setExecutor(this.executor);
+		this.priceFeed.start();
+		this.server.start();
+	}
+	
+	public void stop() {
+		this.server.stop(0);
+		this.executor.shutdown();
+		this.priceFeed.stop();
+		if (this.priceFetcher != null) {
+			this.priceFetcher.stop();
+		}
+	}
+	
+	public int getPort() {
+		return this.server.getAddress().getPort();
+	}
+	
+	/*A virtual thread per request if the JVM has them - looked up by reflection so this
+	 *still builds and runs on Java 17*/
+	private ExecutorService newExecutor() {
+		try {
+			ExecutorService e = (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			this.virtualThreads = true;
+			return e;
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			this.virtualThreads = false;
+			return Executors.newFixedThreadPool(Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+		}
+	}
+	
+	private void handleInfo(HttpExchange ex) throws IOException {
+		try {
+			if (!ex.getRequestMethod().equals("GET")) {
+				send(ex, 405, QuoteJson.error("Use GET"));
+				return;
+			}
+			send(ex, 200, "{\"products\":" + this.products.size() + ",\"stores\":" + this.stores.size()
+					+ ",\"width\":" + mapWidth + ",\"height\":" + mapHeight
+					+ ",\"pricingVersion\":" + this.priceFeed.current().getVersion() + "}");
+		} finally {
+			ex.close();
+		}
+	}
+	
+	private void handleStats(HttpExchange ex) throws IOException {
+		try {
+			if (!ex.getRequestMethod().equals("GET")) {
+				send(ex, 405, QuoteJson.error("Use GET"));
+				return;
+			}
+			StringBuilder sb = new StringBuilder("{\"published\":").append(this.priceFeed.getPublishedCount());
+			if (this.priceFetcher != null) {
+				PriceCache c = this.priceFetcher.getCache();
+				sb.append(",\"cache\":{\"size\":").append(c.size())
+						.append(",\"hits\":").append(c.getHitCount())
+						.append(",\"staleHits\":").append(c.getStaleHitCount())
+						.append(",\"misses\":").append(c.getMissCount())
+						.append(",\"joined\":").append(c.getJoinCount())
+						.append(",\"evicted\":").append(c.getEvictionCount())
+						.append(",\"notAdmitted\":").append(c.getRejectionCount()).append('}');
+			}
+			send(ex, 200, sb.append('}').toString());
+		} finally {
+			ex.close();
+		}
+	}
+	
+	private void handleQuote(HttpExchange ex) throws IOException {
+		try {
+			if (!ex.getRequestMethod().equals("POST")) {
+				send(ex, 405, QuoteJson.error("Use POST"));
+				return;
+			}
+			byte[] body = readBody(ex.getRequestBody());
+			if (body == null) {
+				send(ex, 413, QuoteJson.error("Request body over " + maxBody + " bytes"));
+				return;
+			}
+			String answer;
+			try {
+				answer = this.quote(new String(body, StandardCharsets.UTF_8));
+			} catch (IllegalArgumentException e) {
+				send(ex, 400, QuoteJson.error(e.getMessage()));
+				return;
+			}
+			send(ex, 200, answer);
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			send(ex, 500, QuoteJson.error("Internal error"));
+		} finally {
+			ex.close();
+		}
+	}
+	
+	/*Quote one request body, as JSON - throws IllegalArgumentException for a bad
+	 *request*/
+	String quote(String request) {
+		QuoteJson.Cart c = QuoteJson.readCart(request, this.registry);
+		if (this.priceFetcher != null) {
+			try {
+				this.priceFetcher.fetch(c.productIds).await(this.priceWaitMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt(); // quote with what's in
+			}
+		}
+		Quote q = this.engine.quote(this.priceFeed.current(), c.productIds, c.quantities, c.x, c.y);
+		return QuoteJson.write(q, this.stores, this.products, true);
+	}
+	
+	/*The whole body, or null if it's longer than maxBody*/
+	private static byte[] readBody(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int n;
+		while ((n = in.read(buf)) > 0) {
+			out.write(buf, 0, n);
+			if (out.size() > maxBody) {
+				return null;
+			}
+		}
+		return out.toByteArray();
+	}
+	
+	private static void send(HttpExchange ex, int status, String json) throws IOException {
+		byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+		ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		ex.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = ex.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+}
@@ -4,7 +4,10 @@
 mkdir exec
 
 # copy over map
-cp -r imgs exec/imgs
+cp -rp imgs exec/imgs
+
+# copy over the catalog
+cp -rp data exec/data
 
 # Compile all .java files from pre-made list of all .java files into exec directoy
 javac -g @argfile -d ./exec
@@ -13,6 +16,13 @@ javac -g @argfile -d ./exec
 cd exec
 java controller/Main
 
-# clean
 cd ..
+
+# Keep the generated map tiles so the next run doesn't have to rebuild them
+cp -r exec/imgs/tiles imgs/
+
+# Same for the catalog snapshot, so the data files aren't parsed again
+cp exec/data/catalog.snapshot data/
+
+# clean
 rm -rf exec
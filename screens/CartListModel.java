@@ -0,0 +1,76 @@
+package screens;
+
+import classes.CartCounts;
+import classes.Product;
+import classes.ProductRegistry;
+import javax.swing.AbstractListModel;
+
+/*The cart as a list model, one row per line of the cart (a product and how many of it),
+ *backed by the cart itself - one of these is shared by the cart and map screens, so the
+ *cart only has to be changed in one place (here) for both lists to show it.*/
+public class CartListModel extends AbstractListModel<String> {
+	private final CartCounts cart;
+	private final ProductRegistry products;
+	
+	public CartListModel(CartCounts c, ProductRegistry p) {
+		this.cart = c;
+		this.products = p;
+	}
+	
+	@Override
+	public int getSize() {
+		return this.cart.size();
+	}
+	
+	@Override
+	public String getElementAt(int index) {
+		String name = this.getProductAt(index).getName();
+		int quantity = this.cart.getQuantity(index);
+		return quantity == 1 ? name : name + " (x" + quantity + ")";
+	}
+	
+	public Product getProductAt(int index) {
+		return this.products.get(this.cart.getId(index));
+	}
+	
+	public int getQuantityAt(int index) {
+		return this.cart.getQuantity(index);
+	}
+	
+	/*Add quantity more of the product - a new row if it's not in the cart yet. Returns
+	 *its row.*/
+	public int add(Product p, int quantity) {
+		boolean added = this.cart.lineOf(p.getId()) == -1;
+		int line = this.cart.add(p.getId(), quantity);
+		if (added) {
+			this.fireIntervalAdded(this, line, line);
+		} else {
+			this.fireContentsChanged(this, line, line);
+		}
+		return line;
+	}
+	
+	/*Returns false if the row already had that quantity*/
+	public boolean setQuantity(int index, int quantity) {
+		if (this.cart.getQuantity(index) == quantity) {
+			return false;
+		}
+		this.cart.set(index, quantity);
+		this.fireContentsChanged(this, index, index);
+		return true;
+	}
+	
+	/*Take a row out and return its product. The last row takes its place (see
+	 *CartCounts).*/
+	public Product remove(int index) {
+		Product p = this.getProductAt(index);
+		int moved = this.cart.remove(index);
+		if (moved == -1) {
+			this.fireIntervalRemoved(this, index, index);
+		} else {
+			this.fireIntervalRemoved(this, moved, moved);
+			this.fireContentsChanged(this, index, index);
+		}
+		return p;
+	}
+}
@@ -1,13 +1,18 @@
 package screens;
 
 import classes.Product;
+import classes.ProductSearchIndex;
 import javax.swing.ButtonGroup;
-import javax.swing.DefaultListModel;
 import javax.swing.JList;
 import javax.swing.JRadioButton;
 import javax.swing.JScrollPane;
+import javax.swing.JSpinner;
+import javax.swing.JTextField;
 import javax.swing.ListSelectionModel;
 import javax.swing.ScrollPaneConstants;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.Font;
 import java.util.ArrayList;
 
@@ -20,22 +25,31 @@ public class CartScreen extends NonMenuScreen {
 	private Label cartLabel;
 	
 	private JScrollPane allProductsPane;
-	private DefaultListModel<String> productsModel;
+	private CatalogListModel productsModel; // every product, or search results
 	private JList<String> allProductsList;
 	
+	private ArrayList<Product> products;
+	private JTextField searchField;
+	private ProductSearchIndex searchIndex = null; // built on the first search
+	private final int searchLimit = 200; // results shown for a search
+	
 	private JScrollPane cartListPane;
-	private DefaultListModel<String> cartModel;
+	private CartListModel cartModel; // shared with the map screen
 	private JList<String> cartList;
+	private JSpinner quantitySpinner; // quantity of the selected cart row
+	private final int maxQuantity = 9999;
 	
 	private ButtonGroup modeToggle;
 	private JRadioButton selectToggle;
 	private JRadioButton closestToggle;
 	private JRadioButton cheapestToggle;
+	private JRadioButton splitToggle;
 	
 	private Label toggleLabel;
 	
-	/*The passed ArrayList of products will be used to populate productsModel*/
-	public CartScreen(int w, int h, ArrayList<Product> p) {
+	/*The product list reads straight from the passed ArrayList of products, and the cart
+	 *list from the passed model*/
+	public CartScreen(int w, int h, ArrayList<Product> p, CartListModel c) {
 		super(w, h);
 		
 		/*Update title*/
@@ -65,23 +79,42 @@ public class CartScreen extends NonMenuScreen {
 		int cartListXLoc = 3 * listBaseXLoc;
 		
 		/*Initialize list of products*/
-		this.productsModel = new DefaultListModel<String>();
-		for (Product pr : p) {
-			this.productsModel.addElement(pr.getName());
-		}
+		this.productsModel = new CatalogListModel(p);
 		this.allProductsList = new JList<String>(this.productsModel);
 		this.allProductsList.setSelectionMode(ListSelectionModel.SINGLE_INTERVAL_SELECTION);
 		this.allProductsPane = new JScrollPane(this.allProductsList);
 		this.allProductsPane.setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_ALWAYS);
 		this.allProductsPane.setBounds(allProductsListXLoc, listYLoc, listWidth, listHeight);
+		this.fixCellSize(this.allProductsList, this.allProductsPane, listWidth);
+		
+		/*Initialize search box, right above the list of products - the list narrows down
+		 *as the user types*/
+		int searchHeight = h / 30;
+		this.products = p;
+		this.searchField = new JTextField();
+		this.searchField.setBounds(allProductsListXLoc, listYLoc - searchHeight, listWidth, searchHeight);
+		this.searchField.setToolTipText("Search products");
+		this.searchField.getDocument().addDocumentListener(new DocumentListener() {
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				showMatches();
+			}
+			@Override
+			public void removeUpdate(DocumentEvent e) {
+				showMatches();
+			}
+			@Override
+			public void changedUpdate(DocumentEvent e) {}
+		});
 		
 		/*Initialize cart*/
-		this.cartModel = new DefaultListModel<String>();
+		this.cartModel = c;
 		this.cartList = new JList<String>(this.cartModel);
 		this.cartList.setSelectionMode(ListSelectionModel.SINGLE_INTERVAL_SELECTION);
 		this.cartListPane = new JScrollPane(this.cartList);
 		this.cartListPane.setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_ALWAYS);
 		this.cartListPane.setBounds(cartListXLoc, listYLoc, listWidth, listHeight);
+		this.fixCellSize(this.cartList, this.cartListPane, listWidth);
 		
 		/*Calculate add & remove button positioning*/
 		int otherButtonWidth = w / 15;
@@ -104,6 +137,16 @@ public class CartScreen extends NonMenuScreen {
 				otherButtonWidth,
 				otherButtonHeight);
 		
+		/*Initialize quantity spinner, under the right edge of the cart*/
+		int spinnerWidth = w / 25;
+		int spinnerHeight = h / 30;
+		this.quantitySpinner = new JSpinner(new SpinnerNumberModel(1, 1, this.maxQuantity, 1));
+		this.quantitySpinner.setBounds(cartListXLoc + listWidth - spinnerWidth,
+				otherButtonYLoc,
+				spinnerWidth,
+				spinnerHeight);
+		this.quantitySpinner.setToolTipText("How many of the selected item");
+		
 		/*Calculate cart label positioning*/
 		int cartLabelWidth = w / 10;
 		int cartLabelHeight = h / 20;
@@ -126,6 +169,7 @@ public class CartScreen extends NonMenuScreen {
 		int selectToggleYLoc = 5 * h / 7;
 		int closestToggleYLoc = selectToggleYLoc + toggleHeight;
 		int cheapestToggleYLoc = closestToggleYLoc + toggleHeight;
+		int splitToggleYLoc = cheapestToggleYLoc + toggleHeight;
 		
 		/*Initialize mode toggle button group*/
 		this.selectToggle = new JRadioButton("Selected store info");
@@ -146,10 +190,17 @@ public class CartScreen extends NonMenuScreen {
 				toggleWidth, 
 				toggleHeight);
 		
+		this.splitToggle = new JRadioButton("Split cart info");
+		this.splitToggle.setBounds(toggleXLoc,
+				splitToggleYLoc,
+				toggleWidth,
+				toggleHeight);
+		
 		this.modeToggle = new ButtonGroup();
 		this.modeToggle.add(this.selectToggle);
 		this.modeToggle.add(this.closestToggle);
 		this.modeToggle.add(this.cheapestToggle);
+		this.modeToggle.add(this.splitToggle);
 		
 		/*Start with selected toggle on*/
 		this.selectToggle.setSelected(true);
@@ -185,7 +236,25 @@ public class CartScreen extends NonMenuScreen {
 		return this.cartLabel;
 	}
 	
-	public DefaultListModel<String> getProductModel() {
+	/*Show the products matching what's in the search box, best first - or all of them
+	 *if it's empty*/
+	private void showMatches() {
+		String query = this.searchField.getText();
+		if (query.trim().isEmpty()) {
+			this.productsModel.showOnly(null);
+		} else {
+			if (this.searchIndex == null) {
+				this.searchIndex = new ProductSearchIndex(this.products);
+			}
+			this.productsModel.showOnly(this.searchIndex.search(query, this.searchLimit));
+		}
+	}
+	
+	public JTextField getSearchField() {
+		return this.searchField;
+	}
+	
+	public CatalogListModel getProductModel() {
 		return this.productsModel;
 	}
 	
@@ -197,7 +266,7 @@ public class CartScreen extends NonMenuScreen {
 		return this.allProductsPane;
 	}
 	
-	public DefaultListModel<String> getCartModel() {
+	public CartListModel getCartModel() {
 		return this.cartModel;
 	}
 	
@@ -209,6 +278,10 @@ public class CartScreen extends NonMenuScreen {
 		return this.cartListPane;
 	}
 	
+	public JSpinner getQuantitySpinner() {
+		return this.quantitySpinner;
+	}
+	
 	public JRadioButton getSelectToggle() {
 		return this.selectToggle;
 	}
@@ -221,6 +294,10 @@ public class CartScreen extends NonMenuScreen {
 		return this.cheapestToggle;
 	}
 	
+	public JRadioButton getSplitToggle() {
+		return this.splitToggle;
+	}
+	
 	public Label getToggleLabel() {
 		return this.toggleLabel;
 	}
@@ -0,0 +1,46 @@
+package screens;
+
+import classes.Product;
+import javax.swing.AbstractListModel;
+import java.util.ArrayList;
+
+/*The product list, read straight out of the catalog - nothing is copied, a row's text
+ *is only looked up when Swing paints it, so it costs the same for 25 products or a few
+ *hundred thousand. Can be narrowed down to some of the products (search results) and
+ *back.*/
+public class CatalogListModel extends AbstractListModel<String> {
+	private final ArrayList<Product> products;
+	private int[] shown = null; // product ids shown, in order - null for all of them
+	
+	public CatalogListModel(ArrayList<Product> p) {
+		this.products = p;
+	}
+	
+	@Override
+	public int getSize() {
+		return this.shown == null ? this.products.size() : this.shown.length;
+	}
+	
+	@Override
+	public String getElementAt(int index) {
+		return this.getProductAt(index).getName();
+	}
+	
+	public Product getProductAt(int index) {
+		return this.products.get(this.shown == null ? index : this.shown[index]);
+	}
+	
+	/*Only show the given product ids, in that order - or every product if null*/
+	public void showOnly(int[] ids) {
+		int oldSize = this.getSize();
+		this.shown = null;
+		if (oldSize > 0) {
+			this.fireIntervalRemoved(this, 0, oldSize - 1);
+		}
+		this.shown = ids;
+		int newSize = this.getSize();
+		if (newSize > 0) {
+			this.fireIntervalAdded(this, 0, newSize - 1);
+		}
+	}
+}
@@ -1,20 +1,28 @@
 package screens;
 
+import classes.Route;
 import classes.Store;
-import javax.swing.DefaultListModel;
 import javax.swing.JList;
 import javax.swing.JScrollPane;
 import javax.swing.ListSelectionModel;
 import javax.swing.ScrollPaneConstants;
 import javax.swing.SwingConstants;
+import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Font;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.MouseWheelListener;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
-import java.io.File;
 import java.io.IOException;
-import javax.imageio.ImageIO;
 
 public class MapScreen extends NonMenuScreen {
 	
@@ -25,10 +33,24 @@ public class MapScreen extends NonMenuScreen {
 	
 	/*Some deception here: this "map" is just a static image of 
 	 *Google maps, not interactive in any way. To get an interactive
-	 *map, would use Java FX (or something other than Java in general).*/
+	 *map, would use Java FX (or something other than Java in general).
+	 *It is at least cut into a tile pyramid (see TilePyramid) so it can
+	 *be zoomed and panned, and only the visible tiles get decoded.*/
 	private final String mapPath = "imgs/map.png";
+	private final String tilePath = "imgs/tiles";
+	private final int tileCacheCapacity = 128; // decoded tiles kept in memory, 256 KB each at most
 	
-	private BufferedImage map;
+	private TilePyramid tilePyramid;
+	private TileCache tileCache;
+	
+	/*"World" coordinates are the screen coordinates things have when the map is
+	 *zoomed all the way out - store and user locations are in world coordinates.
+	 *The view is the part of the world showing in the map area: its top left corner
+	 *and how far it's zoomed in.*/
+	private double viewX;
+	private double viewY;
+	private double zoom = 1;
+	private double maxZoom = 4;
 	
 	private int mapXLoc;
 	private int mapYLoc;
@@ -37,7 +59,13 @@ public class MapScreen extends NonMenuScreen {
 	
 	private int mapBorderThickness = 2;
 	
+	/*The map image, border and store markers don't change from one paint to the
+	 *next, so they're drawn once into this (already scaled) and just copied to the
+	 *screen after that. Thrown away when the screen is resized or the stores change.*/
+	private BufferedImage staticLayer = null;
+	
 	private ArrayList<Store> stores;
+	private MarkerGrid markerGrid; // for hit testing the store markers
 	
 	private Store selectedStore;
 	private boolean storeSelected = false;
@@ -51,6 +79,18 @@ public class MapScreen extends NonMenuScreen {
 	
 	private int pointDimensions;
 	
+	private Font overlayFont = new Font("SansSerif", Font.BOLD, 14);
+	
+	private Route route = null; // trip drawn over the map, if any
+	private Color routeColor = new Color(0, 128, 0);
+	private int routeThickness = 3;
+	
+	/*Repaints are driven by changes - setters below mark what moved as dirty. The
+	 *overlays (user point, route and hover/selection text) are the only things that change
+	 *between paints, so remember where they were last drawn to know what to erase.*/
+	private RenderScheduler renderScheduler;
+	private Rectangle paintedOverlays = null;
+	
 	private Label closestStoreTitleField;
 	private Label closestStoreInfoField;
 	private Label closestStoreDistanceField;
@@ -65,10 +105,10 @@ public class MapScreen extends NonMenuScreen {
 	private Label itemInfoLabel;
 	
 	private JScrollPane cartListPane;
-	private DefaultListModel<String> cartModel;
+	private CartListModel cartModel; // shared with the cart screen
 	private JList<String> cartList;
 	
-	public MapScreen(int w, int h, int userX, int userY, ArrayList<Store> s, int dim) {
+	public MapScreen(int w, int h, int userX, int userY, ArrayList<Store> s, int dim, CartListModel c) {
 		super(w, h);
 		
 		this.screenWidth = w;
@@ -77,6 +117,7 @@ public class MapScreen extends NonMenuScreen {
 		this.userYLoc = userY;
 		this.stores = s;
 		this.pointDimensions = dim;
+		this.renderScheduler = new RenderScheduler(this);
 		
 		/*Update title*/
 		this.title.setText("Pick your store");
@@ -100,13 +141,47 @@ public class MapScreen extends NonMenuScreen {
 		this.mapWidth = w / 2;
 		this.mapHeight = h / 2;
 		
-		/*Set map image*/
+		/*Start zoomed all the way out*/
+		this.viewX = this.getMapLeft();
+		this.viewY = this.getMapTop();
+		
+		/*Open the map's tile pyramid (built from the map image the first time)*/
 		try {
-			this.map = ImageIO.read(new File(this.mapPath));
+			this.tilePyramid = TilePyramid.open(this.mapPath, this.tilePath);
+			this.tileCache = new TileCache(this.tilePyramid, this.tileCacheCapacity, new Runnable() {
+				@Override
+				public void run() {
+					invalidateStaticLayer(); // a tile finished decoding
+				}
+			});
+			
+			/*Allow zooming in until a source pixel is 4 screen pixels across*/
+			this.maxZoom = Math.max(this.maxZoom, 4.0 * this.tilePyramid.getWidth() / this.mapWidth);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 		
+		/*Index store markers for hover/click checks*/
+		this.rebuildMarkerGrid();
+		
+		/*Scroll wheel zooms in and out around the cursor*/
+		this.addMouseWheelListener(new MouseWheelListener() {
+			@Override
+			public void mouseWheelMoved(MouseWheelEvent e) {
+				if (onMap(e.getX(), e.getY())) {
+					zoomAt(e.getX(), e.getY(), Math.pow(1.25, -e.getPreciseWheelRotation()));
+				}
+			}
+		});
+		
+		/*Cached static layer has to be redrawn at the new size*/
+		this.addComponentListener(new ComponentAdapter() {
+			@Override
+			public void componentResized(ComponentEvent e) {
+				invalidateStaticLayer();
+			}
+		});
+		
 		/*Calculate closest store label positioning*/
 		int closestStoreFieldsXLoc = this.mapXLoc - (this.mapWidth / 2) + (w / 150);
 		int closestStoreFieldsBaseYLoc = this.mapYLoc - (this.mapHeight / 2);
@@ -143,12 +218,13 @@ public class MapScreen extends NonMenuScreen {
 		int cartListYLoc = 2 * h / 3;
 
 		/*Initialize cart*/
-		this.cartModel = new DefaultListModel<String>();
+		this.cartModel = c;
 		this.cartList = new JList<String>(this.cartModel);
 		this.cartList.setSelectionMode(ListSelectionModel.SINGLE_INTERVAL_SELECTION);
 		this.cartListPane = new JScrollPane(this.cartList);
 		this.cartListPane.setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_ALWAYS);
 		this.cartListPane.setBounds(cartListXLoc, cartListYLoc, cartListWidth, cartListHeight);
+		this.fixCellSize(this.cartList, this.cartListPane, cartListWidth);
 		
 		/*Calculate cart label positioning*/
 		int cartLabelWidth = w / 10;
@@ -240,6 +316,99 @@ public class MapScreen extends NonMenuScreen {
 		return this.mapHeight;
 	}
 	
+	/*Rebuilt lazily - after a zoom or pan, the grid is only redone the first time
+	 *something is hit tested*/
+	public MarkerGrid getMarkerGrid() {
+		if (this.markerGrid == null) {
+			this.rebuildMarkerGrid();
+		}
+		return this.markerGrid;
+	}
+	
+	/*Only needed when marker positions on screen change (map zoomed/panned or the
+	 *stores changed) - hit boxes are twice the marker size in each direction*/
+	public void rebuildMarkerGrid() {
+		int[] xs = new int[this.stores.size()];
+		int[] ys = new int[this.stores.size()];
+		for (int i = 0; i < xs.length; i++) {
+			xs[i] = this.toScreenX(this.stores.get(i).getXLoc());
+			ys[i] = this.toScreenY(this.stores.get(i).getYLoc());
+		}
+		this.markerGrid = new MarkerGrid(this.stores,
+				xs,
+				ys,
+				this.getMapLeft(),
+				this.getMapTop(),
+				this.mapWidth,
+				this.mapHeight,
+				this.pointDimensions * 2);
+	}
+	
+	private int getMapLeft() {
+		return this.mapXLoc - (this.mapWidth / 2);
+	}
+	
+	private int getMapTop() {
+		return this.mapYLoc - (this.mapHeight / 2);
+	}
+	
+	/*World <-> screen coordinate conversions for the current view*/
+	public int toScreenX(int worldX) {
+		return (int)Math.round(this.getMapLeft() + (worldX - this.viewX) * this.zoom);
+	}
+	
+	public int toScreenY(int worldY) {
+		return (int)Math.round(this.getMapTop() + (worldY - this.viewY) * this.zoom);
+	}
+	
+	public int toWorldX(int screenX) {
+		return (int)Math.round(this.viewX + (screenX - this.getMapLeft()) / this.zoom);
+	}
+	
+	public int toWorldY(int screenY) {
+		return (int)Math.round(this.viewY + (screenY - this.getMapTop()) / this.zoom);
+	}
+	
+	/*Is the screen point inside the map area*/
+	public boolean onMap(int screenX, int screenY) {
+		return screenX >= this.getMapLeft() && screenX <= this.getMapLeft() + this.mapWidth
+				&& screenY >= this.getMapTop() && screenY <= this.getMapTop() + this.mapHeight;
+	}
+	
+	public double getZoom() {
+		return this.zoom;
+	}
+	
+	/*Zoom by the factor, keeping the world point under the cursor where it is*/
+	public void zoomAt(int screenX, int screenY, double factor) {
+		double newZoom = Math.max(1, Math.min(this.maxZoom, this.zoom * factor));
+		if (newZoom == this.zoom) {
+			return;
+		}
+		double worldX = this.viewX + (screenX - this.getMapLeft()) / this.zoom;
+		double worldY = this.viewY + (screenY - this.getMapTop()) / this.zoom;
+		this.zoom = newZoom;
+		this.viewX = worldX - (screenX - this.getMapLeft()) / this.zoom;
+		this.viewY = worldY - (screenY - this.getMapTop()) / this.zoom;
+		this.viewChanged();
+	}
+	
+	/*Move the view by a drag of dx, dy screen pixels*/
+	public void panBy(int dx, int dy) {
+		this.viewX -= dx / this.zoom;
+		this.viewY -= dy / this.zoom;
+		this.viewChanged();
+	}
+	
+	/*Keep the view inside the map, then redo everything that depends on it*/
+	private void viewChanged() {
+		this.viewX = Math.max(this.getMapLeft(), Math.min(this.getMapLeft() + this.mapWidth - this.mapWidth / this.zoom, this.viewX));
+		this.viewY = Math.max(this.getMapTop(), Math.min(this.getMapTop() + this.mapHeight - this.mapHeight / this.zoom, this.viewY));
+		this.markerGrid = null;
+		this.invalidateStaticLayer();
+		this.refreshOverlays();
+	}
+	
 	public Label getClosestStoreTitleField() {
 		return this.closestStoreTitleField;
 	}
@@ -276,7 +445,7 @@ public class MapScreen extends NonMenuScreen {
 		return this.cartListPane;
 	}
 	
-	public DefaultListModel<String> getCartModel() {
+	public CartListModel getCartModel() {
 		return this.cartModel;
 	}
 	
@@ -292,9 +461,50 @@ public class MapScreen extends NonMenuScreen {
 		return this.itemInfoLabel;
 	}
 	
-	public void paint(Graphics g) {
+	/*Swap in a new set of stores - markers are part of the cached layer and the
+	 *hit-test grid, so both are redone*/
+	public void setStores(ArrayList<Store> s) {
+		this.stores = s;
+		this.rebuildMarkerGrid();
+		this.invalidateStaticLayer();
+	}
+	
+	public void invalidateStaticLayer() {
+		this.staticLayer = null;
+		this.renderScheduler.markDirty(this.getMapLeft() - this.mapBorderThickness,
+				this.getMapTop() - this.mapBorderThickness,
+				this.mapWidth + (this.mapBorderThickness * 2) + 1,
+				this.mapHeight + (this.mapBorderThickness * 2) + 1);
+	}
+	
+	/*Draw the visible map tiles, the map border, the distance info box and the
+	 *store markers into an image in the screen's pixel format (so copying it to the
+	 *screen is a straight blit). The image covers the map plus its border.*/
+	private BufferedImage renderStaticLayer() {
+		int originX = this.mapXLoc - (this.mapWidth / 2) - this.mapBorderThickness;
+		int originY = this.mapYLoc - (this.mapHeight / 2) - this.mapBorderThickness;
+		int width = this.mapWidth + (this.mapBorderThickness * 2) + 1;
+		int height = this.mapHeight + (this.mapBorderThickness * 2) + 1;
+		
+		GraphicsConfiguration gc = this.getGraphicsConfiguration();
+		BufferedImage layer;
+		if (gc != null) {
+			layer = gc.createCompatibleImage(width, height);
+		} else if (!GraphicsEnvironment.isHeadless()) {
+			layer = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration().createCompatibleImage(width, height);
+		} else {
+			layer = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		}
+		
+		Graphics g = layer.getGraphics();
+		g.setColor(this.getBackground());
+		g.fillRect(0, 0, width, height);
+		g.translate(-originX, -originY);
+		
 		/*Draw map*/
-		g.drawImage(this.map, this.mapXLoc - (this.mapWidth / 2), this.mapYLoc - (this.mapHeight / 2), this.mapWidth, this.mapHeight, null);
+		Graphics mapArea = g.create();
+		mapArea.clipRect(this.getMapLeft(), this.getMapTop(), this.mapWidth, this.mapHeight);
+		this.drawTiles(mapArea);
 		
 		/*Draw map border box*/
 		for (int i = 0; i < this.mapBorderThickness; i++) {
@@ -307,59 +517,277 @@ public class MapScreen extends NonMenuScreen {
 		g.setColor(Color.WHITE);
 		g.fillRect(this.mapXLoc - (this.mapWidth / 2), this.mapYLoc - (this.mapHeight / 2), this.screenWidth / 13, this.screenHeight / 17);
 		
-		/*Draw point at user location*/
-		g.setColor(Color.RED);
-		g.fillRect(this.userXLoc - (this.pointDimensions / 2), this.userYLoc - (this.pointDimensions / 2), this.pointDimensions, this.pointDimensions);
-		
 		/*Draw store markers*/
+		mapArea.setColor(Color.BLUE);
 		for (Store s : this.stores) {
-			g.setColor(Color.BLUE);
-			g.fillRect(s.getXLoc() - (this.pointDimensions / 2), s.getYLoc() - (this.pointDimensions / 2), this.pointDimensions, this.pointDimensions);
+			mapArea.fillRect(this.toScreenX(s.getXLoc()) - (this.pointDimensions / 2), this.toScreenY(s.getYLoc()) - (this.pointDimensions / 2), this.pointDimensions, this.pointDimensions);
+		}
+		
+		mapArea.dispose();
+		g.dispose();
+		return layer;
+	}
+	
+	/*Draw the tiles covering the view, from the coarsest pyramid level that still
+	 *has at least one source pixel per screen pixel*/
+	private void drawTiles(Graphics g) {
+		if (this.tileCache == null) {
+			g.setColor(Color.GRAY);
+			g.fillRect(this.getMapLeft(), this.getMapTop(), this.mapWidth, this.mapHeight);
+			return;
+		}
+		
+		int level = 0;
+		double sourcePerScreen = (double)this.tilePyramid.getWidth() / this.mapWidth / this.zoom;
+		while (level < this.tilePyramid.getLevels() - 1 && sourcePerScreen >= 2) {
+			sourcePerScreen /= 2;
+			level++;
+		}
+		
+		/*The top level is one small tile - always keep it around to stretch over
+		 *tiles that are still decoding*/
+		this.tileCache.get(this.tilePyramid.getLevels() - 1, 0, 0);
+		
+		/*Level pixels per world unit, and which tiles the view covers*/
+		int levelWidth = this.tilePyramid.getLevelWidth(level);
+		int levelHeight = this.tilePyramid.getLevelHeight(level);
+		double scaleX = (double)levelWidth / this.mapWidth;
+		double scaleY = (double)levelHeight / this.mapHeight;
+		int tile = TilePyramid.TILE_SIZE;
+		int firstCol = Math.max(0, (int)((this.viewX - this.getMapLeft()) * scaleX) / tile);
+		int lastCol = Math.min(this.tilePyramid.getColumns(level) - 1, (int)((this.viewX + this.mapWidth / this.zoom - this.getMapLeft()) * scaleX) / tile);
+		int firstRow = Math.max(0, (int)((this.viewY - this.getMapTop()) * scaleY) / tile);
+		int lastRow = Math.min(this.tilePyramid.getRows(level) - 1, (int)((this.viewY + this.mapHeight / this.zoom - this.getMapTop()) * scaleY) / tile);
+		
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int col = firstCol; col <= lastCol; col++) {
+				int x1 = this.levelToScreenX(col * tile, scaleX);
+				int y1 = this.levelToScreenY(row * tile, scaleY);
+				int x2 = this.levelToScreenX(Math.min((col + 1) * tile, levelWidth), scaleX);
+				int y2 = this.levelToScreenY(Math.min((row + 1) * tile, levelHeight), scaleY);
+				BufferedImage image = this.tileCache.get(level, col, row);
+				if (image != null) {
+					g.drawImage(image, x1, y1, x2, y2, 0, 0, image.getWidth(), image.getHeight(), null);
+				} else {
+					this.drawTileFallback(g, level, col, row, x1, y1, x2, y2);
+				}
+			}
+		}
+	}
+	
+	/*Stretch the matching part of a coarser tile that's already in memory over a tile
+	 *that's still being decoded - or just fill it in if there isn't one*/
+	private void drawTileFallback(Graphics g, int level, int col, int row, int x1, int y1, int x2, int y2) {
+		for (int l = level + 1; l < this.tilePyramid.getLevels(); l++) {
+			int shift = l - level;
+			BufferedImage parent = this.tileCache.peek(l, col >> shift, row >> shift);
+			if (parent != null) {
+				int size = TilePyramid.TILE_SIZE >> shift;
+				int sx = (col - ((col >> shift) << shift)) * size;
+				int sy = (row - ((row >> shift) << shift)) * size;
+				g.drawImage(parent, x1, y1, x2, y2, sx, sy, Math.min(sx + size, parent.getWidth()), Math.min(sy + size, parent.getHeight()), null);
+				return;
+			}
+		}
+		g.setColor(Color.LIGHT_GRAY);
+		g.fillRect(x1, y1, x2 - x1, y2 - y1);
+	}
+	
+	private int levelToScreenX(int levelX, double scaleX) {
+		return (int)Math.round(this.getMapLeft() + (this.getMapLeft() + levelX / scaleX - this.viewX) * this.zoom);
+	}
+	
+	private int levelToScreenY(int levelY, double scaleY) {
+		return (int)Math.round(this.getMapTop() + (this.getMapTop() + levelY / scaleY - this.viewY) * this.zoom);
+	}
+	
+	public void paint(Graphics g) {
+		/*Copy the map, border and store markers from the cache*/
+		if (this.staticLayer == null) {
+			this.staticLayer = this.renderStaticLayer();
+		}
+		g.drawImage(this.staticLayer, this.mapXLoc - (this.mapWidth / 2) - this.mapBorderThickness, this.mapYLoc - (this.mapHeight / 2) - this.mapBorderThickness, null);
+		
+		/*Draw the route under the user point*/
+		if (this.route != null && this.route.getStopCount() > 0) {
+			this.drawRoute(g);
+		}
+		
+		/*Draw point at user location, if it's in view*/
+		int userX = this.toScreenX(this.userXLoc);
+		int userY = this.toScreenY(this.userYLoc);
+		if (this.onMap(userX, userY)) {
+			g.setColor(Color.RED);
+			g.fillRect(userX - (this.pointDimensions / 2), userY - (this.pointDimensions / 2), this.pointDimensions, this.pointDimensions);
 		}
 		
 		/*Draw user loc info if hovering over user*/
 		g.setColor(Color.BLACK);
-		g.setFont(new Font("SansSerif", Font.BOLD, 14));
+		g.setFont(this.overlayFont);
 		if (this.userHovered) {
-			g.drawString("Your location", this.userXLoc, this.userYLoc + (this.screenHeight / 50));
+			g.drawString(this.userText(), userX, this.userTextYLoc());
 		}
 		
-		/*If a store is selected, draw that store's info at all times*/
-		if (this.storeSelected) {
-			g.drawString("* " + this.selectedStore.getName() + " - " + this.selectedStore.getDistanceTo() + " ft", this.selectedStore.getXLoc(), this.selectedStore.getYLoc() - (this.screenHeight / 75));
+		/*If a store is selected, draw that store's info at all times (while it's in view)*/
+		if (this.storeSelected && this.inView(this.selectedStore)) {
+			g.drawString(this.selectedStoreText(), this.toScreenX(this.selectedStore.getXLoc()), this.storeTextYLoc(this.selectedStore));
 		}
 		
 		/*Draw hovered store info, if hovered over any store that's not selected*/
+		if (this.storeHovered && this.inView(this.hoveredStore)) {
+			g.drawString(this.hoveredStoreText(), this.toScreenX(this.hoveredStore.getXLoc()), this.storeTextYLoc(this.hoveredStore));
+		}
+		
+		this.paintedOverlays = this.overlayBounds();
+	}
+	
+	/*Lines from the user through the stops and back, and each stop's place in the
+	 *order - kept inside the map*/
+	private void drawRoute(Graphics g) {
+		Graphics2D r = (Graphics2D)g.create();
+		r.clipRect(this.getMapLeft(), this.getMapTop(), this.mapWidth, this.mapHeight);
+		r.setColor(this.routeColor);
+		r.setStroke(new BasicStroke(this.routeThickness, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+		int n = this.route.getStopCount();
+		int[] xs = new int[n + 2];
+		int[] ys = new int[n + 2];
+		xs[0] = this.toScreenX(this.route.getUserX());
+		ys[0] = this.toScreenY(this.route.getUserY());
+		for (int i = 0; i < n; i++) {
+			xs[i + 1] = this.toScreenX(this.route.getStop(i).getXLoc());
+			ys[i + 1] = this.toScreenY(this.route.getStop(i).getYLoc());
+		}
+		xs[n + 1] = xs[0];
+		ys[n + 1] = ys[0];
+		r.drawPolyline(xs, ys, n + 2);
+		r.setFont(this.overlayFont);
+		for (int i = 1; i <= n; i++) {
+			r.drawString(String.valueOf(i), xs[i] + this.pointDimensions, ys[i] + this.pointDimensions * 2);
+		}
+		r.dispose();
+	}
+	
+	private String userText() {
+		return "Your location";
+	}
+	
+	private String selectedStoreText() {
+		return "* " + this.selectedStore.getName() + " - " + this.selectedStore.getDistanceTo() + " ft";
+	}
+	
+	private String hoveredStoreText() {
+		return this.hoveredStore.getName() + " - " + this.hoveredStore.getDistanceTo() + " ft";
+	}
+	
+	private int userTextYLoc() {
+		return this.toScreenY(this.userYLoc) + (this.screenHeight / 50);
+	}
+	
+	private int storeTextYLoc(Store s) {
+		return this.toScreenY(s.getYLoc()) - (this.screenHeight / 75);
+	}
+	
+	private boolean inView(Store s) {
+		return this.onMap(this.toScreenX(s.getXLoc()), this.toScreenY(s.getYLoc()));
+	}
+	
+	/*Area covered by text drawn at x, y (y being the baseline) - with a pixel to spare
+	 *for antialiasing*/
+	private Rectangle textBounds(String text, int x, int y) {
+		FontMetrics fm = this.getFontMetrics(this.overlayFont);
+		return new Rectangle(x - 1, y - fm.getAscent() - 1, fm.stringWidth(text) + 2, fm.getHeight() + 2);
+	}
+	
+	/*Everything that can change between paints, as things stand right now*/
+	private Rectangle overlayBounds() {
+		int userX = this.toScreenX(this.userXLoc);
+		Rectangle r = new Rectangle(userX - this.pointDimensions, this.toScreenY(this.userYLoc) - this.pointDimensions, this.pointDimensions * 2, this.pointDimensions * 2);
+		if (this.userHovered) {
+			r.add(this.textBounds(this.userText(), userX, this.userTextYLoc()));
+		}
+		if (this.storeSelected) {
+			r.add(this.textBounds(this.selectedStoreText(), this.toScreenX(this.selectedStore.getXLoc()), this.storeTextYLoc(this.selectedStore)));
+		}
 		if (this.storeHovered) {
-			g.drawString(this.hoveredStore.getName() + " - " + this.hoveredStore.getDistanceTo() + " ft", this.hoveredStore.getXLoc(), this.hoveredStore.getYLoc() - (this.screenHeight / 75));
+			r.add(this.textBounds(this.hoveredStoreText(), this.toScreenX(this.hoveredStore.getXLoc()), this.storeTextYLoc(this.hoveredStore)));
+		}
+		if (this.route != null && this.route.getStopCount() > 0) {
+			r.add(this.routeBounds());
 		}
+		return r;
+	}
+	
+	/*Area the route covers - its points, the line's thickness and the stop numbers
+	 *(drawn below and to the right of each stop)*/
+	private Rectangle routeBounds() {
+		Rectangle b = new Rectangle(this.toScreenX(this.route.getUserX()), this.toScreenY(this.route.getUserY()), 0, 0);
+		for (int i = 0; i < this.route.getStopCount(); i++) {
+			b.add(this.textBounds(String.valueOf(i + 1), this.toScreenX(this.route.getStop(i).getXLoc()) + this.pointDimensions, this.toScreenY(this.route.getStop(i).getYLoc()) + this.pointDimensions * 2));
+			b.add(this.toScreenX(this.route.getStop(i).getXLoc()), this.toScreenY(this.route.getStop(i).getYLoc()));
+		}
+		b.grow(this.routeThickness, this.routeThickness);
+		return b;
+	}
+	
+	/*Repaint the overlays - where they were last drawn (to erase them) and where they
+	 *are now. Called by the setters, and by the controller when something the overlays
+	 *show changes underneath them (e.g. store distances during a drag).*/
+	public void refreshOverlays() {
+		this.renderScheduler.markDirty(this.paintedOverlays);
+		this.renderScheduler.markDirty(this.overlayBounds());
 	}
 	
 	public void setSelectedStoreBool(Boolean b) {
-		this.storeSelected = b;
+		if (this.storeSelected != b) {
+			this.storeSelected = b;
+			this.refreshOverlays();
+		}
 	}
 	
 	/*It's easier to just pass the store since the text will be drawn to
 	 *the screen with Graphics (as opposed to it being some JComponent that we would
 	 *set the text of)*/
 	public void setSelectedStore(Store s) {
-		this.selectedStore = s;
+		if (this.selectedStore != s) {
+			this.selectedStore = s;
+			this.refreshOverlays();
+		}
 	}
 	
 	public void setHoveredStoreBool(Boolean b) {
-		this.storeHovered = b;
+		if (this.storeHovered != b) {
+			this.storeHovered = b;
+			this.refreshOverlays();
+		}
 	}
 	
 	public void setHoveredStore(Store s) {
-		this.hoveredStore = s;
+		if (this.hoveredStore != s) {
+			this.hoveredStore = s;
+			this.refreshOverlays();
+		}
+	}
+	
+	/*Show a trip over the map, or none if r is null*/
+	public void setRoute(Route r) {
+		if (this.route != r) {
+			this.route = r;
+			this.refreshOverlays();
+		}
 	}
 	
 	public void setUserLoc(int x, int y) {
-		this.userXLoc = x;
-		this.userYLoc = y;
+		if (this.userXLoc != x || this.userYLoc != y) {
+			this.userXLoc = x;
+			this.userYLoc = y;
+			this.refreshOverlays();
+		}
 	}
 	
 	public void setUserHovered(boolean b) {
-		this.userHovered = b;
+		if (this.userHovered != b) {
+			this.userHovered = b;
+			this.refreshOverlays();
+		}
 	}
 }
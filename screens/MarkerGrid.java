@@ -0,0 +1,106 @@
+package screens;
+
+import classes.Store;
+import java.util.ArrayList;
+
+/*Screen-space spatial hash of the store markers, for hover and click hit testing.
+ *The map area is cut into square cells the size of a marker's hit box, and each store
+ *is filed under every cell its hit box touches (at most four). Finding the store under
+ *the cursor is then one cell lookup and a check of the few stores filed there, instead
+ *of a check against every store. Cells are packed into two flat arrays (cellStart gives
+ *each cell's range in cellStores) so the grid is cheap to build and to keep around.
+ *Marker positions only move when the map geometry does (zooming or panning), so the
+ *grid is only rebuilt then - never per mouse event. Markers that are scrolled out of
+ *the map area aren't filed at all.*/
+public class MarkerGrid {
+	private Store[] stores;
+	private int[] xs; // marker positions on screen, by index into stores
+	private int[] ys;
+	private int hitRadius; // a hit is within this many pixels of the marker, in x and in y
+	
+	private int originX;
+	private int originY;
+	private int cellSize;
+	private int cols;
+	private int rows;
+	
+	private int[] cellStart; // cellStores[cellStart[c]] to cellStores[cellStart[c + 1] - 1] are in cell c
+	private int[] cellStores; // indices into stores
+	
+	public MarkerGrid(ArrayList<Store> s, int[] sx, int[] sy, int x, int y, int w, int h, int r) {
+		this.stores = s.toArray(new Store[0]);
+		this.xs = sx;
+		this.ys = sy;
+		this.hitRadius = r;
+		this.cellSize = Math.max(1, 2 * r);
+		
+		/*Hit boxes can hang over the edge of the area by up to the radius*/
+		this.originX = x - r;
+		this.originY = y - r;
+		this.cols = (w + 2 * r) / this.cellSize + 1;
+		this.rows = (h + 2 * r) / this.cellSize + 1;
+		
+		/*Count how many stores land in each cell, turn the counts into offsets, then
+		 *fill in the stores*/
+		int[] counts = new int[this.cols * this.rows + 1];
+		for (int i = 0; i < this.stores.length; i++) {
+			if (this.onMap(i, x, y, w, h)) {
+				this.forEachCell(i, counts, null);
+			}
+		}
+		this.cellStart = new int[counts.length];
+		for (int c = 0; c < counts.length - 1; c++) {
+			this.cellStart[c + 1] = this.cellStart[c] + counts[c];
+		}
+		this.cellStores = new int[this.cellStart[counts.length - 1]];
+		int[] next = this.cellStart.clone();
+		for (int i = 0; i < this.stores.length; i++) {
+			if (this.onMap(i, x, y, w, h)) {
+				this.forEachCell(i, null, next);
+			}
+		}
+	}
+	
+	/*Store whose hit box contains the point, or null. If the boxes of several stores
+	 *overlap there, the one that comes last in the store list wins, same as the old
+	 *linear scan.*/
+	public Store storeAt(int px, int py) {
+		int cx = (px - this.originX) / this.cellSize;
+		int cy = (py - this.originY) / this.cellSize;
+		if (px < this.originX || py < this.originY || cx >= this.cols || cy >= this.rows) {
+			return null;
+		}
+		int c = cy * this.cols + cx;
+		int match = -1;
+		for (int k = this.cellStart[c]; k < this.cellStart[c + 1]; k++) {
+			int i = this.cellStores[k];
+			if (i > match && Math.abs(px - this.xs[i]) <= this.hitRadius && Math.abs(py - this.ys[i]) <= this.hitRadius) {
+				match = i;
+			}
+		}
+		return match == -1 ? null : this.stores[match];
+	}
+	
+	/*Visit every cell the store's hit box overlaps - either counting it, or writing the
+	 *store's index into the cell's next free slot*/
+	private void forEachCell(int index, int[] counts, int[] next) {
+		int minX = Math.max(0, (this.xs[index] - this.hitRadius - this.originX) / this.cellSize);
+		int maxX = Math.min(this.cols - 1, (this.xs[index] + this.hitRadius - this.originX) / this.cellSize);
+		int minY = Math.max(0, (this.ys[index] - this.hitRadius - this.originY) / this.cellSize);
+		int maxY = Math.min(this.rows - 1, (this.ys[index] + this.hitRadius - this.originY) / this.cellSize);
+		for (int cy = minY; cy <= maxY; cy++) {
+			for (int cx = minX; cx <= maxX; cx++) {
+				int c = cy * this.cols + cx;
+				if (counts != null) {
+					counts[c]++;
+				} else {
+					this.cellStores[next[c]++] = index;
+				}
+			}
+		}
+	}
+	
+	private boolean onMap(int index, int x, int y, int w, int h) {
+		return this.xs[index] >= x && this.xs[index] <= x + w && this.ys[index] >= y && this.ys[index] <= y + h;
+	}
+}
@@ -1,6 +1,8 @@
 package screens;
 
+import javax.swing.JList;
 import javax.swing.JPanel;
+import javax.swing.JScrollPane;
 import java.awt.Color;
 import java.awt.Font;
 
@@ -47,4 +49,12 @@ public abstract class NonMenuScreen extends JPanel {
 	public int getScreenRatioY() {
 		return this.screenRatioY;
 	}
+	
+	/*Give every row of the list the same size, so Swing doesn't measure every row (every
+	 *product in the catalog) to lay it out - one row's height, and the width the scroll
+	 *pane leaves for it*/
+	protected void fixCellSize(JList<String> list, JScrollPane pane, int width) {
+		list.setPrototypeCellValue("Xg");
+		list.setFixedCellWidth(width - pane.getVerticalScrollBar().getPreferredSize().width - 4);
+	}
 }
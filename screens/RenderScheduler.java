@@ -0,0 +1,66 @@
+package screens;
+
+import java.awt.Container;
+import java.awt.Rectangle;
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+
+/*Change-driven repainting for a screen. Instead of repainting the whole frame on a
+ *timer, whatever changes the screen's state marks the area that changed as dirty; all
+ *the regions marked while handling one event are merged and repainted once, right
+ *after the event finishes. Nothing is painted while nothing changes.
+ *
+ *The repaint is issued on the screen's parent rather than the screen itself, because
+ *the labels on top of the screen are siblings in the frame - repainting just the screen
+ *would paint over them (which is where the old flashing labels came from). Everything
+ *here runs on the event dispatch thread.*/
+public class RenderScheduler implements Runnable {
+	private JComponent screen;
+	private Rectangle dirty = null; // in the screen's coordinates
+	private boolean scheduled = false;
+	
+	public RenderScheduler(JComponent s) {
+		this.screen = s;
+	}
+	
+	public void markDirty(Rectangle r) {
+		if (r == null || r.isEmpty()) {
+			return;
+		}
+		if (this.dirty == null) {
+			this.dirty = new Rectangle(r);
+		} else {
+			this.dirty.add(r);
+		}
+		if (!this.scheduled) {
+			this.scheduled = true;
+			SwingUtilities.invokeLater(this);
+		}
+	}
+	
+	public void markDirty(int x, int y, int w, int h) {
+		this.markDirty(new Rectangle(x, y, w, h));
+	}
+	
+	public void markAllDirty() {
+		this.markDirty(new Rectangle(0, 0, this.screen.getWidth(), this.screen.getHeight()));
+	}
+	
+	/*Flush - repaint everything marked since the last flush*/
+	@Override
+	public void run() {
+		Rectangle r = this.dirty;
+		this.dirty = null;
+		this.scheduled = false;
+		if (r == null || !this.screen.isShowing()) {
+			return; // off-screen screens get a full paint when they're shown again
+		}
+		Container target = this.screen.getParent();
+		if (target == null) {
+			this.screen.repaint(r);
+		} else {
+			Rectangle t = SwingUtilities.convertRectangle(this.screen, r, target);
+			target.repaint(t.x, t.y, t.width, t.height);
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package screens;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.swing.SwingUtilities;
+
+/*In-memory LRU cache of decoded map tiles in front of a TilePyramid. Asking for a tile
+ *that isn't cached returns null right away and queues it to be decoded on a background
+ *thread; when it's ready it goes into the cache and the listener is told (on the event
+ *thread), so the map can repaint with it. The decode queue is last-in-first-out, so
+ *while the user pans or zooms quickly the tiles they're looking at now get decoded
+ *before ones that have already scrolled away.
+ *
+ *get/peek and the listener only run on the event thread - the cache itself isn't
+ *synchronized.*/
+public class TileCache {
+	private TilePyramid pyramid;
+	private Runnable onTileLoaded;
+	
+	private LinkedHashMap<Long, BufferedImage> tiles;
+	private HashSet<Long> pending; // queued or being decoded
+	private ThreadPoolExecutor decoder;
+	
+	public TileCache(TilePyramid p, final int capacity, Runnable listener) {
+		this.pyramid = p;
+		this.onTileLoaded = listener;
+		this.pending = new HashSet<Long>();
+		
+		/*Access-ordered, so the eldest entry is always the least recently drawn tile*/
+		this.tiles = new LinkedHashMap<Long, BufferedImage>(capacity * 4 / 3 + 1, .75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> eldest) {
+				return this.size() > capacity;
+			}
+		};
+		
+		this.decoder = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS, new LinkedBlockingDeque<Runnable>() {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			public boolean offer(Runnable r) {
+				return this.offerFirst(r); // newest request first
+			}
+		}, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "tile-decoder");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	
+	/*The tile if it's cached, otherwise null (and it gets queued for decoding)*/
+	public BufferedImage get(final int level, final int col, final int row) {
+		final Long key = key(level, col, row);
+		BufferedImage tile = this.tiles.get(key);
+		if (tile == null && this.pending.add(key)) {
+			this.decoder.execute(new Runnable() {
+				@Override
+				public void run() {
+					load(key, level, col, row);
+				}
+			});
+		}
+		return tile;
+	}
+	
+	/*The tile if it's cached, otherwise null - never queues anything (for fallbacks)*/
+	public BufferedImage peek(int level, int col, int row) {
+		return this.tiles.get(key(level, col, row));
+	}
+	
+	private void load(final Long key, int level, int col, int row) {
+		BufferedImage tile = null;
+		try {
+			tile = this.pyramid.readTile(level, col, row);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		final BufferedImage loaded = tile;
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				pending.remove(key);
+				if (loaded != null) {
+					tiles.put(key, loaded);
+					onTileLoaded.run();
+				}
+			}
+		});
+	}
+	
+	private static Long key(int level, int col, int row) {
+		return Long.valueOf(((long)level << 48) | ((long)col << 24) | row);
+	}
+}
@@ -0,0 +1,154 @@
+package screens;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import javax.imageio.ImageIO;
+
+/*Multi-resolution tile pyramid of the map image, kept on disk. Level 0 is the source
+ *image at full resolution, and every level after that is half the size of the one
+ *before it, down to a level that fits in a single tile. Each level is cut into square
+ *PNG tiles (<dir>/<level>/<col>_<row>.png - tiles on the right and bottom edges can be
+ *smaller), so the map screen only ever decodes the handful of tiles it's showing at
+ *the current zoom instead of the whole image.
+ *
+ *The pyramid is built from the source image the first time it's opened (the only time
+ *the whole source gets decoded), and reused after that until the source changes.*/
+public class TilePyramid {
+	public static final int TILE_SIZE = 256;
+	
+	private static final String metaFileName = "pyramid.properties";
+	
+	private File dir;
+	private int width; // of level 0
+	private int height;
+	private int levels;
+	
+	private TilePyramid(File d, int w, int h, int l) {
+		this.dir = d;
+		this.width = w;
+		this.height = h;
+		this.levels = l;
+	}
+	
+	/*Open the pyramid for the source image, building it first if it's missing or was
+	 *built from an older version of the source*/
+	public static TilePyramid open(String sourcePath, String dirPath) throws IOException {
+		File source = new File(sourcePath);
+		File dir = new File(dirPath);
+		File meta = new File(dir, metaFileName);
+		if (meta.exists()) {
+			Properties p = new Properties();
+			try (InputStream in = new FileInputStream(meta)) {
+				p.load(in);
+			}
+			if (Long.parseLong(p.getProperty("sourceModified", "-1")) == source.lastModified()
+					&& Integer.parseInt(p.getProperty("tileSize", "-1")) == TILE_SIZE) {
+				return new TilePyramid(dir,
+						Integer.parseInt(p.getProperty("width")),
+						Integer.parseInt(p.getProperty("height")),
+						Integer.parseInt(p.getProperty("levels")));
+			}
+		}
+		return build(source, dir);
+	}
+	
+	private static TilePyramid build(File source, File dir) throws IOException {
+		BufferedImage level = ImageIO.read(source);
+		if (level == null) {
+			throw new IOException("Can't decode map image " + source);
+		}
+		int width = level.getWidth();
+		int height = level.getHeight();
+		
+		int l = 0;
+		while (true) {
+			writeTiles(level, new File(dir, Integer.toString(l)));
+			if (level.getWidth() <= TILE_SIZE && level.getHeight() <= TILE_SIZE) {
+				break;
+			}
+			level = halve(level);
+			l++;
+		}
+		
+		/*Metadata goes last, so a half-written pyramid gets rebuilt next time*/
+		Properties p = new Properties();
+		p.setProperty("width", Integer.toString(width));
+		p.setProperty("height", Integer.toString(height));
+		p.setProperty("levels", Integer.toString(l + 1));
+		p.setProperty("tileSize", Integer.toString(TILE_SIZE));
+		p.setProperty("sourceModified", Long.toString(source.lastModified()));
+		try (OutputStream out = new FileOutputStream(new File(dir, metaFileName))) {
+			p.store(out, "Map tile pyramid - generated, safe to delete");
+		}
+		return new TilePyramid(dir, width, height, l + 1);
+	}
+	
+	private static void writeTiles(BufferedImage level, File levelDir) throws IOException {
+		if (!levelDir.isDirectory() && !levelDir.mkdirs()) {
+			throw new IOException("Can't create tile directory " + levelDir);
+		}
+		for (int row = 0; row * TILE_SIZE < level.getHeight(); row++) {
+			for (int col = 0; col * TILE_SIZE < level.getWidth(); col++) {
+				int x = col * TILE_SIZE;
+				int y = row * TILE_SIZE;
+				BufferedImage tile = level.getSubimage(x, y,
+						Math.min(TILE_SIZE, level.getWidth() - x),
+						Math.min(TILE_SIZE, level.getHeight() - y));
+				ImageIO.write(tile, "png", new File(levelDir, col + "_" + row + ".png"));
+			}
+		}
+	}
+	
+	/*Half-size copy, rounding odd sizes up (matches getLevelWidth/getLevelHeight)*/
+	private static BufferedImage halve(BufferedImage src) {
+		int w = (src.getWidth() + 1) / 2;
+		int h = (src.getHeight() + 1) / 2;
+		BufferedImage dst = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = dst.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g.drawImage(src, 0, 0, w, h, null);
+		g.dispose();
+		return dst;
+	}
+	
+	public int getWidth() {
+		return this.width;
+	}
+	
+	public int getHeight() {
+		return this.height;
+	}
+	
+	public int getLevels() {
+		return this.levels;
+	}
+	
+	public int getLevelWidth(int level) {
+		return (this.width + (1 << level) - 1) >> level;
+	}
+	
+	public int getLevelHeight(int level) {
+		return (this.height + (1 << level) - 1) >> level;
+	}
+	
+	public int getColumns(int level) {
+		return (this.getLevelWidth(level) + TILE_SIZE - 1) / TILE_SIZE;
+	}
+	
+	public int getRows(int level) {
+		return (this.getLevelHeight(level) + TILE_SIZE - 1) / TILE_SIZE;
+	}
+	
+	/*Decode one tile from disk - slow, so TileCache calls this off the event thread*/
+	public BufferedImage readTile(int level, int col, int row) throws IOException {
+		return ImageIO.read(new File(new File(this.dir, Integer.toString(level)), col + "_" + row + ".png"));
+	}
+}